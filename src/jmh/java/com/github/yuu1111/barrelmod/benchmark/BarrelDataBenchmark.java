@@ -0,0 +1,79 @@
+package com.github.yuu1111.barrelmod.benchmark;
+
+import com.github.yuu1111.barrelmod.storage.BarrelData;
+import com.github.yuu1111.barrelmod.storage.ItemIds;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link BarrelData#deposit(String, int)}と{@link BarrelData#withdraw(int)}の性能
+ *
+ * 単一スレッドでの預け入れ・引き出しと、同じバレルに対する複数スレッドからの同時操作を計測する
+ * 単一スレッドの操作は、アイテムIDの文字列とインターン済みのハンドルの両方で計測する
+ * 容量の半分から開始し、1回ずつ同量を出し入れするため満杯や空にはならない
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class BarrelDataBenchmark {
+
+    @State(Scope.Thread)
+    public static class Uncontended {
+        BarrelData barrel;
+        int item;
+
+        @Setup
+        public void setup() {
+            barrel = newBarrel();
+            item = ItemIds.intern(SyntheticBarrels.ITEM_ID);
+        }
+    }
+
+    @State(Scope.Group)
+    public static class Contended {
+        BarrelData barrel;
+
+        @Setup
+        public void setup() {
+            barrel = newBarrel();
+        }
+    }
+
+    @Benchmark
+    public int depositWithdraw(Uncontended state) {
+        return state.barrel.deposit(SyntheticBarrels.ITEM_ID, 16) + state.barrel.withdraw(16);
+    }
+
+    @Benchmark
+    public int depositWithdrawByHandle(Uncontended state) {
+        return state.barrel.deposit(state.item, 16) + state.barrel.withdraw(16);
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(2)
+    public int contendedDeposit(Contended state) {
+        return state.barrel.deposit(SyntheticBarrels.ITEM_ID, 1);
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(2)
+    public int contendedWithdraw(Contended state) {
+        return state.barrel.withdraw(1);
+    }
+
+    private static BarrelData newBarrel() {
+        return new BarrelData(UUID.randomUUID(), 0, 64, 0, SyntheticBarrels.WORLD_ID, SyntheticBarrels.ITEM_ID,
+                BarrelData.DEFAULT_MAX_CAPACITY / 2, BarrelData.DEFAULT_MAX_CAPACITY, false, null);
+    }
+}
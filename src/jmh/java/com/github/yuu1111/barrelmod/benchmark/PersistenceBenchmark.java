@@ -0,0 +1,93 @@
+package com.github.yuu1111.barrelmod.benchmark;
+
+import com.github.yuu1111.barrelmod.storage.BarrelData;
+import com.github.yuu1111.barrelmod.storage.BarrelDataManager;
+import com.github.yuu1111.barrelmod.storage.BarrelRegistry;
+import com.github.yuu1111.barrelmod.storage.RegionPos;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * 全リージョンの保存と読み込みの性能
+ *
+ * saveAllは全リージョンをダーティにしてから{@link BarrelDataManager#saveChanges(BarrelRegistry)}を呼び出し、
+ * loadAllは事前読み込みを有効にした{@link BarrelDataManager#open(BarrelRegistry, boolean)}で全リージョンを読み込む
+ * ファイルは一時ディレクトリに作成され、計測終了後に削除される
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 2)
+@Measurement(iterations = 3)
+public class PersistenceBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    public int barrelCount;
+
+    @Param({"binary", "mapped", "json"})
+    public String storageFormat;
+
+    private Path dataFolder;
+    private BarrelDataManager dataManager;
+    private BarrelRegistry registry;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        dataFolder = Files.createTempDirectory("barrelmod-bench");
+        dataManager = new BarrelDataManager(dataFolder, storageFormat);
+        registry = new BarrelRegistry();
+        dataManager.open(registry);
+        for (BarrelData barrel : SyntheticBarrels.barrels(barrelCount, 3)) {
+            registry.register(barrel);
+        }
+        dataManager.saveChanges(registry);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        dataManager.close();
+        try (Stream<Path> files = Files.walk(dataFolder)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    @Benchmark
+    public int saveAll() {
+        for (RegionPos region : registry.getLoadedRegions()) {
+            registry.markRegionDirty(region);
+        }
+        return dataManager.saveChanges(registry);
+    }
+
+    @Benchmark
+    public int loadAll() {
+        BarrelRegistry loaded = new BarrelRegistry();
+        BarrelDataManager manager = new BarrelDataManager(dataFolder, storageFormat);
+        manager.open(loaded, true);
+        int count = loaded.getLoadedRegions().size();
+        loaded.clear();
+        manager.close();
+        return count;
+    }
+}
@@ -0,0 +1,67 @@
+package com.github.yuu1111.barrelmod.benchmark;
+
+import com.github.yuu1111.barrelmod.storage.BarrelData;
+import com.github.yuu1111.barrelmod.storage.BarrelRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 複数スレッドからの{@link BarrelRegistry#register(BarrelData)}と{@link BarrelRegistry#unregister(BarrelData)}の性能
+ *
+ * 各スレッドは自分専用のチャンク列にバレルを登録して直後に解除するため、
+ * 計測されるのはデータの衝突ではなくレジストリのロックの競合になる
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RegistryChurnBenchmark {
+
+    private static final int BARRELS_PER_THREAD = 1024;
+
+    @State(Scope.Benchmark)
+    public static class Shared {
+        final BarrelRegistry registry = new BarrelRegistry();
+        final AtomicInteger nextThread = new AtomicInteger();
+
+        @Setup
+        public void setup() {
+            for (BarrelData barrel : SyntheticBarrels.barrels(10_000, 2)) {
+                registry.register(barrel);
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class PerThread {
+        BarrelData[] barrels;
+        int next;
+
+        @Setup
+        public void setup(Shared shared) {
+            int thread = shared.nextThread.getAndIncrement();
+            barrels = new BarrelData[BARRELS_PER_THREAD];
+            for (int i = 0; i < BARRELS_PER_THREAD; i++) {
+                // 合成データの範囲外にスレッドごとの列を割り当てる
+                barrels[i] = new BarrelData(UUID.randomUUID(), 100_000 + thread * 64, i % 256, i / 256,
+                        SyntheticBarrels.WORLD_ID, null, 0, BarrelData.DEFAULT_MAX_CAPACITY, false, null);
+            }
+        }
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void registerUnregister(Shared shared, PerThread local) {
+        BarrelData barrel = local.barrels[local.next++ & (BARRELS_PER_THREAD - 1)];
+        shared.registry.register(barrel);
+        shared.registry.unregister(barrel);
+    }
+}
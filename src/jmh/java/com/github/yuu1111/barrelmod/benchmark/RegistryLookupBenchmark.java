@@ -0,0 +1,77 @@
+package com.github.yuu1111.barrelmod.benchmark;
+
+import com.github.yuu1111.barrelmod.storage.BarrelData;
+import com.github.yuu1111.barrelmod.storage.BarrelRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link BarrelRegistry#getByPosition(int, int, int, int)}の検索性能
+ *
+ * ヒットは登録済みのバレルの座標、ミスは登録済みのバレルの1ブロック上の座標を検索する
+ * ミスの座標は同じチャンクにあるため、リージョンの読み込みは発生しない
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RegistryLookupBenchmark {
+
+    private static final int PROBES = 4096;
+
+    @Param({"1000", "100000"})
+    public int barrelCount;
+
+    private BarrelRegistry registry;
+    private int worldHandle;
+    private int[][] hits;
+    private int[][] misses;
+    private int next;
+
+    @Setup
+    public void setup() {
+        registry = new BarrelRegistry();
+        worldHandle = registry.getWorldHandle(SyntheticBarrels.WORLD_ID);
+        BarrelData[] barrels = SyntheticBarrels.barrels(barrelCount, 1);
+        for (BarrelData barrel : barrels) {
+            registry.register(barrel);
+        }
+
+        hits = new int[PROBES][];
+        misses = new int[PROBES][];
+        for (int i = 0; i < PROBES; i++) {
+            BarrelData barrel = barrels[(int) ((long) i * barrelCount / PROBES)];
+            hits[i] = new int[]{barrel.getPosX(), barrel.getPosY(), barrel.getPosZ()};
+            int y = barrel.getPosY() + 1;
+            while (registry.existsAt(barrel.getPosX(), y, barrel.getPosZ(), worldHandle)) {
+                y++;
+            }
+            misses[i] = new int[]{barrel.getPosX(), y, barrel.getPosZ()};
+        }
+    }
+
+    @Benchmark
+    public Object hit() {
+        int[] p = hits[next++ & (PROBES - 1)];
+        return registry.getByPosition(p[0], p[1], p[2], worldHandle);
+    }
+
+    @Benchmark
+    public Object miss() {
+        int[] p = misses[next++ & (PROBES - 1)];
+        return registry.getByPosition(p[0], p[1], p[2], worldHandle);
+    }
+
+    @Benchmark
+    public boolean mightContainMiss() {
+        int[] p = misses[next++ & (PROBES - 1)];
+        return registry.mightContain(p[0], p[1], p[2], worldHandle);
+    }
+}
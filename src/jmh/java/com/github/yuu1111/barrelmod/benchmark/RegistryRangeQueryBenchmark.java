@@ -0,0 +1,82 @@
+package com.github.yuu1111.barrelmod.benchmark;
+
+import com.github.yuu1111.barrelmod.storage.BarrelData;
+import com.github.yuu1111.barrelmod.storage.BarrelRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link BarrelRegistry#queryRadius}と{@link BarrelRegistry#queryBox}の検索性能
+ *
+ * 中心は登録済みのバレルの座標から選ぶため、検索範囲には常にバレルが含まれる
+ * 比較のため、全バレルを走査して同じ条件で数える場合も計測する
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RegistryRangeQueryBenchmark {
+
+    private static final int PROBES = 1024;
+
+    @Param({"1000", "100000"})
+    public int barrelCount;
+
+    @Param({"8", "48"})
+    public int radius;
+
+    private BarrelRegistry registry;
+    private int[][] centers;
+    private int next;
+
+    @Setup
+    public void setup() {
+        registry = new BarrelRegistry();
+        BarrelData[] barrels = SyntheticBarrels.barrels(barrelCount, 1);
+        for (BarrelData barrel : barrels) {
+            registry.register(barrel);
+        }
+
+        centers = new int[PROBES][];
+        for (int i = 0; i < PROBES; i++) {
+            BarrelData barrel = barrels[(int) ((long) i * barrelCount / PROBES)];
+            centers[i] = new int[]{barrel.getPosX(), barrel.getPosY(), barrel.getPosZ()};
+        }
+    }
+
+    @Benchmark
+    public long queryRadius() {
+        int[] c = centers[next++ & (PROBES - 1)];
+        return registry.queryRadius(SyntheticBarrels.WORLD_ID, c[0], c[1], c[2], radius).count();
+    }
+
+    @Benchmark
+    public long queryBox() {
+        int[] c = centers[next++ & (PROBES - 1)];
+        return registry.queryBox(SyntheticBarrels.WORLD_ID, c[0] - radius, c[1] - radius, c[2] - radius,
+                c[0] + radius, c[1] + radius, c[2] + radius).count();
+    }
+
+    @Benchmark
+    public long fullScan() {
+        int[] c = centers[next++ & (PROBES - 1)];
+        long radiusSquared = (long) radius * radius;
+        long count = 0;
+        for (BarrelData barrel : registry.getAllBarrels()) {
+            long dx = barrel.getPosX() - c[0];
+            long dy = barrel.getPosY() - c[1];
+            long dz = barrel.getPosZ() - c[2];
+            if (dx * dx + dy * dy + dz * dz <= radiusSquared) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
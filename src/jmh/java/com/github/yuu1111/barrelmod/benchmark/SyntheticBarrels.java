@@ -0,0 +1,69 @@
+package com.github.yuu1111.barrelmod.benchmark;
+
+import com.github.yuu1111.barrelmod.storage.BarrelData;
+import com.github.yuu1111.barrelmod.storage.PositionKey;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * ベンチマーク用の合成バレルデータ
+ *
+ * Hytaleの型を使用せず、座標とIDを固定シードの乱数から生成するため、同じ引数で常に同じデータになる
+ * バレルは1辺がバレル数の平方根に比例する正方形の範囲に、重ならないように配置される
+ */
+final class SyntheticBarrels {
+
+    static final String WORLD_ID = "bench";
+    static final String ITEM_ID = "bench_item";
+    private static final int MAX_Y = 256;
+
+    private SyntheticBarrels() {
+    }
+
+    /**
+     * 重ならない座標を生成する
+     *
+     * @param count 生成する座標数
+     * @param seed 乱数シード
+     * @return 座標 (x, y, z) の配列
+     */
+    static int[][] positions(int count, long seed) {
+        Random random = new Random(seed);
+        int side = Math.max(32, (int) Math.sqrt(count) * 4);
+        Set<Long> used = new HashSet<>(count * 2);
+        int[][] positions = new int[count][];
+        int i = 0;
+        while (i < count) {
+            int x = random.nextInt(side) - side / 2;
+            int y = random.nextInt(MAX_Y);
+            int z = random.nextInt(side) - side / 2;
+            if (used.add(PositionKey.pack(x, y, z))) {
+                positions[i++] = new int[]{x, y, z};
+            }
+        }
+        return positions;
+    }
+
+    /**
+     * 重ならない座標にバレルを生成する
+     *
+     * @param count 生成するバレル数
+     * @param seed 乱数シード
+     * @return バレルの配列
+     */
+    static BarrelData[] barrels(int count, long seed) {
+        int[][] positions = positions(count, seed);
+        Random random = new Random(seed ^ 0x5DEECE66DL);
+        BarrelData[] barrels = new BarrelData[count];
+        for (int i = 0; i < count; i++) {
+            int[] p = positions[i];
+            barrels[i] = new BarrelData(new UUID(random.nextLong(), random.nextLong()), p[0], p[1], p[2],
+                    WORLD_ID, ITEM_ID, random.nextInt(BarrelData.DEFAULT_MAX_CAPACITY) + 1,
+                    BarrelData.DEFAULT_MAX_CAPACITY, false, null);
+        }
+        return barrels;
+    }
+}
@@ -0,0 +1,502 @@
+package com.github.yuu1111.barrelmod.loadtest;
+
+import com.github.yuu1111.barrelmod.interaction.BarrelInteractions;
+import com.github.yuu1111.barrelmod.interaction.InteractionResult;
+import com.github.yuu1111.barrelmod.metrics.BarrelMetrics;
+import com.github.yuu1111.barrelmod.storage.BarrelData;
+import com.github.yuu1111.barrelmod.storage.BarrelRecord;
+import com.github.yuu1111.barrelmod.storage.BarrelRegistry;
+import com.github.yuu1111.barrelmod.storage.PositionKey;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Hytaleサーバーなしでバレルへの同時操作をシミュレーションする負荷試験
+ *
+ * 仮想スレッド1つを1人のプレイヤーとして、共有の{@link BarrelRegistry}に対して
+ * 預け入れ・一括預け入れ・引き出し・設置・破壊を発生させる
+ * アイテムの移動はイベントリスナーと同じ{@link BarrelInteractions}を通して行う
+ * 実行後にスループット、操作ごとのレイテンシ分布、アイテム数の保存則の違反を出力する
+ *
+ * サーバー上では操作はワールドのスレッドで直列に適用されるが、ここでは全プレイヤーが同時にバレルを操作するため、
+ * 実際より強い競合の下でバレルとレジストリの整合性を検証できる
+ * 設置と破壊のみ、ワールドのブロック更新を模して座標ごとに直列化する
+ *
+ * 引数 (全て省略可能):
+ * <pre>
+ * --players=1000   プレイヤー数
+ * --barrels=2000   初期のバレル数 (座標の候補はこの2倍)
+ * --seconds=30     実行時間
+ * --items=8        アイテムの種類数
+ * --stack=64       1スロットに入るアイテム数
+ * --think-micros=0 プレイヤーごとの操作間隔 (マイクロ秒)
+ * --seed=1         乱数シード
+ * </pre>
+ * 保存則または状態の違反があった場合は終了コード1で終了する
+ */
+public final class LoadTest {
+
+    private static final String WORLD_ID = "loadtest";
+    private static final int HOTBAR_SLOTS = 9;
+    private static final int STORAGE_SLOTS = 36;
+    private static final int LOCK_STRIPES = 1024;
+    private static final int MAX_REPORTED_VIOLATIONS = 20;
+
+    private final Options options;
+    private final BarrelRegistry registry = new BarrelRegistry();
+    private final BarrelInteractions interactions;
+    private final int worldHandle;
+    private final String[] itemIds;
+    private final int[][] cells;
+    private final ReentrantLock[] cellLocks = new ReentrantLock[LOCK_STRIPES];
+    private final Queue<BrokenBarrel> brokenBarrels = new ConcurrentLinkedQueue<>();
+    private final BarrelMetrics metrics = new BarrelMetrics();
+    private final BarrelMetrics.Histogram[] latency = new BarrelMetrics.Histogram[Operation.values().length];
+    private final LongAdder[] results = new LongAdder[InteractionResult.Status.values().length];
+    private final LongAdder itemsDeposited = new LongAdder();
+    private final LongAdder itemsWithdrawn = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder violationCount = new LongAdder();
+    private final Queue<String> violations = new ConcurrentLinkedQueue<>();
+    private volatile long deadline;
+
+    private LoadTest(Options options) {
+        this.options = options;
+        this.interactions = new BarrelInteractions(options.stackSize);
+        this.worldHandle = registry.getWorldHandle(WORLD_ID);
+        this.itemIds = new String[options.itemTypes];
+        for (int i = 0; i < itemIds.length; i++) {
+            itemIds[i] = "loadtest_item_" + i;
+        }
+        this.cells = generateCells(options.barrels * 2, options.seed);
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            cellLocks[i] = new ReentrantLock();
+        }
+        for (Operation operation : Operation.values()) {
+            latency[operation.ordinal()] = metrics.histogram(operation.name(), "");
+        }
+        for (int i = 0; i < results.length; i++) {
+            results[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * @param args --name=value形式の引数
+     */
+    public static void main(String[] args) throws InterruptedException {
+        LoadTest test = new LoadTest(Options.parse(args));
+        boolean passed = test.run();
+        System.exit(passed ? 0 : 1);
+    }
+
+    private boolean run() throws InterruptedException {
+        Random random = new Random(options.seed);
+        for (int i = 0; i < options.barrels; i++) {
+            int[] cell = cells[i];
+            int amount = random.nextInt(BarrelData.DEFAULT_MAX_CAPACITY / 2);
+            registry.register(new BarrelData(new UUID(random.nextLong(), random.nextLong()),
+                    cell[0], cell[1], cell[2], WORLD_ID, amount > 0 ? randomItem(random) : null, amount,
+                    BarrelData.DEFAULT_MAX_CAPACITY, false, null));
+        }
+
+        List<Player> players = new ArrayList<>(options.players);
+        for (int i = 0; i < options.players; i++) {
+            players.add(new Player(new UUID(random.nextLong(), random.nextLong()), random.nextLong()));
+        }
+        Map<String, Long> expected = countItems(players);
+
+        System.out.printf("Running %d players against %d barrels for %d seconds...%n",
+                options.players, options.barrels, options.seconds);
+        CountDownLatch start = new CountDownLatch(1);
+        long startNanos;
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (Player player : players) {
+                executor.execute(() -> {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                    play(player);
+                });
+            }
+            startNanos = System.nanoTime();
+            deadline = startNanos + TimeUnit.SECONDS.toNanos(options.seconds);
+            start.countDown();
+        }
+        long elapsedNanos = System.nanoTime() - startNanos;
+
+        Map<String, Long> actual = countItems(players);
+        return report(expected, actual, elapsedNanos);
+    }
+
+    /**
+     * 1人のプレイヤーの操作を実行時間が終わるまで繰り返す
+     */
+    private void play(Player player) {
+        Random random = player.random;
+        while (System.nanoTime() < deadline) {
+            Operation operation = Operation.pick(random);
+            int[] cell = cells[random.nextInt(cells.length)];
+            long start = System.nanoTime();
+            switch (operation) {
+                case DEPOSIT -> deposit(player, cell);
+                case DEPOSIT_ALL -> depositAll(player, cell);
+                case WITHDRAW -> withdraw(player, cell, random);
+                case PLACE -> place(player, cell);
+                case BREAK -> breakBarrel(cell);
+            }
+            latency[operation.ordinal()].record(System.nanoTime() - start);
+            if (options.thinkMicros > 0) {
+                LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(options.thinkMicros));
+            }
+        }
+    }
+
+    private void deposit(Player player, int[] cell) {
+        BarrelData barrel = lookup(cell);
+        int slot = player.hotbar.randomFilledSlot(player.random);
+        if (barrel == null || slot < 0) {
+            return;
+        }
+        record(barrel, interactions.deposit(barrel, player.hotbar,
+                player.hotbar.itemIdAt(slot), player.hotbar.quantityAt(slot)));
+    }
+
+    private void depositAll(Player player, int[] cell) {
+        BarrelData barrel = lookup(cell);
+        if (barrel == null) {
+            return;
+        }
+        String itemId = barrel.getStoredItemId();
+        if (itemId == null) {
+            int slot = player.hotbar.randomFilledSlot(player.random);
+            if (slot < 0) {
+                return;
+            }
+            itemId = player.hotbar.itemIdAt(slot);
+        }
+        record(barrel, interactions.depositAll(barrel, itemId, player.hotbar, player.storage));
+    }
+
+    private void withdraw(Player player, int[] cell, Random random) {
+        BarrelData barrel = lookup(cell);
+        if (barrel == null) {
+            return;
+        }
+        int requested = switch (random.nextInt(3)) {
+            case 0 -> 1;
+            case 1 -> options.stackSize;
+            default -> Integer.MAX_VALUE;
+        };
+        record(barrel, interactions.withdraw(barrel, player.storage, requested));
+    }
+
+    private void place(Player player, int[] cell) {
+        ReentrantLock lock = lockFor(cell);
+        lock.lock();
+        try {
+            if (!registry.existsAt(cell[0], cell[1], cell[2], worldHandle)) {
+                registry.register(new BarrelData(UUID.randomUUID(), cell[0], cell[1], cell[2], WORLD_ID,
+                        null, 0, BarrelData.DEFAULT_MAX_CAPACITY, false, player.uuid));
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void breakBarrel(int[] cell) {
+        ReentrantLock lock = lockFor(cell);
+        lock.lock();
+        try {
+            BarrelData barrel = lookup(cell);
+            if (barrel != null) {
+                registry.unregister(barrel);
+                brokenBarrels.add(new BrokenBarrel(barrel, barrel.snapshot()));
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * イベントリスナーと同じく、列ビットセットで除外してから座標で検索する
+     */
+    private BarrelData lookup(int[] cell) {
+        if (!registry.mightContain(cell[0], cell[1], cell[2], worldHandle)) {
+            misses.increment();
+            return null;
+        }
+        BarrelData barrel = registry.getByPosition(cell[0], cell[1], cell[2], worldHandle).orElse(null);
+        if (barrel == null) {
+            misses.increment();
+        }
+        return barrel;
+    }
+
+    private void record(BarrelData barrel, InteractionResult result) {
+        results[result.status().ordinal()].increment();
+        if (result.status() == InteractionResult.Status.DEPOSITED) {
+            itemsDeposited.add(result.amount());
+        } else if (result.status() == InteractionResult.Status.WITHDRAWN) {
+            itemsWithdrawn.add(result.amount());
+        }
+
+        BarrelRecord state = barrel.snapshot();
+        if (state.storedAmount() < 0 || state.storedAmount() > state.maxCapacity()
+                || (state.storedAmount() == 0) != (state.storedItemId() == null)) {
+            violation("Invalid barrel state after " + result.status() + ": " + state);
+        }
+    }
+
+    private void violation(String message) {
+        violationCount.increment();
+        if (violations.size() < MAX_REPORTED_VIOLATIONS) {
+            violations.add(message);
+        }
+    }
+
+    private ReentrantLock lockFor(int[] cell) {
+        return cellLocks[(int) (PositionKey.pack(cell[0], cell[1], cell[2]) & (LOCK_STRIPES - 1))];
+    }
+
+    private String randomItem(Random random) {
+        return itemIds[random.nextInt(itemIds.length)];
+    }
+
+    /**
+     * インベントリ、登録中のバレル、破壊されたバレルに含まれるアイテムをアイテムごとに合計する
+     */
+    private Map<String, Long> countItems(List<Player> players) {
+        Map<String, Long> totals = new TreeMap<>();
+        for (Player player : players) {
+            player.hotbar.addTotals(totals);
+            player.storage.addTotals(totals);
+        }
+        for (BarrelData barrel : registry.getAllBarrels()) {
+            addBarrel(totals, barrel.snapshot());
+        }
+        for (BrokenBarrel broken : brokenBarrels) {
+            addBarrel(totals, broken.barrel.snapshot());
+        }
+        return totals;
+    }
+
+    private static void addBarrel(Map<String, Long> totals, BarrelRecord state) {
+        if (state.storedItemId() != null) {
+            totals.merge(state.storedItemId(), (long) state.storedAmount(), Long::sum);
+        }
+    }
+
+    /**
+     * アイテムインデックスの合計数量とバレル数が、登録中のバレルの中身と一致するか確認する
+     */
+    private void checkItemIndex() {
+        Map<String, Long> totals = new TreeMap<>();
+        Map<String, Integer> counts = new TreeMap<>();
+        for (BarrelData barrel : registry.getAllBarrels()) {
+            BarrelRecord state = barrel.snapshot();
+            if (state.storedItemId() != null && state.storedAmount() > 0) {
+                totals.merge(state.storedItemId(), (long) state.storedAmount(), Long::sum);
+                counts.merge(state.storedItemId(), 1, Integer::sum);
+            }
+        }
+        for (String itemId : itemIds) {
+            BarrelRegistry.ItemSearchResult indexed = registry.findByItem(itemId, 0);
+            long total = totals.getOrDefault(itemId, 0L);
+            int count = counts.getOrDefault(itemId, 0);
+            if (indexed.total() != total || indexed.barrelCount() != count) {
+                violation("Item index out of sync for " + itemId + ": indexed " + indexed.total() + " in "
+                        + indexed.barrelCount() + " barrels, stored " + total + " in " + count + " barrels");
+            }
+        }
+    }
+
+    private boolean report(Map<String, Long> expected, Map<String, Long> actual, long elapsedNanos) {
+        double seconds = elapsedNanos / 1e9;
+        long totalOps = 0;
+        for (BarrelMetrics.Histogram histogram : latency) {
+            totalOps += histogram.count();
+        }
+
+        System.out.println("=== BarrelMod load test ===");
+        System.out.printf("players=%d barrels=%d cells=%d items=%d elapsed=%.1fs%n",
+                options.players, options.barrels, cells.length, options.itemTypes, seconds);
+        System.out.printf("operations=%d throughput=%.0f ops/s lookups missed=%d%n",
+                totalOps, totalOps / seconds, misses.sum());
+        System.out.println("latency (ns, bucket upper bounds):");
+        for (Operation operation : Operation.values()) {
+            BarrelMetrics.Histogram histogram = latency[operation.ordinal()];
+            System.out.printf("  %-12s count=%-10d p50<=%-10d p99<=%-10d p99.9<=%-10d max<=%d%n",
+                    operation, histogram.count(), histogram.quantile(0.5), histogram.quantile(0.99),
+                    histogram.quantile(0.999), histogram.quantile(1.0));
+        }
+        System.out.println("results:");
+        for (InteractionResult.Status status : InteractionResult.Status.values()) {
+            System.out.printf("  %-14s %d%n", status, results[status.ordinal()].sum());
+        }
+        System.out.printf("items deposited=%d withdrawn=%d registered barrels=%d%n",
+                itemsDeposited.sum(), itemsWithdrawn.sum(), registry.getBarrelCount());
+
+        // 破壊後にも参照を保持していた操作が、登録解除済みのバレルに出し入れした数量
+        long movedAfterBreak = 0;
+        for (BrokenBarrel broken : brokenBarrels) {
+            BarrelRecord now = broken.barrel.snapshot();
+            if (!Objects.equals(now.storedItemId(), broken.atBreak.storedItemId())) {
+                movedAfterBreak += broken.atBreak.storedAmount() + now.storedAmount();
+            } else {
+                movedAfterBreak += Math.abs(now.storedAmount() - broken.atBreak.storedAmount());
+            }
+        }
+        System.out.printf("broken barrels=%d items moved into or out of broken barrels after break=%d%n",
+                brokenBarrels.size(), movedAfterBreak);
+
+        checkItemIndex();
+
+        Set<String> items = new TreeSet<>(expected.keySet());
+        items.addAll(actual.keySet());
+        for (String itemId : items) {
+            long before = expected.getOrDefault(itemId, 0L);
+            long after = actual.getOrDefault(itemId, 0L);
+            if (before != after) {
+                violation("Item count changed for " + itemId + ": " + before + " -> " + after);
+            }
+        }
+
+        long count = violationCount.sum();
+        if (count == 0) {
+            System.out.println("conservation: OK");
+            return true;
+        }
+        System.out.println("conservation: " + count + " violations");
+        violations.forEach(message -> System.out.println("  " + message));
+        return false;
+    }
+
+    /**
+     * 重ならない座標の候補を生成する
+     */
+    private static int[][] generateCells(int count, long seed) {
+        Random random = new Random(seed ^ 0x9E3779B97F4A7C15L);
+        int side = Math.max(32, (int) Math.sqrt(count) * 4);
+        Set<Long> used = new HashSet<>(count * 2);
+        int[][] cells = new int[count][];
+        int i = 0;
+        while (i < count) {
+            int x = random.nextInt(side) - side / 2;
+            int y = random.nextInt(256);
+            int z = random.nextInt(side) - side / 2;
+            if (used.add(PositionKey.pack(x, y, z))) {
+                cells[i++] = new int[]{x, y, z};
+            }
+        }
+        return cells;
+    }
+
+    /**
+     * シミュレーションするプレイヤー
+     */
+    private final class Player {
+        final UUID uuid;
+        final Random random;
+        final SimulatedInventory hotbar = new SimulatedInventory(HOTBAR_SLOTS, options.stackSize);
+        final SimulatedInventory storage = new SimulatedInventory(STORAGE_SLOTS, options.stackSize);
+
+        Player(UUID uuid, long seed) {
+            this.uuid = uuid;
+            this.random = new Random(seed);
+            fill(hotbar);
+            fill(storage);
+        }
+
+        private void fill(SimulatedInventory inventory) {
+            for (int slot = 0; slot < inventory.slotCount(); slot++) {
+                if (random.nextBoolean()) {
+                    inventory.add(randomItem(random), 1 + random.nextInt(options.stackSize));
+                }
+            }
+        }
+    }
+
+    /**
+     * 破壊されたバレルと破壊時の状態
+     */
+    private record BrokenBarrel(BarrelData barrel, BarrelRecord atBreak) {
+    }
+
+    /**
+     * シミュレーションする操作と発生比率
+     */
+    private enum Operation {
+        DEPOSIT(40),
+        DEPOSIT_ALL(10),
+        WITHDRAW(40),
+        PLACE(5),
+        BREAK(5);
+
+        private static final Operation[] VALUES = values();
+        private static final int TOTAL_WEIGHT = 100;
+
+        private final int weight;
+
+        Operation(int weight) {
+            this.weight = weight;
+        }
+
+        static Operation pick(Random random) {
+            int roll = random.nextInt(TOTAL_WEIGHT);
+            for (Operation operation : VALUES) {
+                roll -= operation.weight;
+                if (roll < 0) {
+                    return operation;
+                }
+            }
+            return DEPOSIT;
+        }
+    }
+
+    /**
+     * コマンドライン引数
+     */
+    private record Options(int players, int barrels, int seconds, int itemTypes, int stackSize,
+                           int thinkMicros, long seed) {
+
+        static Options parse(String[] args) {
+            Map<String, String> values = new TreeMap<>();
+            for (String arg : args) {
+                if (!arg.startsWith("--") || !arg.contains("=")) {
+                    throw new IllegalArgumentException("Expected --name=value but got " + arg);
+                }
+                int separator = arg.indexOf('=');
+                values.put(arg.substring(2, separator), arg.substring(separator + 1));
+            }
+            return new Options(
+                    Integer.parseInt(values.getOrDefault("players", "1000")),
+                    Integer.parseInt(values.getOrDefault("barrels", "2000")),
+                    Integer.parseInt(values.getOrDefault("seconds", "30")),
+                    Integer.parseInt(values.getOrDefault("items", "8")),
+                    Integer.parseInt(values.getOrDefault("stack", "64")),
+                    Integer.parseInt(values.getOrDefault("think-micros", "0")),
+                    Long.parseLong(values.getOrDefault("seed", "1")));
+        }
+    }
+}
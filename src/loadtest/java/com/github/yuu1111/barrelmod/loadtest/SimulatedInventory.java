@@ -0,0 +1,112 @@
+package com.github.yuu1111.barrelmod.loadtest;
+
+import com.github.yuu1111.barrelmod.interaction.ItemSlots;
+
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * シミュレーション用のインベントリのコンテナ
+ *
+ * 1人のプレイヤーのスレッドからのみ操作されるため同期しない
+ * 追加・削除はHytaleのコンテナと同じく処理できる分のみ処理し、実際に移動した数量を返す
+ */
+final class SimulatedInventory implements ItemSlots {
+
+    private final String[] itemIds;
+    private final int[] quantities;
+    private final int stackSize;
+
+    SimulatedInventory(int slots, int stackSize) {
+        this.itemIds = new String[slots];
+        this.quantities = new int[slots];
+        this.stackSize = stackSize;
+    }
+
+    @Override
+    public int slotCount() {
+        return itemIds.length;
+    }
+
+    @Override
+    public String itemIdAt(int slot) {
+        return itemIds[slot];
+    }
+
+    @Override
+    public int quantityAt(int slot) {
+        return quantities[slot];
+    }
+
+    @Override
+    public int maxStackSize(String itemId) {
+        return stackSize;
+    }
+
+    @Override
+    public int add(String itemId, int amount) {
+        int remaining = amount;
+        for (int slot = 0; slot < itemIds.length && remaining > 0; slot++) {
+            if (itemId.equals(itemIds[slot])) {
+                int added = Math.min(remaining, stackSize - quantities[slot]);
+                quantities[slot] += added;
+                remaining -= added;
+            }
+        }
+        for (int slot = 0; slot < itemIds.length && remaining > 0; slot++) {
+            if (itemIds[slot] == null) {
+                int added = Math.min(remaining, stackSize);
+                itemIds[slot] = itemId;
+                quantities[slot] = added;
+                remaining -= added;
+            }
+        }
+        return amount - remaining;
+    }
+
+    @Override
+    public int remove(String itemId, int amount) {
+        int remaining = amount;
+        for (int slot = itemIds.length - 1; slot >= 0 && remaining > 0; slot--) {
+            if (itemId.equals(itemIds[slot])) {
+                int removed = Math.min(remaining, quantities[slot]);
+                quantities[slot] -= removed;
+                remaining -= removed;
+                if (quantities[slot] == 0) {
+                    itemIds[slot] = null;
+                }
+            }
+        }
+        return amount - remaining;
+    }
+
+    /**
+     * 空でないスロットをランダムに選ぶ
+     *
+     * @param random 乱数
+     * @return スロット番号、全て空の場合は-1
+     */
+    int randomFilledSlot(Random random) {
+        int start = random.nextInt(itemIds.length);
+        for (int i = 0; i < itemIds.length; i++) {
+            int slot = (start + i) % itemIds.length;
+            if (itemIds[slot] != null) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * アイテムごとの合計数量を加算する
+     *
+     * @param totals 加算先
+     */
+    void addTotals(Map<String, Long> totals) {
+        for (int slot = 0; slot < itemIds.length; slot++) {
+            if (itemIds[slot] != null) {
+                totals.merge(itemIds[slot], (long) quantities[slot], Long::sum);
+            }
+        }
+    }
+}
@@ -1,9 +1,14 @@
 package com.github.yuu1111.barrelmod;
 
 import com.github.yuu1111.barrelmod.commands.BarrelCommand;
+import com.github.yuu1111.barrelmod.commands.CommandTaskRunner;
+import com.github.yuu1111.barrelmod.config.BarrelConfig;
 import com.github.yuu1111.barrelmod.listeners.BarrelBlockListener;
+import com.github.yuu1111.barrelmod.metrics.BarrelMetrics;
+import com.github.yuu1111.barrelmod.storage.BarrelAutosaver;
 import com.github.yuu1111.barrelmod.storage.BarrelDataManager;
 import com.github.yuu1111.barrelmod.storage.BarrelRegistry;
+import com.github.yuu1111.barrelmod.trace.BarrelTrace;
 
 import com.hypixel.hytale.server.core.plugin.JavaPlugin;
 import com.hypixel.hytale.server.core.plugin.JavaPluginInit;
@@ -21,8 +26,13 @@ public class BarrelModPlugin extends JavaPlugin {
 
     private static BarrelModPlugin instance;
 
+    private BarrelConfig config;
     private BarrelDataManager dataManager;
     private BarrelRegistry barrelRegistry;
+    private BarrelAutosaver autosaver;
+    private BarrelTrace trace;
+    private BarrelMetrics metrics;
+    private CommandTaskRunner commandTasks;
 
     /**
      * プラグインのコンストラクタ
@@ -37,15 +47,22 @@ public class BarrelModPlugin extends JavaPlugin {
 
     /**
      * プラグインのセットアップ処理
-     * データマネージャー、レジストリの初期化、コマンドとイベントリスナーの登録を行う
+     * 設定の読み込み、データマネージャー、レジストリの初期化、コマンドとイベントリスナーの登録を行う
      */
     @Override
     protected void setup() {
         getLogger().at(Level.INFO).log("BarrelMod is setting up...");
 
         Path dataFolder = getDataDirectory();
-        this.dataManager = new BarrelDataManager(dataFolder);
-        this.barrelRegistry = new BarrelRegistry();
+        this.config = BarrelConfig.load(dataFolder);
+        this.trace = BarrelTrace.fromConfig(config.getTraceLevel(), config.getTraceSampleRate(),
+                config.getTraceBufferSize());
+        this.metrics = new BarrelMetrics();
+        this.dataManager = new BarrelDataManager(dataFolder, config.getStorageFormat(),
+                config.getJournalFlushMillis(), metrics);
+        this.barrelRegistry = new BarrelRegistry(metrics);
+        this.autosaver = new BarrelAutosaver(dataManager, barrelRegistry);
+        this.commandTasks = new CommandTaskRunner(config.getMaxConcurrentCommands());
 
         getCommandRegistry().registerCommand(new BarrelCommand(this));
 
@@ -57,24 +74,29 @@ public class BarrelModPlugin extends JavaPlugin {
 
     /**
      * プラグインの開始処理
-     * 永続化されたバレルデータをストレージからロードする
+     * ストレージをレジストリに接続し、自動保存と未使用リージョンの解放を開始する
+     * バレルデータはリージョンへの初回アクセス時にロードされる (事前読み込みが有効な場合は起動時に並列にロードされる)
      */
     @Override
     protected void start() {
         getLogger().at(Level.INFO).log("BarrelMod is starting...");
-        dataManager.loadAll(barrelRegistry);
-        getLogger().at(Level.INFO).log("Loaded %d barrels from storage.", barrelRegistry.getBarrelCount());
+        dataManager.open(barrelRegistry, config.isPreloadRegions());
+        autosaver.start(config.getAutosaveIntervalSeconds(), config.getRegionIdleSeconds());
+        getLogger().at(Level.INFO).log("Barrel storage opened, autosave every %d seconds.",
+                config.getAutosaveIntervalSeconds());
     }
 
     /**
      * プラグインのシャットダウン処理
-     * 全てのバレルデータをストレージに保存する
+     * 実行中の管理コマンドの完了を待ち、自動保存を停止して変更されたバレルデータを保存してからジャーナルを閉じる
      */
     @Override
     protected void shutdown() {
         getLogger().at(Level.INFO).log("BarrelMod is shutting down...");
-        dataManager.saveAll(barrelRegistry);
-        getLogger().at(Level.INFO).log("Saved %d barrels to storage.", barrelRegistry.getBarrelCount());
+        commandTasks.shutdown();
+        autosaver.shutdown();
+        dataManager.close();
+        getLogger().at(Level.INFO).log("Barrel storage closed.");
     }
 
     /**
@@ -95,6 +117,51 @@ public class BarrelModPlugin extends JavaPlugin {
         return dataManager;
     }
 
+    /**
+     * プラグイン設定を取得する
+     *
+     * @return 設定
+     */
+    public BarrelConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * 自動保存スケジューラーを取得する
+     *
+     * @return 自動保存スケジューラー
+     */
+    public BarrelAutosaver getAutosaver() {
+        return autosaver;
+    }
+
+    /**
+     * イベントトレースを取得する
+     *
+     * @return イベントトレース
+     */
+    public BarrelTrace getTrace() {
+        return trace;
+    }
+
+    /**
+     * メトリクスを取得する
+     *
+     * @return メトリクス
+     */
+    public BarrelMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * 管理コマンドのタスクランナーを取得する
+     *
+     * @return タスクランナー
+     */
+    public CommandTaskRunner getCommandTasks() {
+        return commandTasks;
+    }
+
     /**
      * バレルレジストリを取得する
      *
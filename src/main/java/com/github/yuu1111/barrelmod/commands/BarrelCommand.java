@@ -1,12 +1,19 @@
 package com.github.yuu1111.barrelmod.commands;
 
 import com.github.yuu1111.barrelmod.BarrelModPlugin;
+import com.github.yuu1111.barrelmod.storage.BarrelData;
+import com.github.yuu1111.barrelmod.storage.BarrelDataManager;
+import com.github.yuu1111.barrelmod.storage.BarrelRegistry;
+import com.github.yuu1111.barrelmod.trace.BarrelTrace;
 
 import com.hypixel.hytale.server.core.command.system.AbstractCommand;
 import com.hypixel.hytale.server.core.command.system.CommandContext;
+import com.hypixel.hytale.server.core.command.system.arguments.system.RequiredArg;
+import com.hypixel.hytale.server.core.command.system.arguments.types.ArgTypes;
 import com.hypixel.hytale.server.core.Message;
 import org.checkerframework.checker.nullness.compatqual.NonNullDecl;
 
+import java.nio.file.Path;
 import java.util.concurrent.CompletableFuture;
 
 /**
@@ -15,6 +22,13 @@ import java.util.concurrent.CompletableFuture;
  * サブコマンド:
  * - /barrel info: MOD情報を表示
  * - /barrel save: バレルデータを保存
+ * - /barrel trace: イベントトレースをファイルに出力
+ * - /barrel stats: メトリクスを表示してファイルに出力
+ * - /barrel export: 全てのバレルをJSONファイルに出力
+ * - /barrel repair: 全てのバレルの不正な状態を修復
+ * - /barrel find &lt;item&gt;: 指定アイテムを格納しているバレルと合計数量を表示
+ *
+ * I/Oや全件走査を伴うサブコマンドは{@link CommandTaskRunner}で仮想スレッドに移し、コマンドのスレッドをブロックしない
  */
 public class BarrelCommand extends AbstractCommand {
 
@@ -31,6 +45,11 @@ public class BarrelCommand extends AbstractCommand {
 
         addSubCommand(new InfoSubCommand(plugin));
         addSubCommand(new SaveSubCommand(plugin));
+        addSubCommand(new TraceSubCommand(plugin));
+        addSubCommand(new StatsSubCommand(plugin));
+        addSubCommand(new ExportSubCommand(plugin));
+        addSubCommand(new RepairSubCommand(plugin));
+        addSubCommand(new FindSubCommand(plugin));
     }
 
     @Override
@@ -43,6 +62,11 @@ public class BarrelCommand extends AbstractCommand {
         context.sendMessage(Message.raw("=== Barrel Mod Commands ==="));
         context.sendMessage(Message.raw("/barrel info - Show mod information"));
         context.sendMessage(Message.raw("/barrel save - Save barrel data"));
+        context.sendMessage(Message.raw("/barrel trace - Dump the barrel event trace"));
+        context.sendMessage(Message.raw("/barrel stats - Show barrel metrics"));
+        context.sendMessage(Message.raw("/barrel export - Export all barrels to a JSON file"));
+        context.sendMessage(Message.raw("/barrel repair - Repair invalid barrel data"));
+        context.sendMessage(Message.raw("/barrel find <item> - Find barrels holding an item"));
     }
 
     /**
@@ -62,7 +86,7 @@ public class BarrelCommand extends AbstractCommand {
             context.sendMessage(Message.raw("=== Barrel Mod Info ==="));
             // TODO : NO HARDCODE
             context.sendMessage(Message.raw("Version: 1.0.1"));
-            context.sendMessage(Message.raw("Total barrels: " + barrelCount));
+            context.sendMessage(Message.raw("Loaded barrels: " + barrelCount));
             context.sendMessage(Message.raw("Max capacity per barrel: 2048 items"));
             return CompletableFuture.completedFuture(null);
         }
@@ -81,9 +105,157 @@ public class BarrelCommand extends AbstractCommand {
 
         @Override
         protected CompletableFuture<Void> execute(CommandContext context) {
-            plugin.getDataManager().saveAll(plugin.getBarrelRegistry());
-            context.sendMessage(Message.raw("Barrel data saved successfully."));
-            return CompletableFuture.completedFuture(null);
+            return plugin.getCommandTasks().submit(context, "save", progress -> {
+                progress.message("Saving barrel data...");
+                int regions = plugin.getAutosaver().requestSave().join();
+                progress.message("Barrel data saved successfully (" + regions + " regions written).");
+            });
+        }
+    }
+
+    /**
+     * イベントトレースのバッファをファイルに出力するサブコマンド
+     */
+    private static class TraceSubCommand extends AbstractCommand {
+        private static final String TRACE_FOLDER = "trace";
+
+        private final BarrelModPlugin plugin;
+
+        TraceSubCommand(BarrelModPlugin plugin) {
+            super("trace", "Dump the barrel event trace");
+            this.plugin = plugin;
+        }
+
+        @Override
+        protected CompletableFuture<Void> execute(CommandContext context) {
+            BarrelTrace trace = plugin.getTrace();
+            if (trace.getLevel() == BarrelTrace.Level.OFF) {
+                context.sendMessage(Message.raw("Barrel trace is disabled (set traceLevel in config.json)."));
+                return CompletableFuture.completedFuture(null);
+            }
+
+            Path file = plugin.getDataDirectory().resolve(TRACE_FOLDER)
+                    .resolve("trace-" + System.currentTimeMillis() + ".log");
+            return plugin.getCommandTasks().submit(context, "trace", progress -> {
+                int count = trace.dump(file);
+                progress.message("Dumped " + count + " trace events to " + file);
+            });
+        }
+    }
+
+    /**
+     * メトリクスを表示し、データフォルダにPrometheus形式で出力するサブコマンド
+     */
+    private static class StatsSubCommand extends AbstractCommand {
+        private final BarrelModPlugin plugin;
+
+        StatsSubCommand(BarrelModPlugin plugin) {
+            super("stats", "Show barrel metrics");
+            this.plugin = plugin;
+        }
+
+        @Override
+        protected CompletableFuture<Void> execute(CommandContext context) {
+            return plugin.getCommandTasks().submit(context, "stats", progress -> {
+                progress.message("=== Barrel Mod Stats ===");
+                for (String line : plugin.getMetrics().summary()) {
+                    progress.message(line);
+                }
+                Path file = plugin.getDataManager().exportMetrics();
+                if (file != null) {
+                    progress.message("Exported metrics to " + file);
+                } else {
+                    progress.message("Failed to export barrel metrics, see the server log.");
+                }
+            });
+        }
+    }
+
+    /**
+     * 全てのバレルをデータフォルダにJSON形式で出力するサブコマンド
+     */
+    private static class ExportSubCommand extends AbstractCommand {
+        private static final String EXPORT_FOLDER = "exports";
+
+        private final BarrelModPlugin plugin;
+
+        ExportSubCommand(BarrelModPlugin plugin) {
+            super("export", "Export all barrels to a JSON file");
+            this.plugin = plugin;
+        }
+
+        @Override
+        protected CompletableFuture<Void> execute(CommandContext context) {
+            Path file = plugin.getDataDirectory().resolve(EXPORT_FOLDER)
+                    .resolve("barrels-" + System.currentTimeMillis() + ".json");
+            return plugin.getCommandTasks().submit(context, "export", progress -> {
+                progress.message("Exporting barrels...");
+                int count = plugin.getDataManager().exportJson(plugin.getBarrelRegistry(), file, progress::update);
+                progress.message("Exported " + count + " barrels to " + file);
+            });
+        }
+    }
+
+    /**
+     * 全てのバレルの不正な状態を修復するサブコマンド
+     */
+    private static class RepairSubCommand extends AbstractCommand {
+        private final BarrelModPlugin plugin;
+
+        RepairSubCommand(BarrelModPlugin plugin) {
+            super("repair", "Repair invalid barrel data");
+            this.plugin = plugin;
+        }
+
+        @Override
+        protected CompletableFuture<Void> execute(CommandContext context) {
+            return plugin.getCommandTasks().submit(context, "repair", progress -> {
+                progress.message("Checking all barrel regions...");
+                BarrelDataManager.RepairResult result =
+                        plugin.getDataManager().repair(plugin.getBarrelRegistry(), progress::update);
+                progress.message("Repaired " + result.repaired() + " of " + result.barrels() + " barrels in "
+                        + result.regions() + " regions.");
+            });
+        }
+    }
+
+    /**
+     * 指定アイテムを格納しているバレルの位置と合計数量を表示するサブコマンド
+     *
+     * 読み込み済みのリージョンはアイテムインデックスで検索し、未読み込みのリージョンはファイルを走査する
+     */
+    private static class FindSubCommand extends AbstractCommand {
+        private static final int MAX_RESULTS = 10;
+
+        private final BarrelModPlugin plugin;
+        private final RequiredArg<String> itemArg;
+
+        FindSubCommand(BarrelModPlugin plugin) {
+            super("find", "Find barrels holding an item");
+            this.plugin = plugin;
+            this.itemArg = withRequiredArg("item", "Item ID", ArgTypes.STRING);
+        }
+
+        @Override
+        protected CompletableFuture<Void> execute(CommandContext context) {
+            String itemId = itemArg.get(context);
+            return plugin.getCommandTasks().submit(context, "find", progress -> {
+                progress.message("Searching barrels for " + itemId + "...");
+                BarrelRegistry.ItemSearchResult result = plugin.getDataManager().findByItem(
+                        plugin.getBarrelRegistry(), itemId, MAX_RESULTS, progress::update);
+                if (result.barrelCount() == 0) {
+                    progress.message("No barrel holds " + itemId + ".");
+                    return;
+                }
+                progress.message(itemId + ": " + result.total() + " items in " + result.barrelCount() + " barrels");
+                for (BarrelData barrel : result.barrels()) {
+                    progress.message("  " + barrel.getWorldId() + " (" + barrel.getPosX() + ", " + barrel.getPosY()
+                            + ", " + barrel.getPosZ() + ") x" + barrel.getStoredAmount());
+                }
+                if (result.barrelCount() > result.barrels().size()) {
+                    progress.message("  ... and " + (result.barrelCount() - result.barrels().size()) + " more");
+                }
+            });
         }
     }
 }
@@ -0,0 +1,162 @@
+package com.github.yuu1111.barrelmod.commands;
+
+import com.hypixel.hytale.server.core.command.system.CommandContext;
+import com.hypixel.hytale.server.core.Message;
+
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * I/Oや全件走査を伴う/barrelサブコマンドを仮想スレッドで実行するランナー
+ *
+ * コマンドを処理するスレッドはタスクを登録するだけで、完了を待たずにFutureを返す
+ * 同時に実行できるタスク数は上限で制限し、同じサブコマンドは実行中に重ねて受け付けない
+ * 上限に達している場合は待たせずに拒否するため、連打されても書き込みが積み重ならない
+ * 進捗と結果はコマンドの送信者にメッセージで通知する
+ */
+public final class CommandTaskRunner {
+
+    private static final Logger LOGGER = Logger.getLogger("BarrelMod");
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 30;
+
+    private final ExecutorService executor;
+    private final Semaphore permits;
+    private final Set<String> running = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param maxConcurrent 同時に実行できるタスク数
+     */
+    public CommandTaskRunner(int maxConcurrent) {
+        this.executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("BarrelMod-Command-", 0).factory());
+        this.permits = new Semaphore(Math.max(1, maxConcurrent));
+    }
+
+    /**
+     * タスクを仮想スレッドで実行する
+     *
+     * 実行できない場合は理由を送信者に通知し、完了済みのFutureを返す
+     * タスクが例外を投げた場合も送信者に通知し、Futureは正常に完了する
+     *
+     * @param context コマンドのコンテキスト
+     * @param name サブコマンド名
+     * @param task 実行する処理
+     * @return タスクの完了で完了するFuture
+     */
+    CompletableFuture<Void> submit(CommandContext context, String name, Task task) {
+        if (!running.add(name)) {
+            context.sendMessage(Message.raw("/barrel " + name + " is already running."));
+            return CompletableFuture.completedFuture(null);
+        }
+        if (!permits.tryAcquire()) {
+            running.remove(name);
+            context.sendMessage(Message.raw("Too many /barrel tasks are running, try again later."));
+            return CompletableFuture.completedFuture(null);
+        }
+
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        try {
+            executor.execute(() -> run(context, name, task, future));
+        } catch (RejectedExecutionException e) {
+            release(name);
+            context.sendMessage(Message.raw("Barrel mod is shutting down, /barrel " + name + " was not run."));
+            future.complete(null);
+        }
+        return future;
+    }
+
+    /**
+     * 新しいタスクの受け付けを停止し、実行中のタスクの完了を待つ
+     */
+    public void shutdown() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                LOGGER.warning("Barrel command tasks did not finish before shutdown");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run(CommandContext context, String name, Task task, CompletableFuture<Void> future) {
+        long start = System.nanoTime();
+        try {
+            task.run(new Progress(context, name));
+            context.sendMessage(Message.raw("/barrel " + name + " finished in "
+                    + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms."));
+        } catch (Exception e) {
+            LOGGER.log(Level.WARNING, "/barrel " + name + " failed", e);
+            context.sendMessage(Message.raw("/barrel " + name + " failed: " + e.getMessage()));
+        } finally {
+            release(name);
+            future.complete(null);
+        }
+    }
+
+    private void release(String name) {
+        running.remove(name);
+        permits.release();
+    }
+
+    /**
+     * 仮想スレッドで実行する処理
+     */
+    @FunctionalInterface
+    interface Task {
+        /**
+         * @param progress 送信者への通知先
+         * @throws Exception 処理に失敗した場合
+         */
+        void run(Progress progress) throws Exception;
+    }
+
+    /**
+     * タスクの進捗を送信者に通知する
+     *
+     * 進捗は25%刻みで通知し、細かい更新でメッセージが溢れないようにする
+     */
+    static final class Progress {
+        private static final int STEPS = 4;
+
+        private final CommandContext context;
+        private final String name;
+        private int reportedStep;
+
+        Progress(CommandContext context, String name) {
+            this.context = context;
+            this.name = name;
+        }
+
+        /**
+         * @param message 送信者に送るメッセージ
+         */
+        void message(String message) {
+            context.sendMessage(Message.raw(message));
+        }
+
+        /**
+         * 進捗を更新する
+         *
+         * @param done 処理済みの数
+         * @param total 全体の数
+         */
+        synchronized void update(int done, int total) {
+            if (total <= 0) {
+                return;
+            }
+            int step = (int) ((long) done * STEPS / total);
+            if (step > reportedStep && step < STEPS) {
+                reportedStep = step;
+                message("/barrel " + name + ": " + done + "/" + total + " (" + step * 100 / STEPS + "%)");
+            }
+        }
+    }
+}
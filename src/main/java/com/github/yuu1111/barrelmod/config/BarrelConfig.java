@@ -0,0 +1,156 @@
+package com.github.yuu1111.barrelmod.config;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * バレルMODの設定
+ *
+ * データフォルダのconfig.jsonから読み込まれ、存在しない場合はデフォルト値で作成される
+ * ファイルに記載のない項目はデフォルト値が使用される
+ */
+public class BarrelConfig {
+
+    private static final Logger LOGGER = Logger.getLogger("BarrelMod");
+    private static final String CONFIG_FILE = "config.json";
+
+    private int autosaveIntervalSeconds = 300;
+    private int regionIdleSeconds = 300;
+    private String storageFormat = "binary";
+    private boolean preloadRegions = false;
+    private int journalFlushMillis = 50;
+    private String traceLevel = "OFF";
+    private int traceSampleRate = 1;
+    private int traceBufferSize = 4096;
+    private String withdrawMode = "stack";
+    private int maxStackSize = 64;
+    private int maxConcurrentCommands = 2;
+    private int maxBarrelsPerPlayer = 0;
+
+    /**
+     * 設定ファイルを読み込む
+     *
+     * @param dataFolder データ保存先ディレクトリ
+     * @return 読み込んだ設定、読み込みに失敗した場合はデフォルト設定
+     */
+    public static BarrelConfig load(Path dataFolder) {
+        Gson gson = new GsonBuilder().setPrettyPrinting().create();
+        Path configFile = dataFolder.resolve(CONFIG_FILE);
+
+        if (Files.exists(configFile)) {
+            try (Reader reader = Files.newBufferedReader(configFile)) {
+                BarrelConfig config = gson.fromJson(reader, BarrelConfig.class);
+                if (config != null) {
+                    return config;
+                }
+            } catch (IOException | JsonParseException e) {
+                LOGGER.log(Level.WARNING, "Failed to read " + CONFIG_FILE + ", using defaults", e);
+                return new BarrelConfig();
+            }
+        }
+
+        BarrelConfig config = new BarrelConfig();
+        try {
+            Files.createDirectories(dataFolder);
+            try (Writer writer = Files.newBufferedWriter(configFile)) {
+                gson.toJson(config, writer);
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to write default " + CONFIG_FILE, e);
+        }
+        return config;
+    }
+
+    /**
+     * @return 自動保存の間隔 (秒)、0以下の場合は自動保存しない
+     */
+    public int getAutosaveIntervalSeconds() {
+        return autosaveIntervalSeconds;
+    }
+
+    /**
+     * @return リージョンをメモリから解放するまでの未アクセス時間 (秒)
+     */
+    public int getRegionIdleSeconds() {
+        return regionIdleSeconds;
+    }
+
+    /**
+     * @return リージョンファイルの保存形式 (binary、mapped または json)
+     */
+    public String getStorageFormat() {
+        return storageFormat;
+    }
+
+    /**
+     * @return 起動時に既存の全リージョンを並列に読み込む場合true
+     */
+    public boolean isPreloadRegions() {
+        return preloadRegions;
+    }
+
+    /**
+     * @return ジャーナルの書き込み間隔 (ミリ秒)、0以下の場合はジャーナルを使用しない
+     */
+    public int getJournalFlushMillis() {
+        return journalFlushMillis;
+    }
+
+    /**
+     * @return イベントトレースのレベル (OFF、INFO または DEBUG)
+     */
+    public String getTraceLevel() {
+        return traceLevel;
+    }
+
+    /**
+     * @return イベントトレースのサンプリング間隔、N件に1件を記録する
+     */
+    public int getTraceSampleRate() {
+        return traceSampleRate;
+    }
+
+    /**
+     * @return イベントトレースのバッファに保持するイベント数
+     */
+    public int getTraceBufferSize() {
+        return traceBufferSize;
+    }
+
+    /**
+     * @return 1回の操作で引き出す数量 (single、stack または fill)
+     */
+    public String getWithdrawMode() {
+        return withdrawMode;
+    }
+
+    /**
+     * @return インベントリの1スロットに入るアイテム数の上限、アイテムごとの最大スタック数をさらに制限する
+     */
+    public int getMaxStackSize() {
+        return maxStackSize;
+    }
+
+    /**
+     * @return 同時に実行できる重い管理コマンドの数
+     */
+    public int getMaxConcurrentCommands() {
+        return maxConcurrentCommands;
+    }
+
+    /**
+     * @return プレイヤー1人が設置できるバレルの最大数、0以下の場合は無制限
+     */
+    public int getMaxBarrelsPerPlayer() {
+        return maxBarrelsPerPlayer;
+    }
+}
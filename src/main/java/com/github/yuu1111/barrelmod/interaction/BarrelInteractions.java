@@ -0,0 +1,255 @@
+package com.github.yuu1111.barrelmod.interaction;
+
+import com.github.yuu1111.barrelmod.storage.BarrelData;
+import com.github.yuu1111.barrelmod.storage.ItemIds;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * バレルとインベントリの間でアイテムを移動する操作
+ *
+ * イベントやプレイヤーなどHytaleの型に依存せず、{@link ItemSlots}を通してインベントリを操作する
+ * イベントリスナーと負荷試験のシミュレーションは、どちらもこのクラスを通してバレルを操作する
+ * 各操作はバレルとインベントリの合計数量を保ち、インベントリの更新に失敗した場合は操作前の状態に戻す
+ * バレル側は先に予約し、インベントリを更新した後に実際に移動した数量で確定するか取り消す
+ */
+public final class BarrelInteractions {
+
+    private static final Logger LOGGER = Logger.getLogger("BarrelMod");
+
+    private final int stackSize;
+
+    /**
+     * @param stackSize インベントリの1スロットに入るアイテムの最大数、アイテムごとの最大スタック数をさらに制限する
+     */
+    public BarrelInteractions(int stackSize) {
+        this.stackSize = Math.max(1, stackSize);
+    }
+
+    /**
+     * 手に持っているアイテムをバレルに預け入れる
+     *
+     * バレルの空き容量を予約してから手持ちのコンテナから取り除き、取り除いた数量で預け入れを確定する
+     * 取り除きに失敗した場合は予約を取り消す
+     *
+     * @param barrel 対象のバレル
+     * @param hand 手に持っているアイテムを含むコンテナ
+     * @param itemId 手に持っているアイテムID
+     * @param quantity 手に持っている数量
+     * @return 操作の結果
+     */
+    public InteractionResult deposit(BarrelData barrel, ItemSlots hand, String itemId, int quantity) {
+        int item = ItemIds.intern(itemId);
+        if (!barrel.canAcceptItem(item)) {
+            return InteractionResult.of(InteractionResult.Status.REJECTED, barrel.getStoredItemId(), 0);
+        }
+
+        BarrelData.Reservation reservation = barrel.reserveSpace(item, quantity);
+        if (reservation == null) {
+            return barrel.isFull()
+                    ? InteractionResult.of(InteractionResult.Status.BARREL_FULL, itemId, 0)
+                    : InteractionResult.NOTHING;
+        }
+        int removed;
+        try {
+            removed = hand.remove(itemId, reservation.amount());
+        } catch (RuntimeException e) {
+            barrel.cancelDeposit(reservation);
+            return InteractionResult.failed(itemId, e);
+        }
+        int stored = commitDeposit(barrel, reservation, new ItemSlots[]{hand}, new int[]{removed});
+        return stored > 0
+                ? InteractionResult.of(InteractionResult.Status.DEPOSITED, itemId, stored)
+                : InteractionResult.NOTHING;
+    }
+
+    /**
+     * 複数のコンテナから同種アイテムをバレルの空き容量まで一括で預け入れる
+     *
+     * 全スロットを1回ずつ走査して預け入れ数量を求め、その数量の空き容量を予約した後、
+     * コンテナからはコンテナごとに1回でまとめて取り除き、取り除いた合計で預け入れを確定する
+     * 途中のコンテナで取り除きに失敗した場合も、それまでに取り除いた分は預け入れとして確定する
+     *
+     * @param barrel 対象のバレル
+     * @param itemId 預け入れるアイテムID
+     * @param containers 走査するコンテナ (先頭から順に取り除く)
+     * @return 操作の結果
+     */
+    public InteractionResult depositAll(BarrelData barrel, String itemId, ItemSlots... containers) {
+        int item = ItemIds.intern(itemId);
+        if (!barrel.canAcceptItem(item)) {
+            return InteractionResult.of(InteractionResult.Status.REJECTED, barrel.getStoredItemId(), 0);
+        }
+
+        int space = barrel.getAvailableSpace();
+        int[] take = new int[containers.length];
+        int total = 0;
+        for (int c = 0; c < containers.length && total < space; c++) {
+            ItemSlots container = containers[c];
+            int slots = container.slotCount();
+            for (int slot = 0; slot < slots && total < space; slot++) {
+                if (itemId.equals(container.itemIdAt(slot))) {
+                    int amount = Math.min(container.quantityAt(slot), space - total);
+                    take[c] += amount;
+                    total += amount;
+                }
+            }
+        }
+
+        if (total == 0) {
+            return barrel.isFull()
+                    ? InteractionResult.of(InteractionResult.Status.BARREL_FULL, itemId, 0)
+                    : InteractionResult.NOTHING;
+        }
+
+        BarrelData.Reservation reservation = barrel.reserveSpace(item, total);
+        if (reservation == null) {
+            return InteractionResult.of(InteractionResult.Status.BARREL_FULL, itemId, 0);
+        }
+        // 取り除いた数量はコンテナごとに記録し、例外の種類に関係なく取り除いた分だけを確定する
+        int[] removedFrom = new int[containers.length];
+        int removed = 0;
+        int stored = 0;
+        RuntimeException failure = null;
+        try {
+            for (int c = 0; c < containers.length && removed < reservation.amount(); c++) {
+                int amount = Math.min(take[c], reservation.amount() - removed);
+                if (amount > 0) {
+                    removedFrom[c] = containers[c].remove(itemId, amount);
+                    removed += removedFrom[c];
+                }
+            }
+        } catch (RuntimeException e) {
+            failure = e;
+        } finally {
+            stored = commitDeposit(barrel, reservation, containers, removedFrom);
+        }
+
+        if (failure != null) {
+            if (stored == 0) {
+                return InteractionResult.failed(itemId, failure);
+            }
+            LOGGER.log(Level.WARNING, "Bulk deposit of " + itemId + " stopped after " + stored + " items", failure);
+        }
+        return stored > 0
+                ? InteractionResult.of(InteractionResult.Status.DEPOSITED, itemId, stored)
+                : InteractionResult.NOTHING;
+    }
+
+    /**
+     * バレルからコンテナへアイテムを引き出す
+     *
+     * コンテナの空きを先に求め、その数量だけバレルから予約して1回で追加する
+     * 実際に追加された数量のみを確定して残りの予約は戻し、追加に失敗した場合は予約を取り消す
+     *
+     * @param barrel 対象のバレル
+     * @param target 追加先のコンテナ
+     * @param requested 引き出し希望数量
+     * @return 操作の結果
+     */
+    public InteractionResult withdraw(BarrelData barrel, ItemSlots target, int requested) {
+        String itemId = barrel.getStoredItemId();
+        if (itemId == null) {
+            return InteractionResult.NOTHING;
+        }
+
+        int free = freeCapacity(target, itemId);
+        if (free == 0) {
+            return InteractionResult.of(InteractionResult.Status.INVENTORY_FULL, itemId, 0);
+        }
+        BarrelData.Reservation reservation = barrel.reserve(Math.min(requested, free));
+        if (reservation == null) {
+            return InteractionResult.NOTHING;
+        }
+
+        int added;
+        try {
+            added = target.add(reservation.itemId(), reservation.amount());
+        } catch (RuntimeException e) {
+            barrel.cancel(reservation);
+            return InteractionResult.failed(reservation.itemId(), e);
+        }
+        if (added == 0) {
+            barrel.cancel(reservation);
+            return InteractionResult.of(InteractionResult.Status.INVENTORY_FULL, reservation.itemId(), 0);
+        }
+        int withdrawn = barrel.commit(reservation, added);
+        if (withdrawn < added) {
+            // 予約後にバレルがクリアされた場合、バレルから取り除けなかった分をコンテナから戻す
+            target.remove(reservation.itemId(), added - withdrawn);
+        }
+        return InteractionResult.of(InteractionResult.Status.WITHDRAWN, reservation.itemId(), withdrawn);
+    }
+
+    /**
+     * コンテナに追加できるアイテム数を求める
+     *
+     * 空きスロットは1スタック分、同じアイテムのスロットは1スタックまでの残りを加算する
+     * 1スタックの数量は{@link #stackLimit}で求める
+     *
+     * @param container 対象のコンテナ
+     * @param itemId アイテムID
+     * @return 追加できる数量
+     */
+    public int freeCapacity(ItemSlots container, String itemId) {
+        int stackSize = stackLimit(container.maxStackSize(itemId));
+        int free = 0;
+        int slots = container.slotCount();
+        for (int slot = 0; slot < slots; slot++) {
+            String slotItem = container.itemIdAt(slot);
+            if (slotItem == null) {
+                free += stackSize;
+            } else if (itemId.equals(slotItem)) {
+                free += Math.max(0, stackSize - container.quantityAt(slot));
+            }
+        }
+        return free;
+    }
+
+    /**
+     * 1スロットに入るアイテム数を求める
+     *
+     * @param itemMaxStack アイテムの最大スタック数、0以下の場合は不明として扱う
+     * @return アイテムの最大スタック数を設定値で制限した数量、不明な場合は設定値
+     */
+    public int stackLimit(int itemMaxStack) {
+        return itemMaxStack > 0 ? Math.min(stackSize, itemMaxStack) : stackSize;
+    }
+
+    /**
+     * 取り除いた数量で預け入れを確定し、バレルに格納できなかった分は取り除いたコンテナへ戻す
+     *
+     * 予約後にバレルがクリアされた場合にのみ格納できない分が生じる
+     * 戻す分は後に取り除いたコンテナから順に、各コンテナから取り除いた数量を上限として戻す
+     *
+     * @param sources 取り除いたコンテナ
+     * @param removedFrom コンテナごとに取り除いた数量
+     * @return 実際に格納した数量
+     */
+    private static int commitDeposit(BarrelData barrel, BarrelData.Reservation reservation, ItemSlots[] sources,
+                                     int[] removedFrom) {
+        int removed = 0;
+        for (int amount : removedFrom) {
+            removed += amount;
+        }
+        int stored = barrel.commitDeposit(reservation, removed);
+        int rest = removed - stored;
+        String itemId = reservation.itemId();
+        for (int c = sources.length - 1; c >= 0 && rest > 0; c--) {
+            int amount = Math.min(rest, removedFrom[c]);
+            if (amount <= 0) {
+                continue;
+            }
+            try {
+                rest -= sources[c].add(itemId, amount);
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.SEVERE, "Failed to return " + amount + " " + itemId + " to the inventory", e);
+            }
+        }
+        if (rest > 0) {
+            LOGGER.severe("Failed to return " + rest + " " + itemId + " to the inventory");
+        }
+        return stored;
+    }
+}
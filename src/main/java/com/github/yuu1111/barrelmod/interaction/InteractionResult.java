@@ -0,0 +1,42 @@
+package com.github.yuu1111.barrelmod.interaction;
+
+/**
+ * バレル操作の結果
+ *
+ * @param status 結果の種類
+ * @param itemId 対象のアイテムID、アイテムが決まらない場合はnull
+ * @param amount 移動した数量
+ * @param failure 失敗の原因、{@link Status#FAILED}以外の場合はnull
+ */
+public record InteractionResult(Status status, String itemId, int amount, Exception failure) {
+
+    static final InteractionResult NOTHING = new InteractionResult(Status.NOTHING, null, 0, null);
+
+    static InteractionResult of(Status status, String itemId, int amount) {
+        return new InteractionResult(status, itemId, amount, null);
+    }
+
+    static InteractionResult failed(String itemId, Exception failure) {
+        return new InteractionResult(Status.FAILED, itemId, 0, failure);
+    }
+
+    /**
+     * 結果の種類
+     */
+    public enum Status {
+        /** バレルに預け入れた */
+        DEPOSITED,
+        /** バレルから引き出した */
+        WITHDRAWN,
+        /** バレルに別のアイテムが格納されているため受け入れられなかった */
+        REJECTED,
+        /** バレルに空きがない */
+        BARREL_FULL,
+        /** インベントリに空きがない */
+        INVENTORY_FULL,
+        /** インベントリの更新に失敗し、何も移動しなかった */
+        FAILED,
+        /** 移動するアイテムがなかった */
+        NOTHING
+    }
+}
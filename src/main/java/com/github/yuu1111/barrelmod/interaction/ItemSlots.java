@@ -0,0 +1,57 @@
+package com.github.yuu1111.barrelmod.interaction;
+
+/**
+ * バレル操作の対象となるインベントリのコンテナ
+ *
+ * Hytaleのコンテナに依存しない形でスロットの読み取りとアイテムの追加・削除を表す
+ * サーバー上ではプレイヤーのコンテナを、シミュレーションでは独自のインベントリを実装として渡す
+ */
+public interface ItemSlots {
+
+    /**
+     * @return スロット数
+     */
+    int slotCount();
+
+    /**
+     * @param slot スロット番号
+     * @return スロットのアイテムID、空の場合はnull
+     */
+    String itemIdAt(int slot);
+
+    /**
+     * @param slot スロット番号
+     * @return スロットのアイテム数量、空の場合は0
+     */
+    int quantityAt(int slot);
+
+    /**
+     * @param itemId アイテムID
+     * @return アイテムの1スロットに入る最大数、不明な場合は0
+     */
+    int maxStackSize(String itemId);
+
+    /**
+     * アイテムを追加する
+     *
+     * 入りきらない分は追加せず、実際に追加した数量を返す
+     *
+     * @param itemId アイテムID
+     * @param amount 数量
+     * @return 実際に追加した数量
+     * @throws RuntimeException 追加に失敗した場合
+     */
+    int add(String itemId, int amount);
+
+    /**
+     * アイテムを取り除く
+     *
+     * 保持している数量が足りない場合は保持している分のみ取り除き、実際に取り除いた数量を返す
+     *
+     * @param itemId アイテムID
+     * @param amount 数量
+     * @return 実際に取り除いた数量
+     * @throws RuntimeException 取り除きに失敗した場合
+     */
+    int remove(String itemId, int amount);
+}
@@ -1,8 +1,14 @@
 package com.github.yuu1111.barrelmod.listeners;
 
 import com.github.yuu1111.barrelmod.BarrelModPlugin;
+import com.github.yuu1111.barrelmod.interaction.BarrelInteractions;
+import com.github.yuu1111.barrelmod.interaction.InteractionResult;
+import com.github.yuu1111.barrelmod.interaction.ItemSlots;
+import com.github.yuu1111.barrelmod.metrics.BarrelMetrics;
 import com.github.yuu1111.barrelmod.storage.BarrelData;
 import com.github.yuu1111.barrelmod.storage.BarrelRegistry;
+import com.github.yuu1111.barrelmod.storage.PositionKey;
+import com.github.yuu1111.barrelmod.trace.BarrelTrace;
 
 import com.hypixel.hytale.component.CommandBuffer;
 import com.hypixel.hytale.component.Ref;
@@ -15,7 +21,10 @@ import com.hypixel.hytale.server.core.event.events.ecs.PlaceBlockEvent;
 import com.hypixel.hytale.server.core.event.events.ecs.BreakBlockEvent;
 import com.hypixel.hytale.server.core.inventory.ItemStack;
 import com.hypixel.hytale.server.core.inventory.Inventory;
-import com.hypixel.hytale.server.core.inventory.container.ItemContainer;
+import com.hypixel.hytale.server.core.universe.Universe;
+import com.hypixel.hytale.server.core.universe.world.World;
+import com.hypixel.hytale.server.core.universe.world.events.AddWorldEvent;
+import com.hypixel.hytale.server.core.universe.world.events.RemoveWorldEvent;
 import com.hypixel.hytale.server.core.universe.world.storage.EntityStore;
 import com.hypixel.hytale.server.core.Message;
 import com.hypixel.hytale.protocol.InteractionType;
@@ -23,7 +32,9 @@ import com.hypixel.hytale.protocol.InteractionType;
 import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 import java.util.logging.Level;
 
 /**
@@ -31,13 +42,40 @@ import java.util.logging.Level;
  *
  * プレイヤーのインタラクション、ブロック設置・破壊イベントを監視し、
  * バレルへのアイテムの預け入れ・引き出し、バレルの登録・解除を行う
+ * 各イベントはログには出力せず、{@link BarrelTrace}が有効な場合のみ記録する
+ * バレルへの預け入れ・引き出しはワールドごとのキューに積まれ、次のティックでまとめて適用される
+ * バレルでないブロックへの操作は、レジストリの列ビットセットでプレイヤーの解決や座標検索の前に除外する
+ * 未読み込みのリージョンへの操作はバックグラウンドでリージョンを読み込み、読み込み後にワールドのスレッドで処理する
+ * バレルを持って右クリックした時点でリージョンの読み込みを始め、設置時にはリージョンが読み込まれているようにする
+ * バレルとインベントリの間のアイテムの移動は、Hytaleの型に依存しない{@link BarrelInteractions}に委譲する
+ *
+ * ワールドはイベントのコンテキストから解決し、座標の検索・設置待ち・操作キューはワールドごとに分離する
+ * 設置・破壊イベントはワールドを含まないため、イベントを処理しているワールドのスレッドから解決する
+ * ワールドのスレッドへの関連付けはワールドの追加時に行い、解決できないイベントは処理せずに無視する
+ * 削除されたワールドのバレルは保存した上でメモリから解放する
+ * プレイヤーごとのバレルの設置数はレジストリのオーナーインデックスで判定し、上限を超える設置はキャンセルする
  */
 public class BarrelBlockListener {
 
     private static final String BARREL_ITEM_ID = "barrelmod_barrel";
+    private static final long DOUBLE_CLICK_MILLIS = 400;
 
     private final BarrelModPlugin plugin;
-    private final Map<UUID, PendingPlacement> pendingPlacements = new ConcurrentHashMap<>();
+    private final BarrelTrace trace;
+    private final BarrelMetrics.Counter deposits;
+    private final BarrelMetrics.Counter itemsDeposited;
+    private final BarrelMetrics.Counter withdrawals;
+    private final BarrelMetrics.Counter itemsWithdrawn;
+    private final BarrelMetrics.Histogram applyNanos;
+    private final BarrelMetrics.Counter unresolvedEvents;
+    private final BarrelRegistry registry;
+    private final WithdrawMode withdrawMode;
+    private final int maxBarrelsPerPlayer;
+    private final BarrelInteractions interactions;
+    private final Map<World, WorldContext> worlds = new ConcurrentHashMap<>();
+    private final ThreadLocal<WorldContext> threadWorld = new ThreadLocal<>();
+    private final ThreadLocal<Boolean> unresolvedWarned = ThreadLocal.withInitial(() -> false);
+    private final Map<UUID, LastDeposit> lastDeposits = new ConcurrentHashMap<>();
 
     /**
      * リスナーを作成する
@@ -46,6 +84,20 @@ public class BarrelBlockListener {
      */
     public BarrelBlockListener(BarrelModPlugin plugin) {
         this.plugin = plugin;
+        this.trace = plugin.getTrace();
+        BarrelMetrics metrics = plugin.getMetrics();
+        this.deposits = metrics.counter("barrelmod_deposits_total", "Deposit operations that moved items");
+        this.itemsDeposited = metrics.counter("barrelmod_items_deposited_total", "Items deposited into barrels");
+        this.withdrawals = metrics.counter("barrelmod_withdrawals_total", "Withdraw operations that moved items");
+        this.itemsWithdrawn = metrics.counter("barrelmod_items_withdrawn_total", "Items withdrawn from barrels");
+        this.applyNanos = metrics.histogram("barrelmod_interaction_apply_nanos",
+                "Time spent applying one queued barrel interaction on the world thread in nanoseconds");
+        this.unresolvedEvents = metrics.counter("barrelmod_unresolved_world_events_total",
+                "Block events ignored because their world could not be resolved");
+        this.registry = plugin.getBarrelRegistry();
+        this.withdrawMode = WithdrawMode.fromConfig(plugin.getConfig().getWithdrawMode());
+        this.maxBarrelsPerPlayer = plugin.getConfig().getMaxBarrelsPerPlayer();
+        this.interactions = new BarrelInteractions(plugin.getConfig().getMaxStackSize());
     }
 
     /**
@@ -57,13 +109,37 @@ public class BarrelBlockListener {
         javaPlugin.getEventRegistry().registerGlobal(UseBlockEvent.Pre.class, this::onUseBlock);
         javaPlugin.getEventRegistry().registerGlobal(PlaceBlockEvent.class, this::onBlockPlace);
         javaPlugin.getEventRegistry().registerGlobal(BreakBlockEvent.class, this::onBlockBreak);
+        javaPlugin.getEventRegistry().registerGlobal(AddWorldEvent.class, event -> bindWorld(event.getWorld()));
+        javaPlugin.getEventRegistry().registerGlobal(RemoveWorldEvent.class, event -> onWorldRemoved(event.getWorld()));
+        Universe universe = Universe.get();
+        if (universe != null) {
+            universe.getWorlds().values().forEach(this::bindWorld);
+        }
         plugin.getLogger().at(Level.INFO).log("BarrelBlockListener registered");
     }
 
     private void onUseBlock(UseBlockEvent.Pre event) {
         InteractionContext context = event.getContext();
-
+        Vector3i targetBlock = event.getTargetBlock();
+        ItemStack heldItem = context.getHeldItem();
+        boolean holdingBarrel = heldItem != null && BARREL_ITEM_ID.equals(heldItem.getItemId());
         CommandBuffer<EntityStore> commandBuffer = context.getCommandBuffer();
+        WorldContext world = worldOf(commandBuffer);
+        if (world == null) {
+            ignoreUnresolved(BarrelTrace.Event.USE, targetBlock);
+            return;
+        }
+
+        // バレルを持っていない場合、バレルでないブロックへの操作はここで終了する
+        if (!holdingBarrel && (targetBlock == null
+                || !registry.mightContain(targetBlock.x, targetBlock.y, targetBlock.z, world.handle()))) {
+            if (targetBlock != null && trace.shouldRecord(BarrelTrace.Level.DEBUG)) {
+                trace.record(BarrelTrace.Level.DEBUG, BarrelTrace.Event.MISS,
+                        targetBlock.x, targetBlock.y, targetBlock.z, "action=" + event.getInteractionType());
+            }
+            return;
+        }
+
         if (commandBuffer == null) {
             return;
         }
@@ -78,57 +154,88 @@ public class BarrelBlockListener {
             return;
         }
 
-        Vector3i targetBlock = event.getTargetBlock();
         InteractionType actionType = event.getInteractionType();
-        ItemStack heldItem = context.getHeldItem();
-
-        plugin.getLogger().at(Level.INFO).log(
-            "UseBlockEvent.Pre: player=%s, pos=%s, action=%s, item=%s",
-            player.getDisplayName(),
-            targetBlock,
-            actionType,
-            heldItem != null ? heldItem.getItemId() : "empty"
-        );
 
-        if (heldItem != null && BARREL_ITEM_ID.equals(heldItem.getItemId())) {
+        if (holdingBarrel) {
             if (actionType == InteractionType.Secondary && targetBlock != null) {
-                UUID playerUuid = player.getUuid();
-                pendingPlacements.put(playerUuid, new PendingPlacement(playerUuid, System.currentTimeMillis()));
-                plugin.getLogger().at(Level.INFO).log("Pending barrel placement for player %s", player.getDisplayName());
+                if (maxBarrelsPerPlayer > 0 && registry.getOwnedBarrelCount(player.getUuid()) >= maxBarrelsPerPlayer) {
+                    player.sendMessage(Message.raw("You can't place more than " + maxBarrelsPerPlayer + " barrels."));
+                    return;
+                }
+                world.placements().record(player.getUuid(), targetBlock.x, targetBlock.y, targetBlock.z,
+                        System.currentTimeMillis());
+                registry.prepareRegion(targetBlock.x, targetBlock.z, world.handle());
+                if (trace.shouldRecord(BarrelTrace.Level.INFO)) {
+                    trace.record(BarrelTrace.Level.INFO, BarrelTrace.Event.PENDING_PLACEMENT,
+                            targetBlock.x, targetBlock.y, targetBlock.z, "player=" + player.getDisplayName());
+                }
             }
             return;
         }
 
-        if (targetBlock == null) {
+        int x = targetBlock.x;
+        int y = targetBlock.y;
+        int z = targetBlock.z;
+        CompletableFuture<Void> ready = registry.prepareRegion(x, z, world.handle());
+        if (!ready.isDone()) {
+            // バレルの可能性があるため操作を取り消し、リージョンの読み込み後に改めて処理する
+            event.setCancelled(true);
+            ready.thenRun(() -> world.executor().execute(
+                    () -> useBarrel(world, player, x, y, z, heldItem, actionType, null)));
             return;
         }
+        useBarrel(world, player, x, y, z, heldItem, actionType, event);
+    }
 
-        String worldId = "default";
-        BarrelRegistry registry = plugin.getBarrelRegistry();
-        Optional<BarrelData> optBarrel = registry.getByPosition(targetBlock, worldId);
+    /**
+     * 読み込み済みのリージョンにあるブロックへの操作を処理する
+     *
+     * ワールドのスレッドで呼び出される
+     *
+     * @param event 元のイベント、リージョンの読み込みを待って遅延させた場合はnull (イベントは取り消し済み)
+     */
+    private void useBarrel(WorldContext world, Player player, int x, int y, int z, ItemStack heldItem,
+                           InteractionType actionType, UseBlockEvent.Pre event) {
+        Optional<BarrelData> optBarrel = registry.getByPosition(x, y, z, world.handle());
 
         if (optBarrel.isEmpty()) {
-            plugin.getLogger().at(Level.INFO).log("No barrel at %s", targetBlock);
+            if (trace.shouldRecord(BarrelTrace.Level.DEBUG)) {
+                trace.record(BarrelTrace.Level.DEBUG, BarrelTrace.Event.MISS, x, y, z,
+                        "player=" + player.getDisplayName() + " action=" + actionType);
+            }
             return;
         }
 
         BarrelData barrel = optBarrel.get();
-        plugin.getLogger().at(Level.INFO).log("Barrel found at %s: stored=%s x%d",
-            targetBlock, barrel.getStoredItemId(), barrel.getStoredAmount());
+        if (trace.shouldRecord(BarrelTrace.Level.INFO)) {
+            trace.record(BarrelTrace.Level.INFO, BarrelTrace.Event.USE, x, y, z,
+                    "player=" + player.getDisplayName() + " action=" + actionType
+                            + " item=" + (heldItem != null ? heldItem.getItemId() : "empty")
+                            + " stored=" + barrel.getStoredItemId() + " x" + barrel.getStoredAmount());
+        }
 
         UUID playerUuid = player.getUuid();
+        if (event != null) {
+            event.setCancelled(true);
+        }
         if (barrel.isLocked() && !playerUuid.equals(barrel.getOwnerUuid())) {
             player.sendMessage(Message.raw("This barrel is locked!"));
-            event.setCancelled(true);
             return;
         }
 
-        event.setCancelled(true);
-
+        InteractionQueue queue = world.queue();
         if (actionType == InteractionType.Primary) {
-            handleDeposit(player, barrel, heldItem);
+            boolean emptyHand = heldItem == null || heldItem.isEmpty();
+            if (isDoubleClick(playerUuid, barrel)) {
+                queue.depositAll(player, playerUuid, barrel, emptyHand ? null : heldItem);
+            } else if (emptyHand) {
+                queue.showInfo(player, playerUuid, barrel);
+            } else {
+                queue.deposit(player, playerUuid, barrel, heldItem);
+            }
         } else if (actionType == InteractionType.Secondary) {
-            handleWithdraw(player, barrel);
+            int itemStack = interactions.stackLimit(ContainerSlots.maxStackOf(barrel.getStoredItemId()));
+            queue.withdraw(player, playerUuid, barrel, withdrawMode.requestedAmount(itemStack));
         }
     }
 
@@ -139,138 +246,291 @@ public class BarrelBlockListener {
         }
 
         String itemId = item.getItemId();
-        plugin.getLogger().at(Level.INFO).log("PlaceBlockEvent: itemId=%s, pos=%s", itemId, event.getTargetBlock());
-
         if (!BARREL_ITEM_ID.equals(itemId)) {
             return;
         }
 
         Vector3i position = event.getTargetBlock();
-        String worldId = "default";
-
-        UUID ownerUuid = null;
-        for (Map.Entry<UUID, PendingPlacement> entry : pendingPlacements.entrySet()) {
-            PendingPlacement pending = entry.getValue();
-            if (System.currentTimeMillis() - pending.timestamp < 5000) {
-                ownerUuid = pending.playerUuid;
-                pendingPlacements.remove(entry.getKey());
-                break;
+
+        WorldContext world = currentWorld();
+        if (world == null) {
+            ignoreUnresolved(BarrelTrace.Event.PLACE, position);
+            return;
+        }
+        UUID ownerUuid = world.placements().claim(position.x, position.y, position.z, System.currentTimeMillis());
+        if (ownerUuid == null && maxBarrelsPerPlayer > 0) {
+            // 所有者が分からない設置は上限の対象にできないため、上限が有効な場合は設置させない
+            event.setCancelled(true);
+            if (trace.shouldRecord(BarrelTrace.Level.INFO)) {
+                trace.record(BarrelTrace.Level.INFO, BarrelTrace.Event.PLACE,
+                        position.x, position.y, position.z, "owner=null denied=unowned");
             }
+            return;
         }
 
-        pendingPlacements.entrySet().removeIf(e -> System.currentTimeMillis() - e.getValue().timestamp > 5000);
-
-        BarrelRegistry registry = plugin.getBarrelRegistry();
-        BarrelData barrel = registry.createBarrel(position, worldId);
-        if (ownerUuid != null) {
-            barrel.setOwnerUuid(ownerUuid);
+        if (registry.createBarrel(position, world.worldId(), ownerUuid, maxBarrelsPerPlayer).isEmpty()) {
+            event.setCancelled(true);
+            if (trace.shouldRecord(BarrelTrace.Level.INFO)) {
+                String reason = PositionKey.isPackable(position.x, position.y, position.z) ? "quota" : "range";
+                trace.record(BarrelTrace.Level.INFO, BarrelTrace.Event.PLACE,
+                        position.x, position.y, position.z, "owner=" + ownerUuid + " denied=" + reason);
+            }
+            return;
         }
 
-        plugin.getLogger().at(Level.INFO).log("Barrel registered at %s, owner=%s", position, ownerUuid);
+        if (trace.shouldRecord(BarrelTrace.Level.INFO)) {
+            trace.record(BarrelTrace.Level.INFO, BarrelTrace.Event.PLACE,
+                    position.x, position.y, position.z, "owner=" + ownerUuid);
+        }
     }
 
     private void onBlockBreak(BreakBlockEvent event) {
         Vector3i position = event.getTargetBlock();
-        String worldId = "default";
+        WorldContext world = currentWorld();
+        if (world == null) {
+            ignoreUnresolved(BarrelTrace.Event.BREAK, position);
+            return;
+        }
+        if (position == null || !registry.mightContain(position.x, position.y, position.z, world.handle())) {
+            return;
+        }
 
-        plugin.getLogger().at(Level.INFO).log("BreakBlockEvent: pos=%s", position);
+        int x = position.x;
+        int y = position.y;
+        int z = position.z;
+        CompletableFuture<Void> ready = registry.prepareRegion(x, z, world.handle());
+        if (ready.isDone()) {
+            breakBarrel(world, x, y, z);
+        } else {
+            ready.thenRun(() -> world.executor().execute(() -> breakBarrel(world, x, y, z)));
+        }
+    }
 
-        BarrelRegistry registry = plugin.getBarrelRegistry();
-        Optional<BarrelData> optBarrel = registry.getByPosition(position, worldId);
+    /**
+     * 破壊されたブロックがバレルであれば登録を解除する
+     *
+     * ワールドのスレッドで、ブロックを含むリージョンが読み込まれた後に呼び出される
+     */
+    private void breakBarrel(WorldContext world, int x, int y, int z) {
+        Optional<BarrelData> optBarrel = registry.getByPosition(x, y, z, world.handle());
 
         if (optBarrel.isPresent()) {
             BarrelData barrel = optBarrel.get();
-            if (!barrel.isEmpty()) {
-                plugin.getLogger().at(Level.INFO).log("Barrel broken with items: %s x%d",
-                    barrel.getStoredItemId(), barrel.getStoredAmount());
-            }
             registry.unregister(barrel);
-            plugin.getLogger().at(Level.INFO).log("Barrel unregistered at %s", position);
+            if (trace.shouldRecord(BarrelTrace.Level.INFO)) {
+                trace.record(BarrelTrace.Level.INFO, BarrelTrace.Event.BREAK, x, y, z,
+                        barrel.isEmpty() ? "empty" : "items=" + barrel.getStoredItemId() + " x" + barrel.getStoredAmount());
+            }
         }
     }
 
-    private void handleDeposit(Player player, BarrelData barrel, ItemStack heldItem) {
-        if (heldItem == null || heldItem.isEmpty()) {
-            displayBarrelInfo(player, barrel);
-            return;
+    /**
+     * 1ティック分にまとめられた操作をバレルとインベントリに適用し、結果を1つのメッセージで通知する
+     *
+     * ワールドのスレッドで呼び出される
+     */
+    private void applyInteraction(InteractionQueue.PendingInteraction interaction) {
+        long start = System.nanoTime();
+        Player player = interaction.player;
+        BarrelData barrel = interaction.barrel;
+        Inventory inventory = player.getInventory();
+        ItemSlots hotbar = ContainerSlots.of(inventory.getHotbar());
+        StringBuilder feedback = new StringBuilder();
+
+        ItemStack heldItem = interaction.heldItem;
+        boolean holdingItem = heldItem != null && !heldItem.isEmpty();
+        if (interaction.depositAll) {
+            String itemId = barrel.getStoredItemId();
+            if (itemId == null && holdingItem) {
+                itemId = heldItem.getItemId();
+            }
+            if (itemId != null) {
+                ItemSlots storage = ContainerSlots.of(inventory.getStorage());
+                report(player, barrel, interactions.depositAll(barrel, itemId, hotbar, storage), feedback);
+            }
+        } else if (holdingItem) {
+            report(player, barrel,
+                    interactions.deposit(barrel, hotbar, heldItem.getItemId(), heldItem.getQuantity()), feedback);
         }
+        if (interaction.withdrawAmount > 0 && !barrel.isEmpty()) {
+            ItemSlots storage = ContainerSlots.of(inventory.getStorage());
+            report(player, barrel, interactions.withdraw(barrel, storage, interaction.withdrawAmount), feedback);
+        }
+        // 情報表示の要求がなくても、何も変化しなかった場合はバレルの状態を伝える
+        if (interaction.showInfo || feedback.isEmpty()) {
+            appendBarrelInfo(barrel, feedback);
+        }
+        player.sendMessage(Message.raw(feedback.toString()));
+        applyNanos.record(System.nanoTime() - start);
+    }
 
-        String itemId = heldItem.getItemId();
-
-        if (!barrel.canAcceptItem(itemId)) {
-            player.sendMessage(Message.raw("This barrel only accepts: " + barrel.getStoredItemId()));
-            return;
+    /**
+     * 操作の結果をメッセージに追加し、メトリクスとトレースに記録する
+     */
+    private void report(Player player, BarrelData barrel, InteractionResult result, StringBuilder feedback) {
+        switch (result.status()) {
+            case DEPOSITED -> {
+                deposits.increment();
+                itemsDeposited.add(result.amount());
+                appendLine(feedback).append("Deposited ").append(result.amount()).append(" items. Total: ")
+                        .append(barrel.getStoredAmount()).append('/').append(barrel.getMaxCapacity());
+            }
+            case WITHDRAWN -> {
+                withdrawals.increment();
+                itemsWithdrawn.add(result.amount());
+                appendLine(feedback).append("Withdrawn ").append(result.amount()).append(' ').append(result.itemId())
+                        .append(". Remaining: ").append(barrel.getStoredAmount());
+            }
+            case REJECTED -> appendLine(feedback).append("This barrel only accepts: ").append(result.itemId());
+            case BARREL_FULL ->
+                    appendLine(feedback).append("Barrel is full! (").append(barrel.getMaxCapacity()).append(')');
+            case INVENTORY_FULL -> appendLine(feedback).append("Inventory is full!");
+            case FAILED -> {
+                plugin.getLogger().at(Level.WARNING).log("Failed to update player inventory: %s",
+                        result.failure().getMessage());
+                appendLine(feedback).append("Could not move items, nothing was changed.");
+            }
+            case NOTHING -> {
+            }
         }
 
-        int toDeposit = heldItem.getQuantity();
-        int deposited = barrel.deposit(itemId, toDeposit);
+        if (result.amount() > 0 && trace.shouldRecord(BarrelTrace.Level.INFO)) {
+            trace.record(BarrelTrace.Level.INFO,
+                    result.status() == InteractionResult.Status.DEPOSITED
+                            ? BarrelTrace.Event.DEPOSIT
+                            : BarrelTrace.Event.WITHDRAW,
+                    barrel.getPosX(), barrel.getPosY(), barrel.getPosZ(),
+                    "player=" + player.getDisplayName() + " item=" + result.itemId() + " x" + result.amount());
+        }
+    }
 
-        if (deposited > 0) {
-            try {
-                Inventory inventory = player.getInventory();
-                ItemContainer hotbar = inventory.getHotbar();
-                int remaining = toDeposit - deposited;
-                if (remaining > 0) {
-                    hotbar.addItemStack(new ItemStack(itemId, remaining));
-                }
-                hotbar.removeItemStack(heldItem);
-                plugin.getLogger().at(Level.INFO).log("Removed %d %s from player inventory", deposited, itemId);
-            } catch (Exception e) {
-                plugin.getLogger().at(Level.WARNING).log("Failed to update player inventory: %s", e.getMessage());
-            }
-            player.sendMessage(Message.raw("Deposited " + deposited + " items. Total: " + barrel.getStoredAmount() + "/" + barrel.getMaxCapacity()));
-            plugin.getLogger().at(Level.INFO).log("Player %s deposited %d %s into barrel",
-                player.getDisplayName(), deposited, itemId);
-        } else if (barrel.isFull()) {
-            player.sendMessage(Message.raw("Barrel is full! (" + barrel.getMaxCapacity() + ")"));
+    /**
+     * 同じバレルへの預け入れ操作が短時間に2回続いたか判定する
+     *
+     * 判定後は記録を消去するため、3回目の操作は新たな1回目として扱われる
+     */
+    private boolean isDoubleClick(UUID playerUuid, BarrelData barrel) {
+        long now = System.currentTimeMillis();
+        LastDeposit previous = lastDeposits.get(playerUuid);
+        if (previous != null && previous.barrelId.equals(barrel.getId())
+                && now - previous.timeMillis <= DOUBLE_CLICK_MILLIS) {
+            lastDeposits.remove(playerUuid, previous);
+            return true;
         }
+        lastDeposits.put(playerUuid, new LastDeposit(barrel.getId(), now));
+        return false;
     }
 
-    private void handleWithdraw(Player player, BarrelData barrel) {
+    private static void appendBarrelInfo(BarrelData barrel, StringBuilder feedback) {
+        appendLine(feedback);
         if (barrel.isEmpty()) {
-            displayBarrelInfo(player, barrel);
-            return;
+            feedback.append("Barrel is empty (capacity: ").append(barrel.getMaxCapacity()).append(')');
+        } else {
+            feedback.append(barrel.getStoredItemId()).append(" x ").append(barrel.getStoredAmount())
+                    .append('/').append(barrel.getMaxCapacity());
         }
+    }
 
-        String itemId = barrel.getStoredItemId();
-        int toWithdraw = 64;
-        int withdrawn = barrel.withdraw(toWithdraw);
-
-        if (withdrawn > 0) {
-            try {
-                Inventory inventory = player.getInventory();
-                ItemContainer storage = inventory.getStorage();
-                ItemStack withdrawnStack = new ItemStack(itemId, withdrawn);
-                storage.addItemStack(withdrawnStack);
-                plugin.getLogger().at(Level.INFO).log("Added %d %s to player inventory", withdrawn, itemId);
-            } catch (Exception e) {
-                plugin.getLogger().at(Level.WARNING).log("Failed to add items to player inventory: %s", e.getMessage());
-                barrel.deposit(itemId, withdrawn);
-            }
-            player.sendMessage(Message.raw("Withdrawn " + withdrawn + " " + itemId + ". Remaining: " + barrel.getStoredAmount()));
-            plugin.getLogger().at(Level.INFO).log("Player %s withdrew %d %s from barrel",
-                player.getDisplayName(), withdrawn, itemId);
+    private static StringBuilder appendLine(StringBuilder feedback) {
+        if (!feedback.isEmpty()) {
+            feedback.append('\n');
         }
+        return feedback;
     }
 
-    private void displayBarrelInfo(Player player, BarrelData barrel) {
-        if (barrel.isEmpty()) {
-            player.sendMessage(Message.raw("Barrel is empty (capacity: " + barrel.getMaxCapacity() + ")"));
-        } else {
-            player.sendMessage(Message.raw(barrel.getStoredItemId() + " x " + barrel.getStoredAmount() + "/" + barrel.getMaxCapacity()));
+    /**
+     * イベントが発生したワールドを取得する
+     *
+     * ワールドを取得できない場合は、イベントを処理しているスレッドのワールドを返す
+     *
+     * @return ワールドの状態、どちらからも解決できない場合はnull
+     */
+    private WorldContext worldOf(CommandBuffer<EntityStore> commandBuffer) {
+        EntityStore store = commandBuffer != null ? commandBuffer.getExternalData() : null;
+        World world = store != null ? store.getWorld() : null;
+        return world != null ? bindWorld(world) : currentWorld();
+    }
+
+    /**
+     * ワールドの状態を取得する、未作成の場合は作成してワールドのスレッドに関連付ける
+     *
+     * ワールドの追加時と起動時に存在する全ワールドに対して呼び出すため、
+     * 設置・破壊イベントが発生する時点でワールドのスレッドには常に関連付けが存在する
+     */
+    private WorldContext bindWorld(World world) {
+        WorldContext known = worlds.get(world);
+        return known != null ? known : worlds.computeIfAbsent(world, this::createWorldContext);
+    }
+
+    /**
+     * 削除されたワールドの状態を破棄し、ワールドのバレルを保存してメモリから解放する
+     */
+    private void onWorldRemoved(World world) {
+        WorldContext context = worlds.remove(world);
+        if (context != null) {
+            plugin.getAutosaver().requestUnloadWorld(context.worldId());
         }
     }
 
     /**
-     * バレル設置待ちの状態を保持する内部クラス
+     * ワールドの状態を作成し、ワールドのスレッドに関連付ける
      */
-    private static class PendingPlacement {
-        final UUID playerUuid;
-        final long timestamp;
+    private WorldContext createWorldContext(World world) {
+        String worldId = world.getName();
+        WorldContext context = new WorldContext(worldId, registry.getWorldHandle(worldId), world,
+                new InteractionQueue(world, this::applyInteraction), new PendingPlacements());
+        world.execute(() -> threadWorld.set(context));
+        return context;
+    }
 
-        PendingPlacement(UUID playerUuid, long timestamp) {
-            this.playerUuid = playerUuid;
-            this.timestamp = timestamp;
+    /**
+     * イベントを処理しているスレッドのワールドを取得する
+     *
+     * ワールドのイベントはワールドのスレッドで発生するため、そのスレッドに関連付けたワールドを返す
+     *
+     * @return ワールドの状態、ワールドのスレッド以外から呼び出された場合はnull
+     */
+    private WorldContext currentWorld() {
+        return threadWorld.get();
+    }
+
+    /**
+     * ワールドを解決できなかったイベントを記録する
+     *
+     * 別のワールドの同じ座標のバレルを変更しないよう、イベントは処理せずに無視する
+     * 件数はメトリクスとトレースに記録し、ログへの警告はスレッドごとに最初の1回だけ出力する
+     */
+    private void ignoreUnresolved(BarrelTrace.Event event, Vector3i position) {
+        unresolvedEvents.increment();
+        if (trace.shouldRecord(BarrelTrace.Level.DEBUG)) {
+            trace.record(BarrelTrace.Level.DEBUG, event, position != null ? position.x : 0,
+                    position != null ? position.y : 0, position != null ? position.z : 0, "ignored=unresolved-world");
         }
+        if (!unresolvedWarned.get()) {
+            unresolvedWarned.set(true);
+            plugin.getLogger().at(Level.WARNING).log(
+                    "Ignoring barrel events on thread %s: world could not be resolved"
+                            + " (further events on this thread are only counted in metrics)",
+                    Thread.currentThread().getName());
+        }
+    }
+
+    /**
+     * プレイヤーが最後に預け入れ操作を行ったバレルと時刻
+     */
+    private record LastDeposit(UUID barrelId, long timeMillis) {
+    }
+
+    /**
+     * ワールドごとの状態
+     *
+     * @param worldId ワールドID
+     * @param handle レジストリのワールドハンドル
+     * @param executor ワールドのスレッド
+     * @param queue ワールドのスレッドで処理する操作キュー
+     * @param placements ワールド内のバレル設置待ち
+     */
+    private record WorldContext(String worldId, int handle, Executor executor, InteractionQueue queue,
+                                PendingPlacements placements) {
     }
 }
@@ -0,0 +1,100 @@
+package com.github.yuu1111.barrelmod.listeners;
+
+import com.github.yuu1111.barrelmod.interaction.ItemSlots;
+
+import com.hypixel.hytale.server.core.asset.type.item.config.Item;
+import com.hypixel.hytale.server.core.inventory.ItemStack;
+import com.hypixel.hytale.server.core.inventory.container.ItemContainer;
+import com.hypixel.hytale.server.core.inventory.transaction.ItemStackTransaction;
+
+/**
+ * Hytaleのコンテナを{@link ItemSlots}として扱うアダプター
+ *
+ * 追加・削除で実際に移動した数量は、コンテナが返すトランザクションの残りから求める
+ * アイテムの最大スタック数はアイテムのアセットから取得する
+ */
+final class ContainerSlots implements ItemSlots {
+
+    private static final ContainerSlots MISSING = new ContainerSlots(null);
+
+    private final ItemContainer container;
+
+    private ContainerSlots(ItemContainer container) {
+        this.container = container;
+    }
+
+    /**
+     * @param container 対象のコンテナ、存在しない場合はnull
+     * @return コンテナのアダプター、nullの場合はスロットを持たず追加・削除に失敗するアダプター
+     */
+    static ContainerSlots of(ItemContainer container) {
+        return container != null ? new ContainerSlots(container) : MISSING;
+    }
+
+    @Override
+    public int slotCount() {
+        return container != null ? container.getCapacity() : 0;
+    }
+
+    @Override
+    public String itemIdAt(int slot) {
+        ItemStack stack = container.getItemStack((short) slot);
+        return stack != null && !stack.isEmpty() ? stack.getItemId() : null;
+    }
+
+    @Override
+    public int quantityAt(int slot) {
+        ItemStack stack = container.getItemStack((short) slot);
+        return stack != null && !stack.isEmpty() ? stack.getQuantity() : 0;
+    }
+
+    @Override
+    public int maxStackSize(String itemId) {
+        return maxStackOf(itemId);
+    }
+
+    @Override
+    public int add(String itemId, int amount) {
+        return moved(requireContainer().addItemStack(new ItemStack(itemId, amount)), amount);
+    }
+
+    @Override
+    public int remove(String itemId, int amount) {
+        return moved(requireContainer().removeItemStack(new ItemStack(itemId, amount)), amount);
+    }
+
+    /**
+     * @param transaction コンテナが返したトランザクション
+     * @param amount 要求した数量
+     * @return 実際に移動した数量、残りがなく成功していない場合は0
+     */
+    private static int moved(ItemStackTransaction transaction, int amount) {
+        if (transaction == null) {
+            return 0;
+        }
+        ItemStack remainder = transaction.getRemainder();
+        if (remainder != null && !remainder.isEmpty()) {
+            return Math.max(0, amount - remainder.getQuantity());
+        }
+        return transaction.succeeded() ? amount : 0;
+    }
+
+    /**
+     * @param itemId アイテムID、nullの場合は0を返す
+     * @return アイテムのアセットに定義された最大スタック数、アセットがない場合は0
+     */
+    static int maxStackOf(String itemId) {
+        if (itemId == null) {
+            return 0;
+        }
+        Item item = Item.getAssetMap().getAsset(itemId);
+        return item != null ? item.getMaxStack() : 0;
+    }
+
+    private ItemContainer requireContainer() {
+        if (container == null) {
+            throw new IllegalStateException("Player inventory container is not available");
+        }
+        return container;
+    }
+}
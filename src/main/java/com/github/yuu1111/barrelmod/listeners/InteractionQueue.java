@@ -0,0 +1,140 @@
+package com.github.yuu1111.barrelmod.listeners;
+
+import com.github.yuu1111.barrelmod.storage.BarrelData;
+
+import com.hypixel.hytale.server.core.entity.entities.Player;
+import com.hypixel.hytale.server.core.inventory.ItemStack;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+
+/**
+ * ワールドごとのバレル操作キュー
+ *
+ * イベント発生時はバレル操作をキューに積むだけで、インベントリの更新やメッセージ送信は行わない
+ * キューはワールドのスレッドで次のティックに1回だけまとめて処理される
+ * 同じプレイヤーによる同じバレルへの操作は1件にまとめられ、インベントリの更新とメッセージ送信も1回になる
+ */
+final class InteractionQueue {
+
+    private final Executor worldExecutor;
+    private final Consumer<PendingInteraction> handler;
+    private Map<Key, PendingInteraction> pending = new LinkedHashMap<>();
+    private boolean drainScheduled;
+
+    /**
+     * @param worldExecutor キューを処理するワールドのスレッド
+     * @param handler まとめた操作を適用する処理
+     */
+    InteractionQueue(Executor worldExecutor, Consumer<PendingInteraction> handler) {
+        this.worldExecutor = worldExecutor;
+        this.handler = handler;
+    }
+
+    /**
+     * 預け入れを積む
+     *
+     * 同じティック内に複数回積まれた場合は、最後に手に持っていたスタックのみを預け入れる
+     *
+     * @param player プレイヤー
+     * @param playerUuid プレイヤーのUUID
+     * @param barrel 対象のバレル
+     * @param heldItem 手に持っているアイテム
+     */
+    void deposit(Player player, UUID playerUuid, BarrelData barrel, ItemStack heldItem) {
+        enqueue(player, playerUuid, barrel, interaction -> interaction.heldItem = heldItem);
+    }
+
+    /**
+     * インベントリ内の同種アイテムの一括預け入れを積む
+     *
+     * @param player プレイヤー
+     * @param playerUuid プレイヤーのUUID
+     * @param barrel 対象のバレル
+     * @param heldItem 手に持っているアイテム、空の場合はnull
+     */
+    void depositAll(Player player, UUID playerUuid, BarrelData barrel, ItemStack heldItem) {
+        enqueue(player, playerUuid, barrel, interaction -> {
+            interaction.heldItem = heldItem;
+            interaction.depositAll = true;
+        });
+    }
+
+    /**
+     * 引き出しを積む
+     *
+     * 同じティック内に複数回積まれた場合は、数量を合計して1回で引き出す
+     * 合計はintの最大値で頭打ちになる
+     *
+     * @param player プレイヤー
+     * @param playerUuid プレイヤーのUUID
+     * @param barrel 対象のバレル
+     * @param amount 引き出し希望数量
+     */
+    void withdraw(Player player, UUID playerUuid, BarrelData barrel, int amount) {
+        enqueue(player, playerUuid, barrel, interaction -> interaction.withdrawAmount =
+                (int) Math.min(Integer.MAX_VALUE, (long) interaction.withdrawAmount + amount));
+    }
+
+    /**
+     * バレル情報の表示を積む
+     *
+     * 同じティック内に他の操作も積まれた場合は、その結果に続けてバレル情報を表示する
+     *
+     * @param player プレイヤー
+     * @param playerUuid プレイヤーのUUID
+     * @param barrel 対象のバレル
+     */
+    void showInfo(Player player, UUID playerUuid, BarrelData barrel) {
+        enqueue(player, playerUuid, barrel, interaction -> interaction.showInfo = true);
+    }
+
+    private void enqueue(Player player, UUID playerUuid, BarrelData barrel, Consumer<PendingInteraction> update) {
+        boolean schedule;
+        synchronized (this) {
+            PendingInteraction interaction = pending.computeIfAbsent(new Key(playerUuid, barrel.getId()),
+                    key -> new PendingInteraction(player, barrel));
+            update.accept(interaction);
+            schedule = !drainScheduled;
+            drainScheduled = true;
+        }
+        if (schedule) {
+            worldExecutor.execute(this::drain);
+        }
+    }
+
+    private void drain() {
+        Map<Key, PendingInteraction> batch;
+        synchronized (this) {
+            batch = pending;
+            pending = new LinkedHashMap<>();
+            drainScheduled = false;
+        }
+        for (PendingInteraction interaction : batch.values()) {
+            handler.accept(interaction);
+        }
+    }
+
+    private record Key(UUID playerUuid, UUID barrelId) {
+    }
+
+    /**
+     * 1ティック分にまとめられた、1人のプレイヤーによる1つのバレルへの操作
+     */
+    static final class PendingInteraction {
+        final Player player;
+        final BarrelData barrel;
+        ItemStack heldItem;
+        int withdrawAmount;
+        boolean depositAll;
+        boolean showInfo;
+
+        PendingInteraction(Player player, BarrelData barrel) {
+            this.player = player;
+            this.barrel = barrel;
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package com.github.yuu1111.barrelmod.listeners;
+
+import com.github.yuu1111.barrelmod.storage.LongHashMap;
+import com.github.yuu1111.barrelmod.storage.PositionKey;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * バレル設置待ちのプレイヤーを設置予定位置で管理するテーブル
+ *
+ * 設置イベントにはプレイヤーが含まれないため、バレルを持って右クリックしたブロックと
+ * その隣接6ブロックを設置予定位置として記録し、設置イベントの位置から所有者を求める
+ * 検索・登録は設置待ちの人数に関係なく定数時間で行う
+ * 期限切れのエントリは1秒単位のタイミングホイールで、時間が進んだ時点でまとめて削除する
+ */
+final class PendingPlacements {
+
+    private static final long TTL_MILLIS = 5000;
+    private static final long SLOT_MILLIS = 1000;
+    private static final int WHEEL_SIZE = 8;
+    private static final int[][] OFFSETS = {
+            {0, 0, 0}, {1, 0, 0}, {-1, 0, 0}, {0, 1, 0}, {0, -1, 0}, {0, 0, 1}, {0, 0, -1}
+    };
+
+    private final LongHashMap<Pending> byPosition = new LongHashMap<>();
+    private final Map<UUID, Pending> byPlayer = new HashMap<>();
+    private final List<List<Pending>> wheel = new ArrayList<>(WHEEL_SIZE);
+    private long currentSlot = -1;
+
+    PendingPlacements() {
+        for (int i = 0; i < WHEEL_SIZE; i++) {
+            wheel.add(new ArrayList<>());
+        }
+    }
+
+    /**
+     * プレイヤーがバレルを設置しようとしていることを記録する
+     *
+     * 同じプレイヤーの以前の記録は置き換えられる
+     *
+     * @param playerUuid プレイヤーのUUID
+     * @param x クリックしたブロックのX座標
+     * @param y クリックしたブロックのY座標
+     * @param z クリックしたブロックのZ座標
+     * @param now 現在時刻 (ミリ秒)
+     */
+    synchronized void record(UUID playerUuid, int x, int y, int z, long now) {
+        advance(now);
+        Pending previous = byPlayer.remove(playerUuid);
+        if (previous != null) {
+            unlink(previous);
+        }
+
+        // パックできない位置にはバレルを設置できないため記録しない
+        long[] keys = new long[OFFSETS.length];
+        int count = 0;
+        for (int[] offset : OFFSETS) {
+            int px = x + offset[0];
+            int py = y + offset[1];
+            int pz = z + offset[2];
+            if (PositionKey.isPackable(px, py, pz)) {
+                keys[count++] = PositionKey.pack(px, py, pz);
+            }
+        }
+        keys = Arrays.copyOf(keys, count);
+        Pending pending = new Pending(playerUuid, keys, now + TTL_MILLIS);
+        for (long key : keys) {
+            byPosition.put(key, pending);
+        }
+        byPlayer.put(playerUuid, pending);
+        // 期限の次のスロットで削除されるため、期限前に削除されることはない
+        wheel.get((int) Math.floorMod(pending.expiresAt / SLOT_MILLIS + 1, (long) WHEEL_SIZE)).add(pending);
+    }
+
+    /**
+     * 設置位置に対応する設置待ちを取り出す
+     *
+     * @param x 設置されたブロックのX座標
+     * @param y 設置されたブロックのY座標
+     * @param z 設置されたブロックのZ座標
+     * @param now 現在時刻 (ミリ秒)
+     * @return 設置したプレイヤーのUUID、該当する設置待ちがない場合はnull
+     */
+    synchronized UUID claim(int x, int y, int z, long now) {
+        advance(now);
+        if (!PositionKey.isPackable(x, y, z)) {
+            return null;
+        }
+        Pending pending = byPosition.get(PositionKey.pack(x, y, z));
+        if (pending == null || pending.expiresAt < now) {
+            return null;
+        }
+        byPlayer.remove(pending.playerUuid, pending);
+        unlink(pending);
+        return pending.playerUuid;
+    }
+
+    /**
+     * 経過したスロットの期限切れエントリを削除する
+     */
+    private void advance(long now) {
+        long slot = now / SLOT_MILLIS;
+        if (currentSlot < 0 || slot - currentSlot >= WHEEL_SIZE) {
+            for (List<Pending> bucket : wheel) {
+                expire(bucket);
+            }
+            currentSlot = slot;
+            return;
+        }
+        while (currentSlot < slot) {
+            currentSlot++;
+            expire(wheel.get((int) (currentSlot % WHEEL_SIZE)));
+        }
+    }
+
+    private void expire(List<Pending> bucket) {
+        for (Pending pending : bucket) {
+            if (!pending.removed) {
+                byPlayer.remove(pending.playerUuid, pending);
+                unlink(pending);
+            }
+        }
+        bucket.clear();
+    }
+
+    private void unlink(Pending pending) {
+        pending.removed = true;
+        for (long key : pending.keys) {
+            if (byPosition.get(key) == pending) {
+                byPosition.remove(key);
+            }
+        }
+    }
+
+    /**
+     * 設置待ちのエントリ
+     */
+    private static final class Pending {
+        final UUID playerUuid;
+        final long[] keys;
+        final long expiresAt;
+        boolean removed;
+
+        Pending(UUID playerUuid, long[] keys, long expiresAt) {
+            this.playerUuid = playerUuid;
+            this.keys = keys;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package com.github.yuu1111.barrelmod.listeners;
+
+import java.util.Locale;
+
+/**
+ * 1回の引き出し操作で取り出す数量
+ */
+enum WithdrawMode {
+    /** 1個 */
+    SINGLE,
+    /** 1スタック */
+    STACK,
+    /** インベントリが一杯になるまで */
+    FILL;
+
+    /**
+     * 設定値から引き出しモードを取得する
+     *
+     * @param name モード名 (single、stack または fill)
+     * @return 引き出しモード、不明な値の場合はSTACK
+     */
+    static WithdrawMode fromConfig(String name) {
+        try {
+            return valueOf(name.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException | NullPointerException e) {
+            return STACK;
+        }
+    }
+
+    /**
+     * @param stackSize 1スタックの数量
+     * @return 引き出し希望数量、実際の数量はインベントリの空きとバレルの格納数量で制限される
+     */
+    int requestedAmount(int stackSize) {
+        return switch (this) {
+            case SINGLE -> 1;
+            case STACK -> stackSize;
+            case FILL -> Integer.MAX_VALUE;
+        };
+    }
+}
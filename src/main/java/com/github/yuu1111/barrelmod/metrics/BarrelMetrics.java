@@ -0,0 +1,330 @@
+package com.github.yuu1111.barrelmod.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * バレル操作と永続化のメトリクス
+ *
+ * カウンターとヒストグラムはLongAdderで記録するため、記録時にロックや競合するCASが発生しない
+ * ヒストグラムは値を2の累乗ごとのバケットに集計し、分位数はバケットの上限値で近似する
+ * 収集した値はPrometheusのテキスト形式でファイルに出力するか、{@link #summary()}で人間向けに表示する
+ *
+ * 同じ名前で複数回登録した場合は、既に登録済みのメトリクスを返す
+ */
+public class BarrelMetrics {
+
+    /** データフォルダに出力するファイル名 */
+    public static final String EXPORT_FILE = "metrics.prom";
+
+    private final Map<String, Metric> metrics = new LinkedHashMap<>();
+
+    /**
+     * カウンターを取得する
+     *
+     * @param name メトリクス名 (Prometheusの命名規則に従い、_totalで終わる)
+     * @param help 説明
+     * @return カウンター
+     */
+    public synchronized Counter counter(String name, String help) {
+        return (Counter) metrics.computeIfAbsent(name, key -> new Counter(key, help));
+    }
+
+    /**
+     * ヒストグラムを取得する
+     *
+     * @param name メトリクス名 (単位を末尾に含める)
+     * @param help 説明
+     * @return ヒストグラム
+     */
+    public synchronized Histogram histogram(String name, String help) {
+        return (Histogram) metrics.computeIfAbsent(name, key -> new Histogram(key, help));
+    }
+
+    /**
+     * 出力時に値を取得するゲージを登録する
+     *
+     * @param name メトリクス名
+     * @param help 説明
+     * @param label 値を区別するラベル名
+     * @param values ラベル値ごとの現在値を返す関数
+     */
+    public synchronized void gauge(String name, String help, String label,
+                                   Supplier<? extends Map<String, ? extends Number>> values) {
+        metrics.computeIfAbsent(name, key -> new Gauge(key, help, label, values));
+    }
+
+    /**
+     * 全てのメトリクスをPrometheusのテキスト形式で書き込む
+     *
+     * @param out 出力先
+     * @throws IOException 書き込みに失敗した場合
+     */
+    public void writePrometheus(Appendable out) throws IOException {
+        for (Metric metric : registered()) {
+            out.append("# HELP ").append(metric.name).append(' ').append(metric.help).append('\n');
+            out.append("# TYPE ").append(metric.name).append(' ').append(metric.type()).append('\n');
+            metric.writePrometheus(out);
+        }
+    }
+
+    /**
+     * 全てのメトリクスをPrometheusのテキスト形式でファイルに出力する
+     *
+     * 一時ファイルに書き込んでから置き換えるため、読み取り側が書き込み途中の内容を読むことはない
+     *
+     * @param file 出力先
+     * @throws IOException 書き込みに失敗した場合
+     */
+    public void export(Path file) throws IOException {
+        Files.createDirectories(file.getParent());
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(temp)) {
+            writePrometheus(writer);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @return メトリクスごとの1行の要約
+     */
+    public List<String> summary() {
+        List<String> lines = new ArrayList<>();
+        for (Metric metric : registered()) {
+            metric.summarize(lines);
+        }
+        return lines;
+    }
+
+    private synchronized List<Metric> registered() {
+        return new ArrayList<>(metrics.values());
+    }
+
+    private abstract static class Metric {
+        final String name;
+        final String help;
+
+        Metric(String name, String help) {
+            this.name = name;
+            this.help = help;
+        }
+
+        abstract String type();
+
+        abstract void writePrometheus(Appendable out) throws IOException;
+
+        abstract void summarize(List<String> lines);
+    }
+
+    /**
+     * 単調増加するカウンター
+     */
+    public static final class Counter extends Metric {
+        private final LongAdder value = new LongAdder();
+
+        private Counter(String name, String help) {
+            super(name, help);
+        }
+
+        /**
+         * 1を加算する
+         */
+        public void increment() {
+            value.increment();
+        }
+
+        /**
+         * @param amount 加算する値
+         */
+        public void add(long amount) {
+            value.add(amount);
+        }
+
+        /**
+         * @return 現在の合計値
+         */
+        public long sum() {
+            return value.sum();
+        }
+
+        @Override
+        String type() {
+            return "counter";
+        }
+
+        @Override
+        void writePrometheus(Appendable out) throws IOException {
+            out.append(name).append(' ').append(Long.toString(sum())).append('\n');
+        }
+
+        @Override
+        void summarize(List<String> lines) {
+            lines.add(name + " = " + sum());
+        }
+    }
+
+    /**
+     * 2の累乗ごとのバケットで値の分布を集計するヒストグラム
+     *
+     * バケットiには2^(i-1)以上2^i未満の値が入る (バケット0は0以下の値)
+     */
+    public static final class Histogram extends Metric {
+        private static final int BUCKETS = 64;
+
+        private final LongAdder[] buckets = new LongAdder[BUCKETS];
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+
+        private Histogram(String name, String help) {
+            super(name, help);
+            for (int i = 0; i < BUCKETS; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        /**
+         * 値を記録する
+         *
+         * @param value 記録する値
+         */
+        public void record(long value) {
+            int bucket = value <= 0 ? 0 : Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(value));
+            buckets[bucket].increment();
+            count.increment();
+            sum.add(value);
+        }
+
+        /**
+         * @return 記録した値の数
+         */
+        public long count() {
+            return count.sum();
+        }
+
+        /**
+         * 分位数を求める
+         *
+         * @param quantile 0から1までの分位
+         * @return 分位数を含むバケットの上限値、記録がない場合は0
+         */
+        public long quantile(double quantile) {
+            long[] counts = snapshot();
+            long total = 0;
+            for (long c : counts) {
+                total += c;
+            }
+            if (total == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(quantile * total);
+            long cumulative = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                cumulative += counts[i];
+                if (cumulative >= rank && counts[i] > 0) {
+                    return upperBound(i);
+                }
+            }
+            return upperBound(BUCKETS - 1);
+        }
+
+        private long[] snapshot() {
+            long[] counts = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] = buckets[i].sum();
+            }
+            return counts;
+        }
+
+        private static long upperBound(int bucket) {
+            return bucket == 0 ? 0 : bucket == BUCKETS - 1 ? Long.MAX_VALUE : (1L << bucket) - 1;
+        }
+
+        @Override
+        String type() {
+            return "histogram";
+        }
+
+        @Override
+        void writePrometheus(Appendable out) throws IOException {
+            long[] counts = snapshot();
+            int highest = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                if (counts[i] > 0) {
+                    highest = i;
+                }
+            }
+            long cumulative = 0;
+            for (int i = 0; i <= highest && i < BUCKETS - 1; i++) {
+                cumulative += counts[i];
+                out.append(name).append("_bucket{le=\"").append(Long.toString(upperBound(i))).append("\"} ")
+                        .append(Long.toString(cumulative)).append('\n');
+            }
+            long total = 0;
+            for (long c : counts) {
+                total += c;
+            }
+            out.append(name).append("_bucket{le=\"+Inf\"} ").append(Long.toString(total)).append('\n');
+            out.append(name).append("_sum ").append(Long.toString(sum.sum())).append('\n');
+            out.append(name).append("_count ").append(Long.toString(total)).append('\n');
+        }
+
+        @Override
+        void summarize(List<String> lines) {
+            long n = count();
+            if (n == 0) {
+                lines.add(name + ": no samples");
+                return;
+            }
+            lines.add(name + ": count=" + n + " avg=" + sum.sum() / n
+                    + " p50<=" + quantile(0.5) + " p99<=" + quantile(0.99) + " max<=" + quantile(1.0));
+        }
+    }
+
+    /**
+     * 出力時に値を取得するゲージ
+     */
+    private static final class Gauge extends Metric {
+        private final String label;
+        private final Supplier<? extends Map<String, ? extends Number>> values;
+
+        Gauge(String name, String help, String label, Supplier<? extends Map<String, ? extends Number>> values) {
+            super(name, help);
+            this.label = label;
+            this.values = values;
+        }
+
+        @Override
+        String type() {
+            return "gauge";
+        }
+
+        @Override
+        void writePrometheus(Appendable out) throws IOException {
+            for (Map.Entry<String, ? extends Number> entry : values.get().entrySet()) {
+                out.append(name).append('{').append(label).append("=\"")
+                        .append(escapeLabel(entry.getKey())).append("\"} ")
+                        .append(entry.getValue().toString()).append('\n');
+            }
+        }
+
+        @Override
+        void summarize(List<String> lines) {
+            for (Map.Entry<String, ? extends Number> entry : values.get().entrySet()) {
+                lines.add(name + "{" + label + "=" + entry.getKey() + "} = " + entry.getValue());
+            }
+        }
+
+        private static String escapeLabel(String value) {
+            return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+        }
+    }
+}
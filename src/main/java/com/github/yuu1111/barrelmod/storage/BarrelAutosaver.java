@@ -0,0 +1,151 @@
+package com.github.yuu1111.barrelmod.storage;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * バレルデータを専用の書き込みスレッドで保存するスケジューラー
+ *
+ * 定期的な自動保存、手動保存要求、未使用リージョンの解放、削除されたワールドの解放を全て同じスレッドで直列に実行する
+ * 実行待ちの保存要求は1つにまとめられるため、ディスクが遅い場合でも保存が積み重ならない
+ */
+public class BarrelAutosaver {
+
+    private static final Logger LOGGER = Logger.getLogger("BarrelMod");
+    private static final long REGION_SWEEP_INTERVAL_SECONDS = 60;
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 30;
+
+    private final BarrelDataManager dataManager;
+    private final BarrelRegistry registry;
+    private final ScheduledExecutorService writer;
+    private final AtomicReference<CompletableFuture<Integer>> pendingSave = new AtomicReference<>();
+
+    /**
+     * 自動保存スケジューラーを作成する
+     *
+     * @param dataManager 保存先のデータマネージャー
+     * @param registry 保存対象のレジストリ
+     */
+    public BarrelAutosaver(BarrelDataManager dataManager, BarrelRegistry registry) {
+        this.dataManager = dataManager;
+        this.registry = registry;
+        this.writer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "BarrelMod-Writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 定期実行を開始する
+     *
+     * @param autosaveIntervalSeconds 自動保存の間隔 (秒)、0以下の場合は自動保存しない
+     * @param regionIdleSeconds リージョンを解放するまでの未アクセス時間 (秒)
+     */
+    public void start(int autosaveIntervalSeconds, int regionIdleSeconds) {
+        if (autosaveIntervalSeconds > 0) {
+            writer.scheduleWithFixedDelay(this::requestSave,
+                    autosaveIntervalSeconds, autosaveIntervalSeconds, TimeUnit.SECONDS);
+        }
+        long idleMillis = TimeUnit.SECONDS.toMillis(regionIdleSeconds);
+        writer.scheduleWithFixedDelay(() -> releaseIdleRegions(idleMillis),
+                REGION_SWEEP_INTERVAL_SECONDS, REGION_SWEEP_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * 変更されたバレルの保存を要求する
+     *
+     * 既に実行待ちの保存がある場合は新たに登録せず、その保存の完了を待つFutureを返す
+     * 実行中の保存がある場合は、その完了後にもう1回だけ保存が行われる
+     *
+     * @return 書き込んだリージョン数で完了するFuture
+     */
+    public CompletableFuture<Integer> requestSave() {
+        while (true) {
+            CompletableFuture<Integer> pending = pendingSave.get();
+            if (pending != null) {
+                return pending;
+            }
+            CompletableFuture<Integer> future = new CompletableFuture<>();
+            if (pendingSave.compareAndSet(null, future)) {
+                try {
+                    writer.execute(() -> runSave(future));
+                } catch (RuntimeException e) {
+                    pendingSave.compareAndSet(future, null);
+                    future.completeExceptionally(e);
+                }
+                return future;
+            }
+        }
+    }
+
+    /**
+     * ワールドの変更を保存し、ワールドのリージョンをメモリから解放するよう要求する
+     *
+     * 保存と同じ書き込みスレッドで実行するため、呼び出し元のスレッドはI/Oを待たない
+     *
+     * @param worldId ワールドID
+     * @return 解放したリージョン数で完了するFuture
+     */
+    public CompletableFuture<Integer> requestUnloadWorld(String worldId) {
+        CompletableFuture<Integer> future = new CompletableFuture<>();
+        try {
+            writer.execute(() -> {
+                try {
+                    int released = dataManager.unloadWorld(registry, worldId);
+                    LOGGER.info("Released " + released + " barrel regions of removed world " + worldId + ".");
+                    future.complete(released);
+                } catch (Throwable t) {
+                    LOGGER.log(Level.WARNING, "Failed to unload barrels of world " + worldId, t);
+                    future.completeExceptionally(t);
+                }
+            });
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * 定期実行を停止し、未保存の変更を書き込んでから書き込みスレッドを終了する
+     */
+    public void shutdown() {
+        CompletableFuture<Integer> finalSave = requestSave();
+        writer.shutdown();
+        try {
+            finalSave.get(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            writer.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            LOGGER.log(Level.SEVERE, "Final barrel save did not complete", e);
+        }
+    }
+
+    private void runSave(CompletableFuture<Integer> future) {
+        // 保存開始後の要求は新しい保存として受け付ける
+        pendingSave.compareAndSet(future, null);
+        try {
+            future.complete(dataManager.saveChanges(registry));
+        } catch (Throwable t) {
+            LOGGER.log(Level.SEVERE, "Barrel autosave failed", t);
+            future.completeExceptionally(t);
+        }
+    }
+
+    private void releaseIdleRegions(long idleMillis) {
+        try {
+            int released = dataManager.releaseIdleRegions(registry, idleMillis);
+            if (released > 0) {
+                LOGGER.fine("Released " + released + " idle barrel regions.");
+            }
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Failed to release idle barrel regions", e);
+        }
+    }
+}
@@ -2,6 +2,8 @@ package com.github.yuu1111.barrelmod.storage;
 
 import com.hypixel.hytale.math.vector.Vector3i;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 import java.util.Objects;
 import java.util.UUID;
 
@@ -9,6 +11,13 @@ import java.util.UUID;
  * バレルの状態を表すデータクラス
  * バレルの位置、格納アイテム、容量、ロック状態などを管理する
  * 各バレルは一意のUUIDで識別される
+ * 状態が変化するとダーティとしてマークされ、次回の保存対象となる
+ *
+ * 格納アイテム・数量・最大容量は1つの不変オブジェクトとして保持し、CASで置き換える
+ * 複数スレッドからの預け入れ・引き出し・スナップショットはロックなしで線形化可能となる
+ * インベントリとの間の移動は、引き出し・預け入れとも予約・確定・取り消しの手順で行い、1回のCASで確定する
+ * 格納アイテムは{@link ItemIds}のハンドルとして保持し、アイテムの比較は整数の比較で行う
+ * レジストリに登録されている間は、中身とオーナーの変化をレジストリのアイテム・オーナーインデックスにも反映する
  */
 public class BarrelData {
 
@@ -23,11 +32,29 @@ public class BarrelData {
     private final int posZ;
     private final String worldId;
 
-    private String storedItemId;
-    private int storedAmount;
-    private int maxCapacity;
-    private boolean locked;
-    private UUID ownerUuid;
+    private static final VarHandle CONTENTS;
+
+    static {
+        try {
+            CONTENTS = MethodHandles.lookup().findVarHandle(BarrelData.class, "contents", Contents.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private volatile Contents contents;
+    private volatile boolean locked;
+    private volatile UUID ownerUuid;
+
+    private volatile boolean dirty;
+    private volatile ChangeListener changeListener;
+
+    // ItemIndexに最後に反映した中身、このバレルのモニターで保護する
+    private volatile ItemIndex itemIndex;
+    private int indexedItem = IdTable.NONE;
+    private int indexedAmount;
+    // 登録先のOwnerIndex、オーナーの変更と合わせてこのバレルのモニターで保護する
+    private OwnerIndex ownerIndex;
 
     /**
      * 新規バレルを作成する
@@ -41,9 +68,7 @@ public class BarrelData {
         this.posY = position.y;
         this.posZ = position.z;
         this.worldId = worldId;
-        this.storedItemId = null;
-        this.storedAmount = 0;
-        this.maxCapacity = DEFAULT_MAX_CAPACITY;
+        this.contents = new Contents(IdTable.NONE, 0, 0, 0, DEFAULT_MAX_CAPACITY);
         this.locked = false;
         this.ownerUuid = null;
     }
@@ -69,9 +94,7 @@ public class BarrelData {
         this.posY = posY;
         this.posZ = posZ;
         this.worldId = worldId;
-        this.storedItemId = storedItemId;
-        this.storedAmount = storedAmount;
-        this.maxCapacity = maxCapacity;
+        this.contents = new Contents(ItemIds.intern(storedItemId), storedAmount, 0, 0, maxCapacity);
         this.locked = locked;
         this.ownerUuid = ownerUuid;
     }
@@ -115,21 +138,30 @@ public class BarrelData {
      * @return 格納中のアイテムID、空の場合はnull
      */
     public String getStoredItemId() {
-        return storedItemId;
+        Contents current = contents;
+        return current.isEmpty() ? null : ItemIds.nameOf(current.item());
+    }
+
+    /**
+     * @return 格納中のアイテムの{@link ItemIds}ハンドル、空の場合は{@link IdTable#NONE}
+     */
+    public int getStoredItemHandle() {
+        Contents current = contents;
+        return current.isEmpty() ? IdTable.NONE : current.item();
     }
 
     /**
      * @return 格納中のアイテム数量
      */
     public int getStoredAmount() {
-        return storedAmount;
+        return contents.amount();
     }
 
     /**
      * @return 最大容量
      */
     public int getMaxCapacity() {
-        return maxCapacity;
+        return contents.maxCapacity();
     }
 
     /**
@@ -150,21 +182,56 @@ public class BarrelData {
      * @param ownerUuid オーナーUUID
      */
     public void setOwnerUuid(UUID ownerUuid) {
-        this.ownerUuid = ownerUuid;
+        synchronized (this) {
+            UUID previous = this.ownerUuid;
+            if (Objects.equals(previous, ownerUuid)) {
+                return;
+            }
+            this.ownerUuid = ownerUuid;
+            OwnerIndex index = ownerIndex;
+            if (index != null) {
+                index.detach(previous, this);
+                index.remove(previous);
+                index.attach(ownerUuid, this);
+                index.add(ownerUuid);
+            }
+        }
+        markDirty();
     }
 
     /**
      * @param locked ロック状態
      */
     public void setLocked(boolean locked) {
-        this.locked = locked;
+        if (this.locked != locked) {
+            this.locked = locked;
+            markDirty();
+        }
     }
 
     /**
      * @param maxCapacity 最大容量
      */
     public void setMaxCapacity(int maxCapacity) {
-        this.maxCapacity = maxCapacity;
+        while (true) {
+            Contents current = contents;
+            if (current.maxCapacity() == maxCapacity) {
+                return;
+            }
+            if (CONTENTS.compareAndSet(this, current, new Contents(current.item(), current.amount(), current.reserved(), current.incoming(), maxCapacity))) {
+                markDirty();
+                return;
+            }
+        }
+    }
+
+    /**
+     * 前回の保存以降に状態が変化したか判定する
+     *
+     * @return 変化している場合true
+     */
+    public boolean isDirty() {
+        return dirty;
     }
 
     /**
@@ -173,7 +240,7 @@ public class BarrelData {
      * @return 空の場合true
      */
     public boolean isEmpty() {
-        return storedItemId == null || storedAmount <= 0;
+        return contents.isEmpty();
     }
 
     /**
@@ -182,16 +249,19 @@ public class BarrelData {
      * @return 満杯の場合true
      */
     public boolean isFull() {
-        return storedAmount >= maxCapacity;
+        Contents current = contents;
+        return current.amount() >= current.maxCapacity();
     }
 
     /**
      * 利用可能な空き容量を取得する
      *
+     * 預け入れ予約中の数量は空き容量に含まない
+     *
      * @return 空き容量
      */
     public int getAvailableSpace() {
-        return maxCapacity - storedAmount;
+        return contents.space();
     }
 
     /**
@@ -203,7 +273,17 @@ public class BarrelData {
      * @return 受け入れ可能な場合true
      */
     public boolean canAcceptItem(String itemId) {
-        return isEmpty() || Objects.equals(storedItemId, itemId);
+        return contents.canAccept(ItemIds.find(itemId));
+    }
+
+    /**
+     * 指定アイテムを受け入れ可能か判定する
+     *
+     * @param itemHandle アイテムの{@link ItemIds}ハンドル
+     * @return 受け入れ可能な場合true
+     */
+    public boolean canAcceptItem(int itemHandle) {
+        return contents.canAccept(itemHandle);
     }
 
     /**
@@ -214,22 +294,37 @@ public class BarrelData {
      * @return 実際に預け入れた数量
      */
     public int deposit(String itemId, int amount) {
-        if (amount <= 0) {
-            return 0;
-        }
+        return deposit(ItemIds.intern(itemId), amount);
+    }
 
-        if (!canAcceptItem(itemId)) {
+    /**
+     * アイテムをバレルに預け入れる
+     *
+     * @param itemHandle アイテムの{@link ItemIds}ハンドル
+     * @param amount 預け入れ数量
+     * @return 実際に預け入れた数量
+     */
+    public int deposit(int itemHandle, int amount) {
+        if (amount <= 0 || itemHandle == IdTable.NONE) {
             return 0;
         }
 
-        if (isEmpty()) {
-            storedItemId = itemId;
+        while (true) {
+            Contents current = contents;
+            if (!current.canAccept(itemHandle)) {
+                return 0;
+            }
+            int canDeposit = Math.min(amount, current.space());
+            if (canDeposit <= 0) {
+                return 0;
+            }
+            Contents updated = new Contents(itemHandle, current.amount() + canDeposit, current.reserved(),
+                    current.incoming(), current.maxCapacity());
+            if (CONTENTS.compareAndSet(this, current, updated)) {
+                markDirty();
+                return canDeposit;
+            }
         }
-
-        int canDeposit = Math.min(amount, getAvailableSpace());
-        storedAmount += canDeposit;
-
-        return canDeposit;
     }
 
     /**
@@ -239,26 +334,302 @@ public class BarrelData {
      * @return 実際に引き出した数量
      */
     public int withdraw(int requestedAmount) {
-        if (isEmpty() || requestedAmount <= 0) {
+        if (requestedAmount <= 0) {
             return 0;
         }
 
-        int canWithdraw = Math.min(requestedAmount, storedAmount);
-        storedAmount -= canWithdraw;
+        while (true) {
+            Contents current = contents;
+            int canWithdraw = Math.min(requestedAmount, current.unreserved());
+            if (current.isEmpty() || canWithdraw <= 0) {
+                return 0;
+            }
+            Contents updated = current.with(current.amount() - canWithdraw, current.reserved(), current.incoming());
+            if (CONTENTS.compareAndSet(this, current, updated)) {
+                markDirty();
+                return canWithdraw;
+            }
+        }
+    }
+
+    /**
+     * 引き出す数量を予約する
+     *
+     * 予約した数量はバレル内に残ったまま他の引き出しから除外され、
+     * {@link #commit(Reservation)}で確定するか{@link #cancel(Reservation)}で取り消すまで保持される
+     * 確定前に保存されても予約分は格納数量に含まれるため、アイテムが失われることはない
+     *
+     * @param requestedAmount 引き出し希望数量
+     * @return 予約、引き出せるアイテムがない場合はnull
+     */
+    public Reservation reserve(int requestedAmount) {
+        if (requestedAmount <= 0) {
+            return null;
+        }
+
+        while (true) {
+            Contents current = contents;
+            int canReserve = Math.min(requestedAmount, current.unreserved());
+            if (current.isEmpty() || canReserve <= 0) {
+                return null;
+            }
+            Contents updated = current.with(current.amount(), current.reserved() + canReserve, current.incoming());
+            if (CONTENTS.compareAndSet(this, current, updated)) {
+                return new Reservation(current.item(), canReserve);
+            }
+        }
+    }
+
+    /**
+     * 予約した数量をバレルから取り除いて引き出しを確定する
+     *
+     * 予約後にバレルがクリアされ別のアイテムが格納された場合は、予約の解除のみ行う
+     *
+     * @param reservation {@link #reserve(int)}で取得した予約
+     * @return 実際に取り除いた数量
+     */
+    public int commit(Reservation reservation) {
+        return commit(reservation, reservation.amount());
+    }
+
+    /**
+     * 予約のうち指定した数量のみをバレルから取り除いて引き出しを確定する
+     *
+     * 残りの予約分はバレル内に戻し、予約全体を解除する
+     *
+     * @param reservation {@link #reserve(int)}で取得した予約
+     * @param amount 取り除く数量、予約した数量を上限とする
+     * @return 実際に取り除いた数量
+     */
+    public int commit(Reservation reservation, int amount) {
+        return release(reservation, Math.max(0, Math.min(amount, reservation.amount())));
+    }
+
+    /**
+     * 予約を取り消す
+     *
+     * @param reservation {@link #reserve(int)}で取得した予約
+     */
+    public void cancel(Reservation reservation) {
+        release(reservation, 0);
+    }
+
+    private int release(Reservation reservation, int remove) {
+        while (true) {
+            Contents current = contents;
+            int reserved = Math.max(0, current.reserved() - reservation.amount());
+            int removed = current.item() == reservation.itemHandle()
+                    ? Math.min(remove, current.amount())
+                    : 0;
+            Contents updated = current.with(current.amount() - removed, reserved, current.incoming());
+            if (CONTENTS.compareAndSet(this, current, updated)) {
+                if (removed > 0) {
+                    markDirty();
+                }
+                return removed;
+            }
+        }
+    }
+
+    /**
+     * 預け入れる数量の空き容量を予約する
+     *
+     * 予約した空き容量は他の預け入れから除外され、予約中は別のアイテムを受け入れない
+     * インベントリからアイテムを取り除いた後に{@link #commitDeposit(Reservation, int)}で確定するか、
+     * {@link #cancelDeposit(Reservation)}で取り消す
+     * 予約分は確定するまで格納数量に含まれないため、確定前に保存されてもアイテムが増えることはない
+     *
+     * @param itemHandle アイテムの{@link ItemIds}ハンドル
+     * @param requestedAmount 預け入れ希望数量
+     * @return 予約、受け入れられないか空き容量がない場合はnull
+     */
+    public Reservation reserveSpace(int itemHandle, int requestedAmount) {
+        if (requestedAmount <= 0 || itemHandle == IdTable.NONE) {
+            return null;
+        }
+
+        while (true) {
+            Contents current = contents;
+            if (!current.canAccept(itemHandle)) {
+                return null;
+            }
+            int canReserve = Math.min(requestedAmount, current.space());
+            if (canReserve <= 0) {
+                return null;
+            }
+            Contents updated = new Contents(itemHandle, current.amount(), current.reserved(),
+                    current.incoming() + canReserve, current.maxCapacity());
+            if (CONTENTS.compareAndSet(this, current, updated)) {
+                return new Reservation(itemHandle, canReserve);
+            }
+        }
+    }
 
-        if (storedAmount == 0) {
-            storedItemId = null;
+    /**
+     * 予約した空き容量のうち指定した数量をバレルに格納して預け入れを確定する
+     *
+     * 残りの予約分は空き容量に戻し、予約全体を解除する
+     * 予約後にバレルがクリアされた場合は予約の解除のみ行い、格納しなかった分は呼び出し元がインベントリへ戻す
+     *
+     * @param reservation {@link #reserveSpace(int, int)}で取得した予約
+     * @param amount 格納する数量、予約した数量を上限とする
+     * @return 実際に格納した数量
+     */
+    public int commitDeposit(Reservation reservation, int amount) {
+        int requested = Math.max(0, Math.min(amount, reservation.amount()));
+        while (true) {
+            Contents current = contents;
+            int incoming = Math.max(0, current.incoming() - reservation.amount());
+            int stored = current.item() == reservation.itemHandle()
+                    ? Math.max(0, Math.min(requested, current.maxCapacity() - current.amount()))
+                    : 0;
+            Contents updated = current.with(current.amount() + stored, current.reserved(), incoming);
+            if (CONTENTS.compareAndSet(this, current, updated)) {
+                if (stored > 0) {
+                    markDirty();
+                }
+                return stored;
+            }
         }
+    }
+
+    /**
+     * 空き容量の予約を取り消す
+     *
+     * @param reservation {@link #reserveSpace(int, int)}で取得した予約
+     */
+    public void cancelDeposit(Reservation reservation) {
+        commitDeposit(reservation, 0);
+    }
 
-        return canWithdraw;
+    /**
+     * 不正な状態を修復する
+     *
+     * アイテムIDのない格納数量や0以下の格納数量は空の状態に戻し、
+     * 最大容量が0以下の場合はデフォルト値に、格納数量を下回る場合は格納数量まで引き上げる
+     * 格納されたアイテムが失われないよう、格納数量を減らす修復は行わない
+     *
+     * @return 修復した場合true
+     */
+    public boolean repair() {
+        while (true) {
+            Contents current = contents;
+            int item = current.isFree() ? IdTable.NONE : current.item();
+            int amount = item == IdTable.NONE ? 0 : Math.max(0, current.amount());
+            int maxCapacity = current.maxCapacity() > 0 ? current.maxCapacity() : DEFAULT_MAX_CAPACITY;
+            maxCapacity = Math.max(maxCapacity, amount);
+            if (item == current.item() && amount == current.amount() && maxCapacity == current.maxCapacity()) {
+                return false;
+            }
+            if (CONTENTS.compareAndSet(this, current, new Contents(item, amount, current.reserved(), current.incoming(), maxCapacity))) {
+                markDirty();
+                return true;
+            }
+        }
     }
 
     /**
      * バレルの中身をクリアする
      */
     public void clear() {
-        storedItemId = null;
-        storedAmount = 0;
+        while (true) {
+            Contents current = contents;
+            if (current.item() == IdTable.NONE && current.amount() == 0 && current.incoming() == 0) {
+                return;
+            }
+            if (CONTENTS.compareAndSet(this, current, new Contents(IdTable.NONE, 0, 0, 0, current.maxCapacity()))) {
+                markDirty();
+                return;
+            }
+        }
+    }
+
+    /**
+     * 現在の状態を不変レコードとして複製する
+     *
+     * @return バレル状態のスナップショット
+     */
+    public BarrelRecord snapshot() {
+        Contents current = contents;
+        return new BarrelRecord(id, posX, posY, posZ, worldId,
+                current.isEmpty() ? null : ItemIds.nameOf(current.item()),
+                current.isEmpty() ? 0 : current.amount(), current.maxCapacity(), locked, ownerUuid);
+    }
+
+    /**
+     * 保存直前にダーティフラグを解除する
+     * 解除後の変更は再びダーティとしてマークされる
+     */
+    void clearDirty() {
+        dirty = false;
+    }
+
+    /**
+     * @param changeListener 変更のたびに通知を受けるリスナー、nullで解除
+     */
+    void setChangeListener(ChangeListener changeListener) {
+        this.changeListener = changeListener;
+    }
+
+    /**
+     * アイテム・オーナーインデックスに登録し、現在の中身とオーナーを反映する
+     *
+     * オーナーインデックスには読み込み済みのバレルとして登録し、所有数は変更しない
+     *
+     * @param items 登録先のアイテムインデックス
+     * @param owners 登録先のオーナーインデックス
+     */
+    synchronized void attachIndex(ItemIndex items, OwnerIndex owners) {
+        detachIndex();
+        itemIndex = items;
+        ownerIndex = owners;
+        owners.attach(ownerUuid, this);
+        syncIndex();
+    }
+
+    /**
+     * アイテム・オーナーインデックスから取り除き、登録を解除する
+     */
+    synchronized void detachIndex() {
+        ItemIndex index = itemIndex;
+        if (index != null) {
+            index.move(this, indexedItem, indexedAmount, IdTable.NONE, 0);
+            itemIndex = null;
+            indexedItem = IdTable.NONE;
+            indexedAmount = 0;
+        }
+        if (ownerIndex != null) {
+            ownerIndex.detach(ownerUuid, this);
+            ownerIndex = null;
+        }
+    }
+
+    /**
+     * 前回反映した中身と現在の中身の差分をアイテムインデックスに反映する
+     */
+    private synchronized void syncIndex() {
+        ItemIndex index = itemIndex;
+        if (index == null) {
+            return;
+        }
+        Contents current = contents;
+        int item = current.isEmpty() ? IdTable.NONE : current.item();
+        int amount = current.isEmpty() ? 0 : current.amount();
+        index.move(this, indexedItem, indexedAmount, item, amount);
+        indexedItem = item;
+        indexedAmount = amount;
+    }
+
+    private void markDirty() {
+        if (itemIndex != null) {
+            syncIndex();
+        }
+        boolean firstChange = !dirty;
+        dirty = true;
+        ChangeListener listener = changeListener;
+        if (listener != null) {
+            listener.onBarrelChanged(this, firstChange);
+        }
     }
 
     @Override
@@ -276,13 +647,94 @@ public class BarrelData {
 
     @Override
     public String toString() {
+        Contents current = contents;
         return "BarrelData{" +
                 "id=" + id +
                 ", pos=(" + posX + "," + posY + "," + posZ + ")" +
                 ", worldId='" + worldId + '\'' +
-                ", storedItemId='" + storedItemId + '\'' +
-                ", storedAmount=" + storedAmount +
-                ", maxCapacity=" + maxCapacity +
+                ", storedItemId='" + ItemIds.nameOf(current.item()) + '\'' +
+                ", storedAmount=" + current.amount() +
+                ", maxCapacity=" + current.maxCapacity() +
                 '}';
     }
+
+    /**
+     * バレルの状態が変化した際の通知を受けるリスナー
+     */
+    @FunctionalInterface
+    interface ChangeListener {
+        /**
+         * 状態が変化するたびに、変化後に呼び出される
+         *
+         * @param barrel 変更されたバレル
+         * @param firstChange 前回の保存以降で最初の変更の場合true
+         */
+        void onBarrelChanged(BarrelData barrel, boolean firstChange);
+    }
+
+    /**
+     * 引き出しまたは預け入れの予約
+     *
+     * @param itemHandle 予約したアイテムの{@link ItemIds}ハンドル
+     * @param amount 予約した数量
+     */
+    public record Reservation(int itemHandle, int amount) {
+
+        /**
+         * @return 予約したアイテムID
+         */
+        public String itemId() {
+            return ItemIds.nameOf(itemHandle);
+        }
+    }
+
+    /**
+     * バレルの中身
+     *
+     * 不変オブジェクトで、変更時は新しいインスタンスとCASで置き換える
+     *
+     * @param item 格納アイテムの{@link ItemIds}ハンドル、空の場合は{@link IdTable#NONE}
+     * @param amount 格納数量 (引き出し予約分を含み、預け入れ予約分は含まない)
+     * @param reserved 引き出し予約中の数量
+     * @param incoming 預け入れ予約中の数量
+     * @param maxCapacity 最大容量
+     */
+    private record Contents(int item, int amount, int reserved, int incoming, int maxCapacity) {
+
+        int unreserved() {
+            return Math.max(0, amount - reserved);
+        }
+
+        int space() {
+            return maxCapacity - amount - incoming;
+        }
+
+        /**
+         * @return 格納数量がない場合true、預け入れ予約中でもtrue
+         */
+        boolean isEmpty() {
+            return item == IdTable.NONE || amount <= 0;
+        }
+
+        /**
+         * @return 格納数量も預け入れ予約もなく、どのアイテムも受け入れられる場合true
+         */
+        boolean isFree() {
+            return isEmpty() && incoming <= 0;
+        }
+
+        boolean canAccept(int other) {
+            return isFree() || item == other;
+        }
+
+        /**
+         * 数量を置き換えた中身を作成する
+         *
+         * 格納数量も預け入れ予約もなくなった場合はアイテムを空にする
+         */
+        Contents with(int amount, int reserved, int incoming) {
+            int kept = amount > 0 || incoming > 0 ? item : IdTable.NONE;
+            return new Contents(kept, amount, reserved, incoming, maxCapacity);
+        }
+    }
 }
@@ -1,138 +1,1020 @@
 package com.github.yuu1111.barrelmod.storage;
 
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-import com.google.gson.reflect.TypeToken;
+import com.github.yuu1111.barrelmod.metrics.BarrelMetrics;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
 
-import java.io.*;
-import java.lang.reflect.Type;
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.Stream;
 
 /**
  * バレルデータの永続化を管理するクラス
- * JSON形式でバレルデータをファイルシステムに保存・読み込みする
+ * バレルデータをリージョン単位のファイルに保存・読み込みする
+ * 保存形式は固定長レコードのバイナリ形式 (デフォルト) またはJSON形式から選択できる
+ * mapped形式ではバイナリ形式のファイルをメモリマップで開き、バレルをチャンク単位で必要になった時点で生成する
+ * リージョンはアクセスされた時点で読み込まれ、一定時間使われなければ保存した上でメモリから解放される
+ * 保存時は前回の保存以降に変更されたリージョンのファイルのみを書き換え、fsyncでディスクへの反映を保証する
+ * リージョンファイルは一時ファイルに書き込んでからアトミックに置き換えるため、書き込み中のクラッシュで既存のデータは失われない
+ * 保存間の変更はジャーナルに記録され、クラッシュ後の起動時にリージョンファイルへ再適用される
+ * リージョンファイルの読み書きは仮想スレッド上で並列に実行し、同時実行数はCPU数までに制限する
+ * オーナーごとのバレル数は正常終了時にowners.jsonへ書き出し、起動時に読み込む
+ * 前回の終了が正常でなかった場合は、全リージョンファイルから数え直す
  */
 public class BarrelDataManager {
 
     private static final Logger LOGGER = Logger.getLogger("BarrelMod");
-    private static final String DATA_FILE = "barrels.json";
+    private static final String LEGACY_DATA_FILE = "barrels.json";
+    private static final String MIGRATED_SUFFIX = ".migrated";
+    private static final String REGION_FOLDER = "regions";
+    private static final String MAPPED_FORMAT = "mapped";
+    private static final String REGION_FILE_PREFIX = "r.";
+    private static final String JOURNAL_FOLDER = "journal";
+    private static final String OWNERS_FILE = "owners.json";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final int IO_PARALLELISM = Math.max(1, Runtime.getRuntime().availableProcessors());
 
     private final Path dataFolder;
-    private final Gson gson;
+    private final RegionCodec codec;
+    private final boolean mapped;
+    private final BarrelJournal journal;
+    private final BarrelMetrics metrics;
+    private final BarrelMetrics.Counter regionLoads;
+    private final BarrelMetrics.Counter regionLoadBytes;
+    private final BarrelMetrics.Histogram regionLoadNanos;
+    private final BarrelMetrics.Counter regionWrites;
+    private final BarrelMetrics.Counter regionWriteBytes;
+    private final BarrelMetrics.Histogram saveNanos;
+    private BarrelRegistry registry;
 
     /**
-     * データマネージャーを作成する
+     * バイナリ形式で保存するデータマネージャーを作成する
      *
      * @param dataFolder データ保存先ディレクトリ
      */
     public BarrelDataManager(Path dataFolder) {
+        this(dataFolder, BinaryRegionCodec.FORMAT_NAME);
+    }
+
+    /**
+     * データマネージャーを作成する
+     *
+     * @param dataFolder データ保存先ディレクトリ
+     * @param storageFormat 保存形式 (binary、mapped または json)
+     */
+    public BarrelDataManager(Path dataFolder, String storageFormat) {
+        this(dataFolder, storageFormat, 0);
+    }
+
+    /**
+     * データマネージャーを作成する
+     *
+     * @param dataFolder データ保存先ディレクトリ
+     * @param storageFormat 保存形式 (binary、mapped または json)
+     * @param journalFlushMillis ジャーナルの書き込み間隔 (ミリ秒)、0以下の場合はジャーナルを使用しない
+     */
+    public BarrelDataManager(Path dataFolder, String storageFormat, int journalFlushMillis) {
+        this(dataFolder, storageFormat, journalFlushMillis, new BarrelMetrics());
+    }
+
+    /**
+     * メトリクスを記録するデータマネージャーを作成する
+     *
+     * 保存のたびに、メトリクスをデータフォルダの{@value BarrelMetrics#EXPORT_FILE}に出力する
+     *
+     * @param dataFolder データ保存先ディレクトリ
+     * @param storageFormat 保存形式 (binary、mapped または json)
+     * @param journalFlushMillis ジャーナルの書き込み間隔 (ミリ秒)、0以下の場合はジャーナルを使用しない
+     * @param metrics 読み込み・保存の所要時間とバイト数の記録先
+     */
+    public BarrelDataManager(Path dataFolder, String storageFormat, int journalFlushMillis, BarrelMetrics metrics) {
         this.dataFolder = dataFolder;
-        this.gson = new GsonBuilder()
-                .setPrettyPrinting()
-                .create();
+        this.mapped = MAPPED_FORMAT.equalsIgnoreCase(storageFormat);
+        this.codec = RegionCodec.forFormat(mapped ? BinaryRegionCodec.FORMAT_NAME : storageFormat);
+        this.journal = journalFlushMillis > 0
+                ? new BarrelJournal(dataFolder.resolve(JOURNAL_FOLDER), journalFlushMillis)
+                : null;
+        this.metrics = metrics;
+        this.regionLoads = metrics.counter("barrelmod_region_loads_total", "Region files loaded from storage");
+        this.regionLoadBytes = metrics.counter("barrelmod_region_load_bytes_total", "Bytes of region files loaded");
+        this.regionLoadNanos = metrics.histogram("barrelmod_region_load_nanos",
+                "Region file load duration in nanoseconds");
+        this.regionWrites = metrics.counter("barrelmod_region_writes_total", "Region files written to storage");
+        this.regionWriteBytes = metrics.counter("barrelmod_region_write_bytes_total", "Bytes of region files written");
+        this.saveNanos = metrics.histogram("barrelmod_save_nanos", "Duration of saving changed regions in nanoseconds");
+    }
+
+    /**
+     * ストレージをレジストリに接続する
+     *
+     * 旧形式の単一ファイルや、設定と異なる形式のリージョンファイルが存在する場合は一度だけ変換する
+     * バレルはここでは読み込まれず、リージョンへの初回アクセス時に読み込まれる
+     *
+     * @param registry 接続するレジストリ
+     */
+    public void open(BarrelRegistry registry) {
+        open(registry, false);
     }
 
     /**
-     * ストレージから全てのバレルデータを読み込む
+     * ストレージをレジストリに接続する
      *
-     * @param registry 読み込んだデータを登録するレジストリ
+     * 事前読み込みを有効にした場合、既存の全リージョンファイルを並列に読み込んでからレジストリに登録する
+     * 事前読み込みしたリージョンも、一定時間使われなければ通常通り解放される
+     * 無効の場合は各リージョンファイルのチャンク一覧のみを読み込み、未読み込みのリージョンの存在判定に使う
+     *
+     * @param registry 接続するレジストリ
+     * @param preloadRegions 既存のリージョンを起動時に読み込む場合true
      */
-    public void loadAll(BarrelRegistry registry) {
-        Path dataFile = dataFolder.resolve(DATA_FILE);
+    public synchronized void open(BarrelRegistry registry, boolean preloadRegions) {
+        this.registry = registry;
+        migrateLegacyFile();
+        convertRegionFiles();
+        boolean recovered = replayJournal();
+        loadOwnerCounts(registry, recovered);
+        registry.setRegionLoader(this::loadRegion);
+        if (journal != null) {
+            try {
+                journal.open();
+                registry.setJournal(journal);
+            } catch (IOException e) {
+                LOGGER.log(Level.SEVERE, "Failed to open barrel journal, changes are only saved by autosave", e);
+            }
+        }
+        if (preloadRegions) {
+            preloadRegions(registry);
+        } else {
+            indexStoredChunks(registry);
+        }
+    }
 
-        if (!Files.exists(dataFile)) {
-            LOGGER.info("No barrel data file found, starting fresh.");
+    /**
+     * ジャーナルへの記録を停止し、未書き込みの変更をジャーナルに書き込む
+     *
+     * 呼び出し前に{@link #saveChanges(BarrelRegistry)}で変更を保存しておくこと
+     * 全ての変更が保存されている場合のみ、オーナーごとのバレル数を書き出す
+     */
+    public synchronized void close() {
+        if (journal != null) {
+            journal.close();
+        }
+        if (registry == null) {
             return;
         }
+        if (registry.hasDirtyRegions()) {
+            LOGGER.warning("Unsaved barrel changes remain, owner barrel counts will be rebuilt on next start.");
+        } else {
+            writeOwnerCounts(registry.getOwnerCounts());
+        }
+    }
+
+    /**
+     * リージョンの内容をストレージから読み込む
+     *
+     * @param region リージョン位置
+     * @return リージョンの内容、読み込みに失敗した場合はnull
+     */
+    public RegionContents loadRegion(RegionPos region) {
+        Path regionFile = getRegionFile(region);
+        if (!Files.exists(regionFile)) {
+            return RegionContents.of(List.of());
+        }
+
+        long start = System.nanoTime();
+        try {
+            RegionContents contents;
+            if (mapped) {
+                contents = MappedRegionContents.open(regionFile);
+            } else {
+                List<BarrelRecord> records = codec.read(regionFile);
+                List<BarrelData> barrels = new ArrayList<>(records.size());
+                for (BarrelRecord record : records) {
+                    barrels.add(record.toBarrelData());
+                }
+                contents = RegionContents.of(barrels);
+            }
+            regionLoads.increment();
+            regionLoadBytes.add(Files.size(regionFile));
+            regionLoadNanos.record(System.nanoTime() - start);
+            return contents;
+        } catch (IOException | RuntimeException e) {
+            LOGGER.log(Level.SEVERE, "Failed to load barrel region " + regionFile
+                    + ", region is kept read-only until restart", e);
+            return null;
+        }
+    }
+
+    /**
+     * 前回の保存以降に変更されたリージョンをストレージに保存する
+     *
+     * 変更されたリージョンの状態を複製してから書き込むため、書き込み中もバレルは変更可能
+     *
+     * @param registry 保存対象のバレルを含むレジストリ
+     * @return 書き込んだリージョン数
+     */
+    public synchronized int saveChanges(BarrelRegistry registry) {
+        long start = System.nanoTime();
+        long sealedSegment = rotateJournal();
+        Map<RegionPos, List<BarrelRecord>> snapshot = snapshotChanges(registry);
+        int written = writeSnapshot(registry, snapshot);
+        // 全リージョンの保存に成功した場合のみ、スナップショットに含まれる変更のジャーナルを削除する
+        if (sealedSegment >= 0 && written == snapshot.size()) {
+            journal.deleteSealed(sealedSegment);
+        }
+        saveNanos.record(System.nanoTime() - start);
+        exportMetrics();
+        return written;
+    }
+
+    /**
+     * メトリクスをデータフォルダのファイルに出力する
+     *
+     * @return 出力先のファイル、出力に失敗した場合はnull
+     */
+    public Path exportMetrics() {
+        Path file = dataFolder.resolve(BarrelMetrics.EXPORT_FILE);
+        try {
+            metrics.export(file);
+            return file;
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to export barrel metrics to " + file, e);
+            return null;
+        }
+    }
+
+    /**
+     * @return 閉じたジャーナルセグメントの番号、ジャーナルを使用しない場合や切り替えに失敗した場合は-1
+     */
+    private long rotateJournal() {
+        if (journal == null) {
+            return -1;
+        }
+        try {
+            return journal.rotate();
+        } catch (IOException | RuntimeException e) {
+            LOGGER.log(Level.SEVERE, "Failed to rotate barrel journal", e);
+            return -1;
+        }
+    }
+
+    /**
+     * 前回の保存以降に変更されたリージョンの状態を複製する
+     *
+     * 変更されたリージョンのバレルのみを複製するため、呼び出しコストは変更量に比例する
+     * 複製後に発生した変更は次回のスナップショットに含まれる
+     *
+     * @param registry 対象のレジストリ
+     * @return リージョンごとのバレル状態
+     */
+    private Map<RegionPos, List<BarrelRecord>> snapshotChanges(BarrelRegistry registry) {
+        Map<RegionPos, List<BarrelRecord>> snapshot = new LinkedHashMap<>();
+        for (RegionPos region : registry.drainDirtyRegions()) {
+            snapshot.put(region, snapshotRegion(registry.getRegionBarrels(region)));
+        }
+        return snapshot;
+    }
 
-        try (Reader reader = Files.newBufferedReader(dataFile)) {
-            Type listType = new TypeToken<List<BarrelDataJson>>() {}.getType();
-            List<BarrelDataJson> dataList = gson.fromJson(reader, listType);
+    /**
+     * 複製したリージョンの状態をストレージに書き込む
+     *
+     * 書き込みに失敗したリージョンは再びダーティとしてマークされる
+     *
+     * @param registry 対象のレジストリ
+     * @param snapshot 書き込むスナップショット
+     * @return 書き込んだリージョン数
+     */
+    private int writeSnapshot(BarrelRegistry registry, Map<RegionPos, List<BarrelRecord>> snapshot) {
+        List<Map.Entry<RegionPos, List<BarrelRecord>>> entries = new ArrayList<>(snapshot.entrySet());
+        List<Boolean> written = writeRegions(registry, entries);
+        int regionCount = 0;
+        int barrelCount = 0;
+        for (int i = 0; i < entries.size(); i++) {
+            Map.Entry<RegionPos, List<BarrelRecord>> entry = entries.get(i);
+            if (written.get(i)) {
+                regionCount++;
+                barrelCount += entry.getValue().size();
+            } else {
+                registry.markRegionDirty(entry.getKey());
+            }
+        }
+        if (regionCount > 0) {
+            LOGGER.info("Saved " + barrelCount + " barrels in " + regionCount + " changed regions to storage.");
+        }
+        return regionCount;
+    }
+
+    /**
+     * 一定時間アクセスされていないリージョンを保存し、メモリから解放する
+     *
+     * 変更のないリージョンは書き込みを行わずに解放する
+     *
+     * @param registry 対象のレジストリ
+     * @param idleMillis 解放対象とする未アクセス時間 (ミリ秒)
+     * @return 解放したリージョン数
+     */
+    public synchronized int releaseIdleRegions(BarrelRegistry registry, long idleMillis) {
+        long notTouchedSince = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(idleMillis);
+        return saveAndRelease(registry, registry.getIdleRegions(notTouchedSince), notTouchedSince);
+    }
 
-            if (dataList == null) {
-                return;
+    /**
+     * ワールドの変更を保存し、ワールドのリージョンをメモリから解放する
+     *
+     * 他のワールドのリージョンは保存も解放もしないため、ワールドごとに独立してアンロードできる
+     * 解放処理の開始以降にアクセスされたリージョンは解放しない
+     *
+     * @param registry 対象のレジストリ
+     * @param worldId ワールドID
+     * @return 解放したリージョン数
+     */
+    public synchronized int unloadWorld(BarrelRegistry registry, String worldId) {
+        return saveAndRelease(registry, registry.getLoadedRegions(worldId), System.nanoTime());
+    }
+
+    /**
+     * 変更のあるリージョンを保存してから、リージョンをメモリから解放する
+     *
+     * 保存に失敗したリージョンは再びダーティとしてマークされ、解放されない
+     * このマネージャーのロック保持中に呼び出すこと
+     */
+    private int saveAndRelease(BarrelRegistry registry, List<RegionPos> idle, long notTouchedSince) {
+        Map<RegionPos, List<BarrelRecord>> changed = new LinkedHashMap<>();
+        for (RegionPos region : idle) {
+            if (registry.clearRegionDirty(region)) {
+                changed.put(region, snapshotRegion(registry.getRegionBarrels(region)));
             }
+        }
+        List<Map.Entry<RegionPos, List<BarrelRecord>>> entries = new ArrayList<>(changed.entrySet());
+        List<Boolean> written = writeRegions(registry, entries);
+        for (int i = 0; i < entries.size(); i++) {
+            if (!written.get(i)) {
+                registry.markRegionDirty(entries.get(i).getKey());
+            }
+        }
 
-            for (BarrelDataJson json : dataList) {
-                BarrelData barrel = json.toBarrelData();
-                registry.register(barrel);
+        int released = 0;
+        for (RegionPos region : idle) {
+            if (registry.releaseRegion(region, notTouchedSince)) {
+                released++;
+            }
+        }
+        return released;
+    }
+
+    /**
+     * 全てのバレルを1つのJSONファイルに出力する
+     *
+     * 変更を保存してから全リージョンファイルを読み込み、旧形式 (barrels.json) と同じバレル配列形式で書き込む
+     * 出力したファイルは、別のサーバーのデータフォルダに barrels.json として置くとそのまま移行できる
+     * 保存とリージョンファイルの一覧の取得のみをロック内で行い、読み込みと出力中は保存や解放を妨げない
+     * リージョンファイルはアトミックに置き換えられるため、各リージョンは読み込んだ時点の内容で出力される
+     *
+     * @param registry 対象のレジストリ
+     * @param file 出力先
+     * @param progress リージョンごとの進捗の通知先
+     * @return 出力したバレル数
+     * @throws IOException リージョンファイルの読み込み、または出力に失敗した場合
+     */
+    public int exportJson(BarrelRegistry registry, Path file, ProgressListener progress) throws IOException {
+        List<RegionPos> regions;
+        synchronized (this) {
+            saveChanges(registry);
+            regions = listRegionFiles();
+        }
+        List<BarrelRecord> records = new ArrayList<>();
+        for (int i = 0; i < regions.size(); i++) {
+            try {
+                records.addAll(codec.read(getRegionFile(regions.get(i))));
+            } catch (NoSuchFileException e) {
+                // 一覧の取得後に全てのバレルが削除されたリージョン
             }
+            progress.onProgress(i + 1, regions.size());
+        }
 
-            LOGGER.info("Loaded " + dataList.size() + " barrels from storage.");
+        Files.createDirectories(file.getParent());
+        Path temp = file.resolveSibling(file.getFileName() + TEMP_SUFFIX);
+        try {
+            new JsonRegionCodec().write(temp, records);
+            Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
         } catch (IOException e) {
-            LOGGER.log(Level.SEVERE, "Failed to load barrel data", e);
+            Files.deleteIfExists(temp);
+            throw e;
         }
+        LOGGER.info("Exported " + records.size() + " barrels from " + regions.size() + " regions to " + file);
+        return records.size();
     }
 
     /**
-     * 全てのバレルデータをストレージに保存する
+     * 指定アイテムを格納しているバレルを、未読み込みのリージョンも含めて検索する
      *
-     * @param registry 保存対象のバレルを含むレジストリ
+     * 読み込み済みのリージョンはレジストリのアイテムインデックスで検索し、
+     * それ以外のリージョンファイルは並列に読み込んで、該当するバレルの数量と位置だけを集計する
+     * 読み込んだリージョンはレジストリに登録しないため、検索によって常駐するリージョンは増えない
+     * 未読み込みのリージョンは保存済みのため、ファイルの内容が最新の状態となる
+     * 検索中に読み込み・解放されたリージョンは、重複して数えられるか結果に含まれない場合がある
+     *
+     * @param registry 対象のレジストリ
+     * @param itemId アイテムID
+     * @param limit 返すバレルの最大数
+     * @param progress リージョンファイルごとの進捗の通知先
+     * @return 検索結果
+     * @throws IOException リージョンファイルの一覧を取得できない場合
      */
-    public void saveAll(BarrelRegistry registry) {
+    public BarrelRegistry.ItemSearchResult findByItem(BarrelRegistry registry, String itemId, int limit,
+                                                      ProgressListener progress) throws IOException {
+        List<RegionPos> stored = new ArrayList<>();
+        BarrelRegistry.ItemSearchResult loaded;
+        synchronized (this) {
+            Set<RegionPos> loadedRegions = new HashSet<>(registry.getLoadedRegions());
+            for (RegionPos region : listRegionFiles()) {
+                if (!loadedRegions.contains(region)) {
+                    stored.add(region);
+                }
+            }
+            loaded = registry.findByItem(itemId, limit);
+        }
+
+        AtomicInteger done = new AtomicInteger();
+        List<List<BarrelRecord>> matches = runParallel(stored, region -> {
+            try {
+                List<BarrelRecord> result = new ArrayList<>();
+                for (BarrelRecord record : codec.read(getRegionFile(region))) {
+                    if (itemId.equals(record.storedItemId()) && record.storedAmount() > 0) {
+                        result.add(record);
+                    }
+                }
+                return result;
+            } catch (NoSuchFileException e) {
+                // 一覧の取得後に全てのバレルが削除されたリージョン
+                return List.of();
+            } catch (IOException | RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Failed to search barrel region " + region, e);
+                return List.of();
+            } finally {
+                progress.onProgress(done.incrementAndGet(), stored.size());
+            }
+        });
+
+        long total = loaded.total();
+        int barrelCount = loaded.barrelCount();
+        List<BarrelData> found = new ArrayList<>(loaded.barrels());
+        for (List<BarrelRecord> regionMatches : matches) {
+            for (BarrelRecord record : regionMatches) {
+                total += record.storedAmount();
+                barrelCount++;
+                if (found.size() < limit) {
+                    found.add(record.toBarrelData());
+                }
+            }
+        }
+        return new BarrelRegistry.ItemSearchResult(itemId, total, barrelCount, found);
+    }
+
+    /**
+     * 全てのバレルの不正な状態を修復して保存する
+     *
+     * ストレージ上と読み込み済みの全リージョンについて、各バレルを{@link BarrelData#repair()}で修復する
+     * 修復のために読み込んだリージョンは、保存してすぐに解放するため、メモリ使用量はリージョン数に比例しない
+     * ロックは対象リージョンの一覧の取得時とリージョン1つの修復ごとに取得し、
+     * リージョンの間で他の保存や解放が行えるよう、全体の走査中は保持しない
+     *
+     * @param registry 対象のレジストリ
+     * @param progress リージョンごとの進捗の通知先
+     * @return 修復の結果
+     * @throws IOException リージョンファイルの一覧を取得できない場合
+     */
+    public RepairResult repair(BarrelRegistry registry, ProgressListener progress) throws IOException {
+        Set<RegionPos> loadedBefore;
+        Set<RegionPos> regions;
+        synchronized (this) {
+            loadedBefore = new HashSet<>(registry.getLoadedRegions());
+            regions = new LinkedHashSet<>(listRegionFiles());
+        }
+        regions.addAll(loadedBefore);
+
+        int barrels = 0;
+        int repaired = 0;
+        int done = 0;
+        for (RegionPos region : regions) {
+            // 修復中に解放されると修復した内容が失われるため、リージョン1つの間はロックを保持する
+            synchronized (this) {
+                registry.loadRegion(region);
+                for (BarrelData barrel : registry.getRegionBarrels(region)) {
+                    barrels++;
+                    if (barrel.repair()) {
+                        repaired++;
+                    }
+                }
+                if (!loadedBefore.contains(region)) {
+                    saveAndRelease(registry, List.of(region), System.nanoTime());
+                }
+            }
+            progress.onProgress(++done, regions.size());
+        }
+        if (repaired > 0) {
+            saveChanges(registry);
+        }
+        LOGGER.info("Repaired " + repaired + " of " + barrels + " barrels in " + regions.size() + " regions.");
+        return new RepairResult(regions.size(), barrels, repaired);
+    }
+
+    private static List<BarrelRecord> snapshotRegion(List<BarrelData> barrels) {
+        List<BarrelRecord> records = new ArrayList<>(barrels.size());
+        for (BarrelData barrel : barrels) {
+            barrel.clearDirty();
+            records.add(barrel.snapshot());
+        }
+        return records;
+    }
+
+    /**
+     * 複製したリージョンを並列に書き込む
+     *
+     * 書き込みの待機自体が失敗した場合は、成否の分からない全リージョンを再びダーティとしてマークしてから例外を投げる
+     * ダーティでなくなったリージョンの変更を含むジャーナルセグメントが、未保存のまま削除されるのを防ぐ
+     *
+     * @return リージョンごとの書き込み結果
+     */
+    private List<Boolean> writeRegions(BarrelRegistry registry, List<Map.Entry<RegionPos, List<BarrelRecord>>> entries) {
         try {
-            Files.createDirectories(dataFolder);
+            return runParallel(entries, entry -> writeRegion(entry.getKey(), entry.getValue()));
+        } catch (RuntimeException e) {
+            for (Map.Entry<RegionPos, List<BarrelRecord>> entry : entries) {
+                registry.markRegionDirty(entry.getKey());
+            }
+            throw e;
+        }
+    }
+
+    private boolean writeRegion(RegionPos region, List<BarrelRecord> records) {
+        Path regionFile = getRegionFile(region);
+        try {
+            if (records.isEmpty()) {
+                Files.deleteIfExists(regionFile);
+                return true;
+            }
+
+            Files.createDirectories(regionFile.getParent());
+            writeAtomically(regionFile, records);
+            return true;
+        } catch (IOException | RuntimeException e) {
+            LOGGER.log(Level.SEVERE, "Failed to save barrel region " + regionFile, e);
+            return false;
+        }
+    }
+
+    /**
+     * 旧形式の単一ファイル (barrels.json) をリージョンファイルへ分割する
+     * 移行後の旧ファイルは名前を変えて残す
+     */
+    private void migrateLegacyFile() {
+        Path legacyFile = dataFolder.resolve(LEGACY_DATA_FILE);
+        if (!Files.exists(legacyFile)) {
+            return;
+        }
+
+        try {
+            Map<RegionPos, List<BarrelRecord>> byRegion = new HashMap<>();
+            new JsonRegionCodec().forEach(legacyFile, record -> byRegion.computeIfAbsent(
+                    RegionPos.ofBlock(record.worldId(), record.posX(), record.posZ()),
+                    key -> new ArrayList<>()).add(record));
+            List<Map.Entry<RegionPos, List<BarrelRecord>>> entries = new ArrayList<>(byRegion.entrySet());
+            if (runParallel(entries, entry -> writeRegion(entry.getKey(), entry.getValue())).contains(false)) {
+                throw new IOException("Some region files could not be written");
+            }
+            Files.move(legacyFile, legacyFile.resolveSibling(LEGACY_DATA_FILE + MIGRATED_SUFFIX),
+                    StandardCopyOption.REPLACE_EXISTING);
+            LOGGER.info("Migrated " + LEGACY_DATA_FILE + " into " + byRegion.size() + " region files.");
+        } catch (IOException | RuntimeException e) {
+            LOGGER.log(Level.SEVERE, "Failed to migrate legacy barrel data", e);
+        }
+    }
+
+    /**
+     * 設定と異なる形式で保存されたリージョンファイルを現在の形式に変換する
+     * 変換に成功したファイルのみ削除する
+     */
+    private void convertRegionFiles() {
+        Path regionFolder = dataFolder.resolve(REGION_FOLDER);
+        if (!Files.isDirectory(regionFolder)) {
+            return;
+        }
+
+        RegionCodec other = codec instanceof BinaryRegionCodec
+                ? new JsonRegionCodec()
+                : new BinaryRegionCodec();
+        List<Path> sources;
+        try (Stream<Path> files = Files.walk(regionFolder, 2)) {
+            sources = files.filter(file -> file.getFileName().toString().endsWith(other.fileExtension())).toList();
         } catch (IOException e) {
-            LOGGER.log(Level.SEVERE, "Failed to create data folder", e);
+            LOGGER.log(Level.SEVERE, "Failed to scan barrel region files", e);
             return;
         }
 
-        Path dataFile = dataFolder.resolve(DATA_FILE);
-        List<BarrelDataJson> dataList = new ArrayList<>();
+        List<Boolean> results = runParallel(sources, source -> {
+            String name = source.getFileName().toString();
+            Path target = source.resolveSibling(
+                    name.substring(0, name.length() - other.fileExtension().length()) + codec.fileExtension());
+            try {
+                List<BarrelRecord> records = other.read(source);
+                if (!records.isEmpty()) {
+                    writeAtomically(target, records);
+                }
+                Files.delete(source);
+                return true;
+            } catch (IOException | RuntimeException e) {
+                LOGGER.log(Level.SEVERE, "Failed to convert barrel region file " + source, e);
+                return false;
+            }
+        });
+        long converted = results.stream().filter(Boolean::booleanValue).count();
+        if (converted > 0) {
+            LOGGER.info("Converted " + converted + " region files to " + codec.formatName() + " format.");
+        }
+    }
+
+    /**
+     * 一時ファイルに書き込んでfsyncした後、対象ファイルをアトミックに置き換える
+     *
+     * @param file 書き込み先
+     * @param records 書き込むバレル状態
+     * @throws IOException 書き込みに失敗した場合、既存のファイルは変更されない
+     */
+    private void writeAtomically(Path file, List<BarrelRecord> records) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + TEMP_SUFFIX);
+        long bytes;
+        try {
+            codec.write(temp, records);
+            bytes = Files.size(temp);
+            Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        syncDirectory(file.getParent());
+        regionWrites.increment();
+        regionWriteBytes.add(bytes);
+    }
+
+    /**
+     * ファイル名の変更をディスクに反映する
+     * ディレクトリのfsyncに対応していないプラットフォームでは何もしない
+     */
+    private static void syncDirectory(Path directory) {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Directory fsync is not supported for " + directory, e);
+        }
+    }
+
+    /**
+     * 前回終了時に保存されなかったジャーナルの変更をリージョンファイルに再適用する
+     *
+     * エントリは変更後の状態全体を保持するため、既に保存済みの変更を再適用しても結果は変わらない
+     * 全てのリージョンへの適用に成功した場合のみジャーナルを削除する
+     *
+     * @return 再適用する変更が存在した場合、またはジャーナルを読み込めなかった場合true
+     */
+    private boolean replayJournal() {
+        Path journalFolder = dataFolder.resolve(JOURNAL_FOLDER);
+        try {
+            List<BarrelJournal.Entry> entries = BarrelJournal.readAll(journalFolder);
+            if (entries.isEmpty()) {
+                BarrelJournal.deleteAll(journalFolder);
+                return false;
+            }
+
+            Map<RegionPos, Map<UUID, BarrelJournal.Entry>> byRegion = new LinkedHashMap<>();
+            for (BarrelJournal.Entry entry : entries) {
+                BarrelRecord record = entry.record();
+                byRegion.computeIfAbsent(RegionPos.ofBlock(record.worldId(), record.posX(), record.posZ()),
+                        key -> new LinkedHashMap<>()).put(record.id(), entry);
+            }
+
+            List<Map.Entry<RegionPos, Map<UUID, BarrelJournal.Entry>>> regions = new ArrayList<>(byRegion.entrySet());
+            List<Boolean> applied = runParallel(regions,
+                    region -> applyJournal(region.getKey(), region.getValue().values()));
+            if (applied.contains(false)) {
+                LOGGER.severe("Barrel journal could not be fully replayed and is kept for the next start.");
+                return true;
+            }
+            BarrelJournal.deleteAll(journalFolder);
+            LOGGER.info("Replayed " + entries.size() + " journal entries into " + regions.size() + " barrel regions.");
+        } catch (IOException | RuntimeException e) {
+            LOGGER.log(Level.SEVERE, "Failed to replay barrel journal", e);
+        }
+        return true;
+    }
+
+    /**
+     * オーナーごとのバレル数をレジストリに設定する
+     *
+     * 前回の正常終了時に書き出したファイルがあればそれを使い、読み込み後に削除する
+     * ファイルがない場合やクラッシュからの復旧時は、全リージョンファイルから数え直す
+     * ファイルを削除しておくことで、次回の終了が正常でなかった場合に古い値を使わない
+     */
+    private void loadOwnerCounts(BarrelRegistry registry, boolean recovered) {
+        Path ownersFile = dataFolder.resolve(OWNERS_FILE);
+        Map<UUID, Integer> counts = null;
+        try {
+            if (!recovered && Files.exists(ownersFile)) {
+                counts = readOwnerCounts(ownersFile);
+            }
+            Files.deleteIfExists(ownersFile);
+        } catch (IOException | RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Failed to read " + ownersFile + ", rebuilding owner barrel counts", e);
+        }
+        if (counts == null) {
+            counts = countOwners();
+        }
+        registry.setOwnerCounts(counts);
+    }
+
+    /**
+     * 全リージョンファイルを並列に読み込み、オーナーごとのバレル数を数える
+     *
+     * 読み込めないリージョンのバレルは数に含まれない
+     */
+    private Map<UUID, Integer> countOwners() {
+        List<RegionPos> regions;
+        try {
+            regions = listRegionFiles();
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Failed to scan barrel region files for owner counts", e);
+            return Map.of();
+        }
+
+        List<List<UUID>> owners = runParallel(regions, region -> {
+            try {
+                List<UUID> result = new ArrayList<>();
+                for (BarrelRecord record : codec.read(getRegionFile(region))) {
+                    if (record.ownerUuid() != null) {
+                        result.add(record.ownerUuid());
+                    }
+                }
+                return result;
+            } catch (IOException | RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Failed to count barrel owners in " + region, e);
+                return List.of();
+            }
+        });
+        Map<UUID, Integer> counts = new HashMap<>();
+        for (List<UUID> regionOwners : owners) {
+            for (UUID owner : regionOwners) {
+                counts.merge(owner, 1, Integer::sum);
+            }
+        }
+        LOGGER.info("Counted barrels of " + counts.size() + " owners in " + regions.size() + " regions.");
+        return counts;
+    }
+
+    private static Map<UUID, Integer> readOwnerCounts(Path file) throws IOException {
+        Map<UUID, Integer> counts = new HashMap<>();
+        try (JsonReader reader = new JsonReader(Files.newBufferedReader(file, StandardCharsets.UTF_8))) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                counts.put(UUID.fromString(reader.nextName()), reader.nextInt());
+            }
+            reader.endObject();
+        }
+        return counts;
+    }
 
-        for (BarrelData barrel : registry.getAllBarrels()) {
-            dataList.add(BarrelDataJson.fromBarrelData(barrel));
+    private void writeOwnerCounts(Map<UUID, Integer> counts) {
+        Path file = dataFolder.resolve(OWNERS_FILE);
+        Path temp = file.resolveSibling(file.getFileName() + TEMP_SUFFIX);
+        try {
+            Files.createDirectories(dataFolder);
+            try (JsonWriter writer = new JsonWriter(Files.newBufferedWriter(temp, StandardCharsets.UTF_8))) {
+                writer.beginObject();
+                for (Map.Entry<UUID, Integer> entry : counts.entrySet()) {
+                    writer.name(entry.getKey().toString()).value(entry.getValue());
+                }
+                writer.endObject();
+            }
+            Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            // ファイルがなければ次回起動時に数え直す
+            LOGGER.log(Level.WARNING, "Failed to write owner barrel counts to " + file, e);
         }
+    }
 
-        try (Writer writer = Files.newBufferedWriter(dataFile)) {
-            gson.toJson(dataList, writer);
-            LOGGER.info("Saved " + dataList.size() + " barrels to storage.");
+    private boolean applyJournal(RegionPos region, Collection<BarrelJournal.Entry> entries) {
+        Path regionFile = getRegionFile(region);
+        try {
+            List<BarrelRecord> records = Files.exists(regionFile)
+                    ? new ArrayList<>(codec.read(regionFile))
+                    : new ArrayList<>();
+            for (BarrelJournal.Entry entry : entries) {
+                BarrelRecord changed = entry.record();
+                records.removeIf(record -> record.id().equals(changed.id())
+                        || (!entry.removed() && record.posX() == changed.posX()
+                        && record.posY() == changed.posY() && record.posZ() == changed.posZ()));
+                if (!entry.removed()) {
+                    records.add(changed);
+                }
+            }
+            return writeRegion(region, records);
+        } catch (IOException | RuntimeException e) {
+            LOGGER.log(Level.SEVERE, "Failed to replay barrel journal into " + regionFile, e);
+            return false;
+        }
+    }
+
+    /**
+     * 既存の全リージョンファイルを並列に読み込み、レジストリにまとめて登録する
+     */
+    private void preloadRegions(BarrelRegistry registry) {
+        List<RegionPos> regions;
+        try {
+            regions = listRegionFiles();
         } catch (IOException e) {
-            LOGGER.log(Level.SEVERE, "Failed to save barrel data", e);
-        }
-    }
-
-    /**
-     * JSON永続化用の内部データ形式
-     **/
-    private static class BarrelDataJson {
-        String id;
-        int posX;
-        int posY;
-        int posZ;
-        String worldId;
-        String storedItemId;
-        int storedAmount;
-        int maxCapacity;
-        boolean locked;
-        String ownerUuid;
-
-        static BarrelDataJson fromBarrelData(BarrelData barrel) {
-            BarrelDataJson json = new BarrelDataJson();
-            json.id = barrel.getId().toString();
-            json.posX = barrel.getPosX();
-            json.posY = barrel.getPosY();
-            json.posZ = barrel.getPosZ();
-            json.worldId = barrel.getWorldId();
-            json.storedItemId = barrel.getStoredItemId();
-            json.storedAmount = barrel.getStoredAmount();
-            json.maxCapacity = barrel.getMaxCapacity();
-            json.locked = barrel.isLocked();
-            json.ownerUuid = barrel.getOwnerUuid() != null ? barrel.getOwnerUuid().toString() : null;
-            return json;
-        }
-
-        BarrelData toBarrelData() {
-            UUID barrelId = UUID.fromString(id);
-            UUID owner = ownerUuid != null ? UUID.fromString(ownerUuid) : null;
-            return new BarrelData(barrelId, posX, posY, posZ, worldId, storedItemId,
-                    storedAmount, maxCapacity, locked, owner);
+            LOGGER.log(Level.SEVERE, "Failed to scan barrel region files", e);
+            return;
+        }
+        if (regions.isEmpty()) {
+            return;
+        }
+
+        List<RegionContents> contents = runParallel(regions, this::loadRegion);
+        Map<RegionPos, RegionContents> loaded = new HashMap<>();
+        for (int i = 0; i < regions.size(); i++) {
+            // 読み込みに失敗したリージョンは初回アクセス時に再度読み込みを試みる
+            if (contents.get(i) != null) {
+                loaded.put(regions.get(i), contents.get(i));
+            }
+        }
+        int installed = registry.preloadRegions(loaded);
+        LOGGER.info("Preloaded " + installed + " barrel regions.");
+    }
+
+    /**
+     * 既存の全リージョンファイルからバレルを含むチャンクの一覧を並列に読み込み、レジストリに設定する
+     *
+     * バイナリ形式ではヘッダーのチャンクディレクトリのみ、JSON形式では各レコードの座標のみを読み、バレルは復元しない
+     * 読み込めなかったリージョンは全てのチャンクにバレルがある可能性があるものとして設定する
+     */
+    private void indexStoredChunks(BarrelRegistry registry) {
+        List<RegionPos> regions;
+        try {
+            regions = listRegionFiles();
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Failed to scan barrel region files, lookups will load regions on demand", e);
+            return;
+        }
+
+        List<long[]> chunkKeys = runParallel(regions, region -> {
+            try {
+                return codec.readChunkKeys(getRegionFile(region));
+            } catch (IOException | RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Failed to index barrel chunks in " + region, e);
+                return null;
+            }
+        });
+        Map<RegionPos, long[]> stored = new HashMap<>();
+        for (int i = 0; i < regions.size(); i++) {
+            stored.put(regions.get(i), chunkKeys.get(i));
+        }
+        registry.setStoredChunks(stored);
+        LOGGER.info("Indexed barrel chunks of " + regions.size() + " regions.");
+    }
+
+    /**
+     * @return 現在の形式で保存されている全リージョンファイルのリージョン位置
+     * @throws IOException リージョンフォルダを走査できない場合
+     */
+    private List<RegionPos> listRegionFiles() throws IOException {
+        Path regionFolder = dataFolder.resolve(REGION_FOLDER);
+        if (!Files.isDirectory(regionFolder)) {
+            return List.of();
+        }
+        try (Stream<Path> files = Files.walk(regionFolder, 2)) {
+            return files.map(this::parseRegionFile).filter(Objects::nonNull).toList();
+        }
+    }
+
+    /**
+     * リージョンファイルのパスからリージョン位置を求める
+     *
+     * @param file regions/&lt;ワールド&gt;/r.&lt;x&gt;.&lt;z&gt;&lt;拡張子&gt; 形式のパス
+     * @return リージョン位置、リージョンファイルでない場合はnull
+     */
+    private RegionPos parseRegionFile(Path file) {
+        String name = file.getFileName().toString();
+        if (file.getNameCount() < 2 || !name.startsWith(REGION_FILE_PREFIX) || !name.endsWith(codec.fileExtension())) {
+            return null;
         }
+        String[] coords = name.substring(REGION_FILE_PREFIX.length(), name.length() - codec.fileExtension().length())
+                .split("\\.");
+        if (coords.length != 2) {
+            return null;
+        }
+        try {
+            String worldId = URLDecoder.decode(file.getParent().getFileName().toString(), StandardCharsets.UTF_8);
+            return new RegionPos(worldId, Integer.parseInt(coords[0]), Integer.parseInt(coords[1]));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 各要素に対する処理を仮想スレッド上で並列に実行する
+     *
+     * 同時実行数は{@link #IO_PARALLELISM}までに制限される
+     *
+     * @param items 処理対象
+     * @param task 処理内容
+     * @return 処理対象と同じ順序の結果
+     */
+    private static <T, R> List<R> runParallel(List<T> items, Function<T, R> task) {
+        if (items.size() <= 1) {
+            return items.stream().map(task).toList();
+        }
+
+        Semaphore permits = new Semaphore(IO_PARALLELISM);
+        List<Future<R>> futures = new ArrayList<>(items.size());
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (T item : items) {
+                futures.add(executor.submit(() -> {
+                    permits.acquire();
+                    try {
+                        return task.apply(item);
+                    } finally {
+                        permits.release();
+                    }
+                }));
+            }
+        }
+
+        List<R> results = new ArrayList<>(futures.size());
+        for (Future<R> future : futures) {
+            try {
+                results.add(future.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for barrel storage I/O", e);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Barrel storage I/O task failed", e.getCause());
+            }
+        }
+        return results;
+    }
+
+    private Path getRegionFile(RegionPos region) {
+        String worldFolder = URLEncoder.encode(region.worldId(), StandardCharsets.UTF_8);
+        return dataFolder.resolve(REGION_FOLDER).resolve(worldFolder)
+                .resolve("r." + region.regionX() + "." + region.regionZ() + codec.fileExtension());
+    }
+
+    /**
+     * 全件を処理する操作の進捗を受け取るリスナー
+     */
+    @FunctionalInterface
+    public interface ProgressListener {
+        /**
+         * @param done 処理済みの数
+         * @param total 全体の数
+         */
+        void onProgress(int done, int total);
+    }
+
+    /**
+     * 修復の結果
+     *
+     * @param regions 走査したリージョン数
+     * @param barrels 走査したバレル数
+     * @param repaired 修復したバレル数
+     */
+    public record RepairResult(int regions, int barrels, int repaired) {
     }
 }
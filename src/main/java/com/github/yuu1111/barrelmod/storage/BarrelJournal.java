@@ -0,0 +1,413 @@
+package com.github.yuu1111.barrelmod.storage;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * バレル変更の先行書き込みジャーナル
+ *
+ * 変更されたバレルの状態と削除をセグメントファイルに追記し、起動時に再適用する
+ * 各エントリは変更後のバレル状態全体を保持するため、何度再適用しても同じ結果になる
+ * 変更は一定間隔 (ティック) ごとにまとめて書き込み、fsyncは1回にまとめる
+ * 同じ間隔内に同じバレルが複数回変更された場合は最新の状態のみを書き込む
+ *
+ * セグメントはリージョン保存の直前に切り替えられ、保存の完了後に古いセグメントが削除される
+ *
+ * エントリ構造: int長さ + int CRC32 + 本体 (操作種別 + バレル状態)
+ * 書き込み途中でクラッシュした末尾のエントリはCRCの不一致として読み飛ばされる
+ */
+public class BarrelJournal {
+
+    private static final Logger LOGGER = Logger.getLogger("BarrelMod");
+    private static final String SEGMENT_PREFIX = "journal.";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final byte OP_PUT = 1;
+    private static final byte OP_REMOVE = 2;
+    private static final int MAX_ENTRY_SIZE = 1 << 20;
+
+    private final Path folder;
+    private final long flushMillis;
+    private final Object ioLock = new Object();
+    private Map<UUID, Pending> pending = new LinkedHashMap<>();
+
+    private ScheduledExecutorService flusher;
+    private FileChannel channel;
+    private long segment;
+    private long firstOwnedSegment;
+    private int segmentEntries;
+
+    /**
+     * ジャーナルを作成する
+     *
+     * @param folder セグメントファイルの保存先ディレクトリ
+     * @param flushMillis 書き込みをまとめる間隔 (ミリ秒)
+     */
+    public BarrelJournal(Path folder, long flushMillis) {
+        this.folder = folder;
+        this.flushMillis = flushMillis;
+    }
+
+    /**
+     * 新しいセグメントを作成し、定期的な書き込みを開始する
+     *
+     * 既存のセグメントは削除せず、それより後の番号から書き込む
+     *
+     * @throws IOException セグメントの作成に失敗した場合
+     */
+    public void open() throws IOException {
+        Files.createDirectories(folder);
+        List<Path> existing = listSegments(folder);
+        long next = existing.isEmpty() ? 0 : segmentNumber(existing.get(existing.size() - 1)) + 1;
+        synchronized (ioLock) {
+            firstOwnedSegment = next;
+            openSegment(next);
+        }
+        flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "BarrelMod-Journal");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flushQuietly, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * バレルの変更を記録する
+     *
+     * 状態は次回の書き込み時点のものが記録される
+     *
+     * @param barrel 変更されたバレル
+     */
+    public void recordPut(BarrelData barrel) {
+        synchronized (this) {
+            pending.put(barrel.getId(), new Pending(OP_PUT, barrel, null));
+        }
+    }
+
+    /**
+     * バレルの削除を記録する
+     *
+     * @param barrel 削除されたバレル
+     */
+    public void recordRemove(BarrelData barrel) {
+        BarrelRecord record = barrel.snapshot();
+        synchronized (this) {
+            pending.put(barrel.getId(), new Pending(OP_REMOVE, null, record));
+        }
+    }
+
+    /**
+     * 記録済みの変更を現在のセグメントに書き込み、fsyncする
+     *
+     * @throws IOException 書き込みに失敗した場合
+     */
+    public void flush() throws IOException {
+        synchronized (ioLock) {
+            Map<UUID, Pending> batch;
+            synchronized (this) {
+                if (pending.isEmpty() || channel == null) {
+                    return;
+                }
+                batch = pending;
+                pending = new LinkedHashMap<>();
+            }
+
+            long start = channel.position();
+            try {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                DataOutputStream out = new DataOutputStream(bytes);
+                for (Pending entry : batch.values()) {
+                    BarrelRecord record = entry.op == OP_PUT ? entry.barrel.snapshot() : entry.record;
+                    writeEntry(out, entry.op, record);
+                }
+                out.flush();
+
+                ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(false);
+                segmentEntries += batch.size();
+            } catch (IOException e) {
+                // 書きかけのエントリを取り除き、次回の書き込みで再試行する
+                try {
+                    channel.truncate(start);
+                } catch (IOException suppressed) {
+                    e.addSuppressed(suppressed);
+                }
+                synchronized (this) {
+                    batch.putAll(pending);
+                    pending = batch;
+                }
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * 現在のセグメントを閉じ、新しいセグメントに切り替える
+     *
+     * 切り替え前の変更は全て閉じたセグメントに書き込まれる
+     * 返されたセグメント番号以前の変更は、この後に取得したスナップショットに全て含まれる
+     *
+     * @return 閉じたセグメントの番号
+     * @throws IOException 書き込みまたは切り替えに失敗した場合
+     */
+    public long rotate() throws IOException {
+        synchronized (ioLock) {
+            flush();
+            long sealed = segment;
+            channel.close();
+            openSegment(sealed + 1);
+            return sealed;
+        }
+    }
+
+    /**
+     * 保存済みとなったセグメントを削除する
+     *
+     * このジャーナルが作成したセグメントのみが対象となる
+     *
+     * @param upTo 削除するセグメント番号の上限 (この番号を含む)
+     */
+    public void deleteSealed(long upTo) {
+        for (long number = firstOwnedSegment; number <= upTo; number++) {
+            try {
+                Files.deleteIfExists(segmentFile(folder, number));
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to delete barrel journal segment " + number, e);
+            }
+        }
+        synchronized (ioLock) {
+            firstOwnedSegment = Math.max(firstOwnedSegment, upTo + 1);
+        }
+    }
+
+    /**
+     * 定期的な書き込みを停止し、残りの変更を書き込んでからセグメントを閉じる
+     *
+     * 現在のセグメントにエントリがない場合は削除する
+     */
+    public void close() {
+        if (flusher != null) {
+            flusher.shutdown();
+            try {
+                flusher.awaitTermination(flushMillis * 10, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (ioLock) {
+            if (channel == null) {
+                return;
+            }
+            try {
+                flush();
+                channel.close();
+                if (segmentEntries == 0) {
+                    Files.deleteIfExists(segmentFile(folder, segment));
+                }
+            } catch (IOException e) {
+                LOGGER.log(Level.SEVERE, "Failed to close barrel journal", e);
+            }
+            channel = null;
+        }
+    }
+
+    /**
+     * ディレクトリ内の全セグメントを番号順に読み込む
+     *
+     * 各セグメントの末尾にある破損したエントリ以降は読み飛ばす
+     *
+     * @param folder セグメントファイルのディレクトリ
+     * @return 記録順のエントリ
+     * @throws IOException 読み込みに失敗した場合
+     */
+    static List<Entry> readAll(Path folder) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        for (Path file : listSegments(folder)) {
+            try (DataInputStream in = new DataInputStream(Files.newInputStream(file))) {
+                while (true) {
+                    Entry entry = readEntry(in);
+                    if (entry == null) {
+                        break;
+                    }
+                    entries.add(entry);
+                }
+            } catch (EOFException e) {
+                LOGGER.warning("Ignoring torn tail of barrel journal segment " + file);
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * ディレクトリ内の全セグメントを削除する
+     *
+     * @param folder セグメントファイルのディレクトリ
+     * @throws IOException 削除に失敗した場合
+     */
+    static void deleteAll(Path folder) throws IOException {
+        for (Path file : listSegments(folder)) {
+            Files.delete(file);
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (IOException | RuntimeException e) {
+            LOGGER.log(Level.SEVERE, "Failed to write barrel journal", e);
+        }
+    }
+
+    /**
+     * ioLock保持中に呼び出すこと
+     */
+    private void openSegment(long number) throws IOException {
+        channel = FileChannel.open(segmentFile(folder, number),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        segment = number;
+        segmentEntries = 0;
+    }
+
+    private static void writeEntry(DataOutputStream out, byte op, BarrelRecord record) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(96);
+        DataOutputStream body = new DataOutputStream(bytes);
+        body.writeByte(op);
+        body.writeLong(record.id().getMostSignificantBits());
+        body.writeLong(record.id().getLeastSignificantBits());
+        body.writeUTF(record.worldId());
+        body.writeInt(record.posX());
+        body.writeInt(record.posY());
+        body.writeInt(record.posZ());
+        body.writeBoolean(record.storedItemId() != null);
+        if (record.storedItemId() != null) {
+            body.writeUTF(record.storedItemId());
+        }
+        body.writeInt(record.storedAmount());
+        body.writeInt(record.maxCapacity());
+        body.writeBoolean(record.locked());
+        body.writeBoolean(record.ownerUuid() != null);
+        if (record.ownerUuid() != null) {
+            body.writeLong(record.ownerUuid().getMostSignificantBits());
+            body.writeLong(record.ownerUuid().getLeastSignificantBits());
+        }
+        body.flush();
+
+        byte[] payload = bytes.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        out.writeInt(payload.length);
+        out.writeInt((int) crc.getValue());
+        out.write(payload);
+    }
+
+    /**
+     * @return エントリ、セグメントの終端または破損したエントリに達した場合はnull
+     */
+    private static Entry readEntry(DataInputStream in) throws IOException {
+        int length;
+        try {
+            length = in.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        int expectedCrc = in.readInt();
+        if (length <= 0 || length > MAX_ENTRY_SIZE) {
+            return null;
+        }
+        byte[] payload = in.readNBytes(length);
+        if (payload.length != length) {
+            return null;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        if ((int) crc.getValue() != expectedCrc) {
+            return null;
+        }
+
+        DataInputStream body = new DataInputStream(new ByteArrayInputStream(payload));
+        byte op = body.readByte();
+        UUID id = new UUID(body.readLong(), body.readLong());
+        String worldId = body.readUTF();
+        int posX = body.readInt();
+        int posY = body.readInt();
+        int posZ = body.readInt();
+        String storedItemId = body.readBoolean() ? body.readUTF() : null;
+        int storedAmount = body.readInt();
+        int maxCapacity = body.readInt();
+        boolean locked = body.readBoolean();
+        UUID owner = body.readBoolean() ? new UUID(body.readLong(), body.readLong()) : null;
+        return new Entry(op == OP_REMOVE, new BarrelRecord(id, posX, posY, posZ, worldId,
+                storedItemId, storedAmount, maxCapacity, locked, owner));
+    }
+
+    private static List<Path> listSegments(Path folder) throws IOException {
+        if (!Files.isDirectory(folder)) {
+            return List.of();
+        }
+        try (Stream<Path> files = Files.list(folder)) {
+            return files.filter(BarrelJournal::isSegment)
+                    .sorted((a, b) -> Long.compare(segmentNumber(a), segmentNumber(b)))
+                    .toList();
+        }
+    }
+
+    private static boolean isSegment(Path file) {
+        String name = file.getFileName().toString();
+        if (!name.startsWith(SEGMENT_PREFIX) || !name.endsWith(SEGMENT_SUFFIX)) {
+            return false;
+        }
+        try {
+            segmentNumber(file);
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private static long segmentNumber(Path file) {
+        String name = file.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    private static Path segmentFile(Path folder, long number) {
+        return folder.resolve(SEGMENT_PREFIX + number + SEGMENT_SUFFIX);
+    }
+
+    /**
+     * ジャーナルから読み込んだエントリ
+     *
+     * @param removed 削除の場合true
+     * @param record 変更後のバレル状態、削除の場合は削除時点の状態
+     */
+    record Entry(boolean removed, BarrelRecord record) {
+    }
+
+    /**
+     * 書き込み待ちの操作
+     */
+    private record Pending(byte op, BarrelData barrel, BarrelRecord record) {
+    }
+}
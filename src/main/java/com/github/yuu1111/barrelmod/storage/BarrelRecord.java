@@ -0,0 +1,33 @@
+package com.github.yuu1111.barrelmod.storage;
+
+import java.util.UUID;
+
+/**
+ * 保存用に複製したバレル状態の不変スナップショット
+ *
+ * 書き込みスレッドはこのレコードのみを参照するため、保存中もバレルは変更可能
+ *
+ * @param id バレルID
+ * @param posX X座標
+ * @param posY Y座標
+ * @param posZ Z座標
+ * @param worldId ワールドID
+ * @param storedItemId 格納アイテムID、空の場合はnull
+ * @param storedAmount 格納数量
+ * @param maxCapacity 最大容量
+ * @param locked ロック状態
+ * @param ownerUuid オーナーUUID、未設定の場合はnull
+ */
+public record BarrelRecord(UUID id, int posX, int posY, int posZ, String worldId, String storedItemId,
+                           int storedAmount, int maxCapacity, boolean locked, UUID ownerUuid) {
+
+    /**
+     * レコードからバレルを復元する
+     *
+     * @return バレルデータ
+     */
+    public BarrelData toBarrelData() {
+        return new BarrelData(id, posX, posY, posZ, worldId, storedItemId,
+                storedAmount, maxCapacity, locked, ownerUuid);
+    }
+}
@@ -1,30 +1,146 @@
 package com.github.yuu1111.barrelmod.storage;
 
+import com.github.yuu1111.barrelmod.metrics.BarrelMetrics;
+
 import com.hypixel.hytale.math.vector.Vector3i;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.StampedLock;
+import java.util.logging.Logger;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
 
 /**
  * バレルのインメモリレジストリ
  *
  * IDおよび座標によるバレルの高速検索を提供する
+ * 座標インデックスはワールドハンドルごとのプリミティブlongマップで、検索時に文字列キーを生成しない
+ * インデックスとロックはワールドごとに独立しており、あるワールドへの検索や変更は他のワールドと競合しない
+ * バレルはワールド・チャンク単位で分割して保持され、リージョン単位でストレージから読み込み・解放される
+ * リージョンは検索・登録で初めてアクセスされた時点で読み込まれ、一定時間アクセスがなければ解放される
+ * ワールドのスレッドからは{@link #prepareRegion}でバックグラウンドの読み込みを要求し、ティック中にI/Oを待たない
+ * ストレージにバレルがないことが分かっているリージョンは、I/Oなしで空のリージョンとして作成する
+ * 読み込んだリージョンのバレルは、チャンクに初めてアクセスした時点でチャンク単位に生成される
+ * バレルの追加・削除・変更があったリージョンはダーティとして記録され、保存時に変更分のみが書き出される
+ * チャンクごとにバレルが存在する列 (X,Z) のビットセットを保持し、バレルでないブロックの判定をマップ検索なしで行える
+ * 未読み込みのリージョンについても、ストレージ上でバレルを含むチャンクのビットマップを保持し、リージョンを読み込まずに判定できる
+ * ジャーナルが設定されている場合、バレルの追加・削除・変更はジャーナルにも記録される
+ * 格納アイテムごとのバレルと合計数量を二次インデックスで保持し、アイテムによる検索を全件走査なしで行える
+ * 範囲検索はチャンクをグリッドのバケットとして使い、範囲と重なるチャンクのみを参照する
+ * オーナーごとの所有数は未読み込みのリージョンを含めて保持し、設置数の上限判定を全件走査なしで行える
  * スレッドセーフな実装で、マルチスレッド環境でも安全に使用可能
  */
 public class BarrelRegistry {
 
+    private static final Logger LOGGER = Logger.getLogger("BarrelMod");
+    private static final int LOOKUP_SAMPLE_RATE = 32;
+    private static final int REGION_CHUNK_MASK = (1 << PositionKey.REGION_SHIFT) - 1;
+    private static final Executor REGION_LOADER = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("BarrelMod-RegionLoader-", 0).factory());
+    private static final CompletableFuture<Void> READY = CompletableFuture.completedFuture(null);
+
     private final Map<UUID, BarrelData> barrelsById;
-    private final Map<String, BarrelData> barrelsByLocation;
+    private final IdTable worldIds;
+    private final ItemIndex itemIndex = new ItemIndex();
+    private final OwnerIndex ownerIndex = new OwnerIndex();
+    private volatile WorldIndex[] worlds;
+    private final BarrelData.ChangeListener dirtyListener;
+    private volatile RegionLoader regionLoader;
+    private volatile BarrelJournal journal;
+    private volatile boolean storedChunksKnown;
+    private final BarrelMetrics.Counter lookupHits;
+    private final BarrelMetrics.Counter lookupMisses;
+    private final BarrelMetrics.Histogram lookupNanos;
 
     /**
      * 新しいレジストリを作成する
      */
     public BarrelRegistry() {
+        this(new BarrelMetrics());
+    }
+
+    /**
+     * メトリクスを記録するレジストリを作成する
+     *
+     * @param metrics 検索回数と読み込み済みバレル数の記録先
+     */
+    public BarrelRegistry(BarrelMetrics metrics) {
         this.barrelsById = new ConcurrentHashMap<>();
-        this.barrelsByLocation = new ConcurrentHashMap<>();
+        this.worldIds = new IdTable();
+        this.worlds = new WorldIndex[0];
+        this.dirtyListener = this::onBarrelChanged;
+        this.lookupHits = metrics.counter("barrelmod_registry_lookup_hits_total",
+                "Position lookups that found a barrel");
+        this.lookupMisses = metrics.counter("barrelmod_registry_lookup_misses_total",
+                "Position lookups that found no barrel");
+        this.lookupNanos = metrics.histogram("barrelmod_registry_lookup_nanos",
+                "Position lookup latency in nanoseconds, sampled 1 in " + LOOKUP_SAMPLE_RATE);
+        metrics.gauge("barrelmod_barrels", "Loaded barrels per world", "world", this::getBarrelCountsByWorld);
+    }
+
+    /**
+     * 未読み込みのリージョンにアクセスした際にバレルを読み込むローダーを設定する
+     *
+     * ローダーが未設定の場合、全てのリージョンは空の状態から開始する
+     *
+     * @param regionLoader リージョンローダー
+     */
+    public void setRegionLoader(RegionLoader regionLoader) {
+        this.regionLoader = regionLoader;
+    }
+
+    /**
+     * ストレージ上でバレルを含むチャンクを設定する
+     *
+     * 設定後は、未読み込みのリージョンに対する{@link #mightContain}をこの一覧から判定し、リージョンを読み込まない
+     * 読み込み済みのリージョンの分は使用せず、リージョンの解放時に解放時点の内容で置き換える
+     *
+     * @param chunkKeys リージョンごとのバレルを含むチャンクのキー、
+     *                  値がnullのリージョンは全てのチャンクにバレルがある可能性があるものとして扱う
+     */
+    public void setStoredChunks(Map<RegionPos, long[]> chunkKeys) {
+        Map<String, List<Map.Entry<RegionPos, long[]>>> byWorld = new HashMap<>();
+        for (Map.Entry<RegionPos, long[]> entry : chunkKeys.entrySet()) {
+            byWorld.computeIfAbsent(entry.getKey().worldId(), key -> new ArrayList<>()).add(entry);
+        }
+        for (Map.Entry<String, List<Map.Entry<RegionPos, long[]>>> worldEntry : byWorld.entrySet()) {
+            WorldIndex world = worldOf(worldIds.intern(worldEntry.getKey()));
+            long stamp = world.lock.writeLock();
+            try {
+                for (Map.Entry<RegionPos, long[]> entry : worldEntry.getValue()) {
+                    long regionKey = PositionKey.packColumn(entry.getKey().regionX(), entry.getKey().regionZ());
+                    if (!world.regions.containsKey(regionKey)) {
+                        world.storedChunks.put(regionKey, chunkBitmap(entry.getValue()));
+                    }
+                }
+            } finally {
+                world.lock.unlockWrite(stamp);
+            }
+        }
+        storedChunksKnown = true;
+    }
+
+    /**
+     * バレルの追加・削除・変更を記録するジャーナルを設定する
+     *
+     * @param journal ジャーナル、nullで記録を停止
+     */
+    public void setJournal(BarrelJournal journal) {
+        this.journal = journal;
     }
 
     /**
@@ -43,11 +159,92 @@ public class BarrelRegistry {
     /**
      * バレルをレジストリに登録する
      *
+     * バレルを含むリージョンが未読み込みの場合は先に読み込む
+     * 登録と同じ書き込みロック内でリージョンをダーティにするため、保存前にリージョンが解放されることはない
+     *
      * @param barrel 登録するバレル
+     * @throws IllegalArgumentException バレルの座標が{@link PositionKey}でパックできない場合
      */
     public void register(BarrelData barrel) {
-        barrelsById.put(barrel.getId(), barrel);
-        barrelsByLocation.put(getLocationKey(barrel.getPosX(), barrel.getPosY(), barrel.getPosZ(), barrel.getWorldId()), barrel);
+        register(barrel, false);
+    }
+
+    /**
+     * 指定位置にオーナー付きの新しいバレルを作成して登録する
+     *
+     * オーナーの所有数が上限に達している場合と、座標が{@link PositionKey}でパックできない場合は作成しない
+     * 上限の判定と所有数の更新は不可分に行うため、同じオーナーの設置が同時に行われても上限を超えない
+     * 上限の判定は呼び出し時に行い、リージョンが未読み込みの場合の登録はバックグラウンドで読み込んだ後に行う
+     * そのため呼び出し元のスレッドはストレージのI/Oを待たない
+     *
+     * @param position ワールド座標
+     * @param worldId ワールドID
+     * @param ownerUuid オーナーUUID、nullの場合は上限を判定しない
+     * @param quota オーナーごとの所有数の上限、0以下の場合は無制限
+     * @return 作成されたバレルデータ、作成しなかった場合は空のOptional
+     */
+    public Optional<BarrelData> createBarrel(Vector3i position, String worldId, UUID ownerUuid, int quota) {
+        if (!PositionKey.isPackable(position.x, position.y, position.z)) {
+            return Optional.empty();
+        }
+        if (ownerUuid != null && !ownerIndex.tryAdd(ownerUuid, quota)) {
+            return Optional.empty();
+        }
+        BarrelData barrel = new BarrelData(position, worldId);
+        boolean counted = ownerUuid != null;
+        if (counted) {
+            barrel.setOwnerUuid(ownerUuid);
+        }
+        CompletableFuture<Void> ready = prepareRegion(position.x, position.z, worldIds.intern(worldId));
+        if (ready.isDone() && !ready.isCompletedExceptionally()) {
+            register(barrel, counted);
+        } else {
+            ready.whenCompleteAsync((ignored, failure) -> register(barrel, counted), REGION_LOADER);
+        }
+        return Optional.of(barrel);
+    }
+
+    /**
+     * @param barrel 登録するバレル
+     * @param counted オーナーの所有数を呼び出し側で既に増やしている場合true
+     */
+    private void register(BarrelData barrel, boolean counted) {
+        if (!PositionKey.isPackable(barrel.getPosX(), barrel.getPosY(), barrel.getPosZ())) {
+            throw new IllegalArgumentException("Barrel position out of range: " + barrel);
+        }
+        WorldIndex world = worldOf(worldIds.intern(barrel.getWorldId()));
+        long regionKey = regionKeyOf(barrel);
+        BarrelData previous = null;
+        boolean inserted = false;
+        while (!inserted) {
+            RegionState region = ensureRegion(world,
+                    PositionKey.toRegion(barrel.getPosX()), PositionKey.toRegion(barrel.getPosZ()));
+            materializeChunk(world, region, chunkKeyOf(barrel.getPosX(), barrel.getPosZ()));
+            long stamp = world.lock.writeLock();
+            try {
+                // 読み込みから書き込みロックの取得までの間にリージョンが解放された場合は読み込み直す
+                if (world.regions.get(regionKey) == region) {
+                    previous = insert(world, barrel);
+                    region.dirty = true;
+                    region.touch();
+                    inserted = true;
+                }
+            } finally {
+                world.lock.unlockWrite(stamp);
+            }
+        }
+        if (previous != barrel) {
+            if (!counted) {
+                ownerIndex.add(barrel.getOwnerUuid());
+            }
+            if (previous != null) {
+                ownerIndex.remove(previous.getOwnerUuid());
+            }
+        }
+        BarrelJournal current = journal;
+        if (current != null) {
+            current.recordPut(barrel);
+        }
     }
 
     /**
@@ -56,13 +253,34 @@ public class BarrelRegistry {
      * @param barrel 登録解除するバレル
      */
     public void unregister(BarrelData barrel) {
-        barrelsById.remove(barrel.getId());
-        barrelsByLocation.remove(getLocationKey(barrel.getPosX(), barrel.getPosY(), barrel.getPosZ(), barrel.getWorldId()));
+        WorldIndex world = worldOf(worldIds.intern(barrel.getWorldId()));
+        boolean removed;
+        long stamp = world.lock.writeLock();
+        try {
+            removed = remove(world, barrel);
+            if (removed) {
+                RegionState region = world.regions.get(regionKeyOf(barrel));
+                if (region != null) {
+                    region.dirty = true;
+                }
+            }
+        } finally {
+            world.lock.unlockWrite(stamp);
+        }
+        if (removed) {
+            ownerIndex.remove(barrel.getOwnerUuid());
+        }
+        BarrelJournal current = journal;
+        if (removed && current != null) {
+            current.recordRemove(barrel);
+        }
     }
 
     /**
      * IDでバレルを検索する
      *
+     * 読み込み済みのリージョンに含まれるバレルのみが対象となる
+     *
      * @param id バレルID
      * @return バレルデータ、見つからない場合は空のOptional
      */
@@ -70,6 +288,18 @@ public class BarrelRegistry {
         return Optional.ofNullable(barrelsById.get(id));
     }
 
+    /**
+     * ワールドIDに対応するハンドルを取得する
+     *
+     * ハンドルを保持しておくことで、座標検索時のワールドID解決を省略できる
+     *
+     * @param worldId ワールドID
+     * @return ワールドハンドル
+     */
+    public int getWorldHandle(String worldId) {
+        return worldIds.intern(worldId);
+    }
+
     /**
      * 座標でバレルを検索する
      *
@@ -78,12 +308,14 @@ public class BarrelRegistry {
      * @return バレルデータ、見つからない場合は空のOptional
      */
     public Optional<BarrelData> getByPosition(Vector3i position, String worldId) {
-        return Optional.ofNullable(barrelsByLocation.get(getLocationKey(position.x, position.y, position.z, worldId)));
+        return getByPosition(position.x, position.y, position.z, worldId);
     }
 
     /**
      * 座標でバレルを検索する
      *
+     * 未知のワールドIDはハンドルを登録せずに、バレルが存在しないものとして扱う
+     *
      * @param x X座標
      * @param y Y座標
      * @param z Z座標
@@ -91,22 +323,323 @@ public class BarrelRegistry {
      * @return バレルデータ、見つからない場合は空のOptional
      */
     public Optional<BarrelData> getByPosition(int x, int y, int z, String worldId) {
-        return Optional.ofNullable(barrelsByLocation.get(getLocationKey(x, y, z, worldId)));
+        int worldHandle = worldIds.find(worldId);
+        return worldHandle != IdTable.NONE ? getByPosition(x, y, z, worldHandle) : Optional.empty();
+    }
+
+    /**
+     * ワールドハンドルと座標でバレルを検索する
+     *
+     * 読み込み済みのリージョンに対する検索パスではオブジェクトを生成しない
+     *
+     * @param x X座標
+     * @param y Y座標
+     * @param z Z座標
+     * @param worldHandle {@link #getWorldHandle(String)}で取得したワールドハンドル
+     * @return バレルデータ、見つからない場合は空のOptional
+     */
+    public Optional<BarrelData> getByPosition(int x, int y, int z, int worldHandle) {
+        return Optional.ofNullable(lookup(x, y, z, worldHandle));
     }
 
     /**
      * 指定座標にバレルが存在するか確認する
      *
+     * 未知のワールドIDはハンドルを登録せずに、バレルが存在しないものとして扱う
+     *
      * @param position ワールド座標
      * @param worldId ワールドID
      * @return 存在する場合true
      */
     public boolean existsAt(Vector3i position, String worldId) {
-        return barrelsByLocation.containsKey(getLocationKey(position.x, position.y, position.z, worldId));
+        int worldHandle = worldIds.find(worldId);
+        return worldHandle != IdTable.NONE && lookup(position.x, position.y, position.z, worldHandle) != null;
     }
 
     /**
-     * 全てのバレルを取得する
+     * 指定座標にバレルが存在するか確認する
+     *
+     * @param x X座標
+     * @param y Y座標
+     * @param z Z座標
+     * @param worldHandle {@link #getWorldHandle(String)}で取得したワールドハンドル
+     * @return 存在する場合true
+     */
+    public boolean existsAt(int x, int y, int z, int worldHandle) {
+        return lookup(x, y, z, worldHandle) != null;
+    }
+
+    /**
+     * 指定座標にバレルが存在する可能性があるか判定する
+     *
+     * チャンクごとの列ビットセットのみを参照し、座標キーの生成やリージョンの読み込みを行わない
+     * falseの場合はバレルが存在しないことが確定する
+     * 未読み込みのリージョンでは、ストレージ上でバレルを含むチャンクのビットマップで判定する
+     * ビットマップが未設定の場合や未生成のチャンクでは、判定できないためtrueを返す
+     *
+     * @param x X座標
+     * @param y Y座標
+     * @param z Z座標
+     * @param worldHandle {@link #getWorldHandle(String)}で取得したワールドハンドル
+     * @return 存在する可能性がある場合true
+     */
+    public boolean mightContain(int x, int y, int z, int worldHandle) {
+        WorldIndex[] current = worlds;
+        WorldIndex world = worldHandle >= 0 && worldHandle < current.length ? current[worldHandle] : null;
+        boolean storedKnown = storedChunksKnown;
+        if (world == null) {
+            return !storedKnown;
+        }
+        long chunkKey = chunkKeyOf(x, z);
+        long regionKey = PositionKey.packColumn(PositionKey.toRegion(x), PositionKey.toRegion(z));
+
+        long stamp = world.lock.tryOptimisticRead();
+        boolean result = mightContain(world, chunkKey, regionKey, x, z, storedKnown);
+        if (!world.lock.validate(stamp)) {
+            stamp = world.lock.readLock();
+            try {
+                result = mightContain(world, chunkKey, regionKey, x, z, storedKnown);
+            } finally {
+                world.lock.unlockRead(stamp);
+            }
+        }
+        return result;
+    }
+
+    private static boolean mightContain(WorldIndex world, long chunkKey, long regionKey, int x, int z,
+                                        boolean storedKnown) {
+        BarrelChunk chunk = world.chunks.get(chunkKey);
+        if (chunk != null) {
+            return chunk.pending || chunk.hasColumn(x, z);
+        }
+        if (world.regions.get(regionKey) != null) {
+            return false;
+        }
+        if (!storedKnown) {
+            return true;
+        }
+        long[] stored = world.storedChunks.get(regionKey);
+        int bit = chunkBit(chunkKey);
+        return stored != null && (stored[bit >>> 6] & (1L << bit)) != 0;
+    }
+
+    /**
+     * 座標を含むリージョンを、呼び出し元のスレッドでストレージのI/Oを待たずに使用できる状態にする
+     *
+     * 読み込み済みのリージョンと、ストレージにバレルがないことが分かっているリージョンはその場で使用可能になる
+     * それ以外のリージョンはバックグラウンドの仮想スレッドで読み込む
+     * ワールドのスレッドでは、返されたFutureが未完了の場合に操作を完了後まで遅延させることで、ティック中のI/Oを避けられる
+     *
+     * @param x X座標
+     * @param z Z座標
+     * @param worldHandle {@link #getWorldHandle(String)}で取得したワールドハンドル
+     * @return リージョンが使用可能になった時点で完了するFuture、使用可能な場合は完了済み
+     */
+    public CompletableFuture<Void> prepareRegion(int x, int z, int worldHandle) {
+        WorldIndex world = worldOf(worldHandle);
+        int regionX = PositionKey.toRegion(x);
+        int regionZ = PositionKey.toRegion(z);
+        long regionKey = PositionKey.packColumn(regionX, regionZ);
+        RegionState region = readRegion(world, regionKey);
+        if (region == null && !needsLoad(world, regionKey)) {
+            region = ensureRegion(world, regionX, regionZ);
+        }
+        if (region != null) {
+            region.touch();
+            return READY;
+        }
+        return CompletableFuture.runAsync(() -> ensureRegion(world, regionX, regionZ).touch(), REGION_LOADER);
+    }
+
+    /**
+     * @return 未読み込みのリージョンの作成にストレージからの読み込みが必要な場合true
+     */
+    private boolean needsLoad(WorldIndex world, long regionKey) {
+        if (regionLoader == null) {
+            return false;
+        }
+        if (!storedChunksKnown) {
+            return true;
+        }
+        long stamp = world.lock.tryOptimisticRead();
+        boolean stored = world.storedChunks.containsKey(regionKey);
+        if (!world.lock.validate(stamp)) {
+            stamp = world.lock.readLock();
+            try {
+                stored = world.storedChunks.containsKey(regionKey);
+            } finally {
+                world.lock.unlockRead(stamp);
+            }
+        }
+        return stored;
+    }
+
+    /**
+     * @param chunkKeys リージョン内のバレルを含むチャンクのキー、nullの場合は全てのチャンク
+     * @return リージョン内のチャンクごとのビットマップ
+     */
+    private static long[] chunkBitmap(long[] chunkKeys) {
+        long[] bitmap = new long[(1 << (PositionKey.REGION_SHIFT * 2)) / Long.SIZE];
+        if (chunkKeys == null) {
+            Arrays.fill(bitmap, -1L);
+            return bitmap;
+        }
+        for (long chunkKey : chunkKeys) {
+            int bit = chunkBit(chunkKey);
+            bitmap[bit >>> 6] |= 1L << bit;
+        }
+        return bitmap;
+    }
+
+    private static int chunkBit(long chunkKey) {
+        return ((PositionKey.columnX(chunkKey) & REGION_CHUNK_MASK) << PositionKey.REGION_SHIFT)
+                | (PositionKey.columnZ(chunkKey) & REGION_CHUNK_MASK);
+    }
+
+    /**
+     * 指定アイテムを格納しているバレルを検索する
+     *
+     * アイテムインデックスを参照するため、全バレルの走査は行わず、返すバレル数に比例した時間で完了する
+     * 読み込み済みのリージョンに含まれるバレルのみが対象となる
+     * 未読み込みのリージョンも含める場合は{@link BarrelDataManager#findByItem}を使用する
+     *
+     * @param itemId アイテムID
+     * @param limit 返すバレルの最大数
+     * @return 検索結果
+     */
+    public ItemSearchResult findByItem(String itemId, int limit) {
+        int item = ItemIds.find(itemId);
+        if (item == IdTable.NONE) {
+            return new ItemSearchResult(itemId, 0, 0, List.of());
+        }
+        Set<BarrelData> barrels = itemIndex.barrelsOf(item);
+        List<BarrelData> found = new ArrayList<>(Math.max(0, Math.min(limit, barrels.size())));
+        for (BarrelData barrel : barrels) {
+            if (found.size() >= limit) {
+                break;
+            }
+            found.add(barrel);
+        }
+        return new ItemSearchResult(itemId, itemIndex.totalOf(item), barrels.size(), found);
+    }
+
+    /**
+     * 直方体の範囲に含まれるバレルを検索する
+     *
+     * 範囲と重なるチャンクのバレル配列を順に参照するため、全バレルの走査やリストへのコピーは行わない
+     * 範囲内の未生成のチャンクは呼び出し時に生成し、ストリームの評価中はチャンクの生成を行わない
+     * ストリームは遅延評価され、各チャンクは評価された時点の内容を返す
+     * 読み込み済みのリージョンに含まれるバレルのみが対象となり、未読み込みのリージョンは読み込まない
+     * X/Z座標の範囲は{@link PositionKey}でパックできる範囲に制限する
+     *
+     * @param worldId ワールドID
+     * @param minX 範囲の最小X座標
+     * @param minY 範囲の最小Y座標
+     * @param minZ 範囲の最小Z座標
+     * @param maxX 範囲の最大X座標 (範囲に含む)
+     * @param maxY 範囲の最大Y座標 (範囲に含む)
+     * @param maxZ 範囲の最大Z座標 (範囲に含む)
+     * @return 範囲内のバレルのストリーム
+     */
+    public Stream<BarrelData> queryBox(String worldId, int minX, int minY, int minZ, int maxX, int maxY, int maxZ) {
+        WorldIndex world = findWorld(worldId);
+        int fromX = Math.max(minX, PositionKey.MIN_XZ);
+        int fromZ = Math.max(minZ, PositionKey.MIN_XZ);
+        int toX = Math.min(maxX, PositionKey.MAX_XZ);
+        int toZ = Math.min(maxZ, PositionKey.MAX_XZ);
+        if (world == null || fromX > toX || minY > maxY || fromZ > toZ) {
+            return Stream.empty();
+        }
+        long[] chunkKeys = chunkKeysIn(world, fromX, fromZ, toX, toZ).toArray();
+        for (long chunkKey : chunkKeys) {
+            materializePending(world, chunkKey);
+        }
+        return Arrays.stream(chunkKeys)
+                .mapToObj(chunkKey -> chunkBarrels(world, chunkKey))
+                .flatMap(Arrays::stream)
+                .filter(barrel -> barrel.getPosX() >= fromX && barrel.getPosX() <= toX
+                        && barrel.getPosY() >= minY && barrel.getPosY() <= maxY
+                        && barrel.getPosZ() >= fromZ && barrel.getPosZ() <= toZ);
+    }
+
+    /**
+     * 指定座標から半径以内 (球状) にあるバレルを検索する
+     *
+     * 対象範囲とストリームの性質は{@link #queryBox}と同じ
+     * 中心から半径を加減した範囲がintの範囲を超える場合は、intの範囲に丸める
+     *
+     * @param worldId ワールドID
+     * @param x 中心のX座標
+     * @param y 中心のY座標
+     * @param z 中心のZ座標
+     * @param radius 半径 (ブロック数)
+     * @return 範囲内のバレルのストリーム
+     */
+    public Stream<BarrelData> queryRadius(String worldId, int x, int y, int z, int radius) {
+        if (radius < 0) {
+            return Stream.empty();
+        }
+        long radiusSquared = (long) radius * radius;
+        return queryBox(worldId, saturatedAdd(x, -radius), saturatedAdd(y, -radius), saturatedAdd(z, -radius),
+                saturatedAdd(x, radius), saturatedAdd(y, radius), saturatedAdd(z, radius))
+                .filter(barrel -> {
+                    long dx = (long) barrel.getPosX() - x;
+                    long dy = (long) barrel.getPosY() - y;
+                    long dz = (long) barrel.getPosZ() - z;
+                    // 各項は半径の2乗以下のため、順に引けば合計がlongの範囲を超えない
+                    long remaining = radiusSquared - dx * dx;
+                    if (remaining < 0) {
+                        return false;
+                    }
+                    remaining -= dy * dy;
+                    return remaining >= 0 && remaining - dz * dz >= 0;
+                });
+    }
+
+    private static int saturatedAdd(int value, int delta) {
+        return (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, (long) value + delta));
+    }
+
+    /**
+     * オーナーが所有するバレルの数を取得する
+     *
+     * 未読み込みのリージョンにあるバレルも含み、バレルの走査は行わない
+     *
+     * @param ownerUuid オーナーUUID
+     * @return 所有するバレルの数
+     */
+    public int getOwnedBarrelCount(UUID ownerUuid) {
+        return ownerIndex.countOf(ownerUuid);
+    }
+
+    /**
+     * オーナーが所有する読み込み済みのバレルを取得する
+     *
+     * @param ownerUuid オーナーUUID
+     * @return 読み込み済みのバレルの読み取り専用ビュー
+     */
+    public Set<BarrelData> getLoadedBarrelsOf(UUID ownerUuid) {
+        return ownerIndex.loadedOf(ownerUuid);
+    }
+
+    /**
+     * @return オーナーごとの所有数
+     */
+    Map<UUID, Integer> getOwnerCounts() {
+        return ownerIndex.counts();
+    }
+
+    /**
+     * ストレージから求めたオーナーごとの所有数を設定する
+     *
+     * @param counts オーナーごとの所有数
+     */
+    void setOwnerCounts(Map<UUID, Integer> counts) {
+        ownerIndex.setCounts(counts);
+    }
+
+    /**
+     * 読み込み済みの全てのバレルを取得する
      *
      * @return バレルのコレクション
      */
@@ -115,7 +648,7 @@ public class BarrelRegistry {
     }
 
     /**
-     * 登録されているバレルの数を取得する
+     * 読み込み済みのバレルの数を取得する
      *
      * @return バレル数
      */
@@ -123,15 +656,873 @@ public class BarrelRegistry {
         return barrelsById.size();
     }
 
+    /**
+     * ワールドごとの読み込み済みのバレルの数を取得する
+     *
+     * @return ワールドIDごとのバレル数
+     */
+    public Map<String, Integer> getBarrelCountsByWorld() {
+        Map<String, Integer> counts = new TreeMap<>();
+        for (WorldIndex world : worlds) {
+            if (world == null) {
+                continue;
+            }
+            long stamp = world.lock.readLock();
+            try {
+                counts.put(world.worldId, world.barrels.size());
+            } finally {
+                world.lock.unlockRead(stamp);
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * 読み込み済みのリージョンを取得する
+     *
+     * 読み込みに失敗したリージョンは含まれない
+     *
+     * @return リージョン位置のリスト
+     */
+    public List<RegionPos> getLoadedRegions() {
+        return collectRegions(false, 0L);
+    }
+
+    /**
+     * ワールドの読み込み済みのリージョンを取得する
+     *
+     * 他のワールドのロックは取得しない
+     *
+     * @param worldId ワールドID
+     * @return リージョン位置のリスト
+     */
+    public List<RegionPos> getLoadedRegions(String worldId) {
+        List<RegionPos> result = new ArrayList<>();
+        int worldHandle = worldIds.find(worldId);
+        WorldIndex[] current = worlds;
+        if (worldHandle != IdTable.NONE && worldHandle < current.length && current[worldHandle] != null) {
+            collectRegions(current[worldHandle], false, 0L, result);
+        }
+        return result;
+    }
+
+    /**
+     * 指定時刻以降にアクセスされていないリージョンを取得する
+     *
+     * @param notTouchedSince {@link System#nanoTime()}基準の時刻
+     * @return リージョン位置のリスト
+     */
+    public List<RegionPos> getIdleRegions(long notTouchedSince) {
+        return collectRegions(true, notTouchedSince);
+    }
+
+    /**
+     * 前回の取得以降に変更されたリージョンを取得し、ダーティ状態を解除する
+     *
+     * 保存に失敗した場合は{@link #markRegionDirty(RegionPos)}で再度マークすること
+     *
+     * @return 変更されたリージョン位置のリスト
+     */
+    public List<RegionPos> drainDirtyRegions() {
+        List<RegionPos> result = new ArrayList<>();
+        for (WorldIndex world : worlds) {
+            if (world == null) {
+                continue;
+            }
+            long stamp = world.lock.readLock();
+            try {
+                world.regions.forEach((regionKey, region) -> {
+                    if (!region.loadFailed && region.dirty) {
+                        region.dirty = false;
+                        result.add(new RegionPos(world.worldId,
+                                PositionKey.columnX(regionKey), PositionKey.columnZ(regionKey)));
+                    }
+                });
+            } finally {
+                world.lock.unlockRead(stamp);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return 未保存の変更があるリージョンが存在する場合true
+     */
+    boolean hasDirtyRegions() {
+        for (WorldIndex world : worlds) {
+            if (world == null) {
+                continue;
+            }
+            long stamp = world.lock.readLock();
+            try {
+                boolean[] dirty = {false};
+                world.regions.forEachValue(region -> dirty[0] |= !region.loadFailed && region.dirty);
+                if (dirty[0]) {
+                    return true;
+                }
+            } finally {
+                world.lock.unlockRead(stamp);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * リージョンが未読み込みの場合はストレージから読み込む
+     *
+     * @param region リージョン位置
+     */
+    public void loadRegion(RegionPos region) {
+        ensureRegion(worldOf(worldIds.intern(region.worldId())), region.regionX(), region.regionZ()).touch();
+    }
+
+    /**
+     * リージョンのダーティ状態を解除する
+     *
+     * @param region リージョン位置
+     * @return 解除前にダーティだった場合true
+     */
+    public boolean clearRegionDirty(RegionPos region) {
+        RegionState state = readRegion(worldOf(worldIds.intern(region.worldId())),
+                PositionKey.packColumn(region.regionX(), region.regionZ()));
+        if (state == null || !state.dirty) {
+            return false;
+        }
+        state.dirty = false;
+        return true;
+    }
+
+    /**
+     * リージョンをダーティとしてマークする
+     *
+     * @param region リージョン位置
+     */
+    public void markRegionDirty(RegionPos region) {
+        RegionState state = readRegion(worldOf(worldIds.intern(region.worldId())),
+                PositionKey.packColumn(region.regionX(), region.regionZ()));
+        if (state != null) {
+            state.dirty = true;
+        }
+    }
+
+    /**
+     * リージョンに含まれるバレルを取得する
+     *
+     * 未生成のチャンクがある場合は先に全て生成する
+     *
+     * @param region リージョン位置
+     * @return バレルのリスト
+     */
+    public List<BarrelData> getRegionBarrels(RegionPos region) {
+        WorldIndex world = worldOf(worldIds.intern(region.worldId()));
+        int chunkSpan = 1 << PositionKey.REGION_SHIFT;
+        int baseX = region.regionX() << PositionKey.REGION_SHIFT;
+        int baseZ = region.regionZ() << PositionKey.REGION_SHIFT;
+        RegionState state = readRegion(world, PositionKey.packColumn(region.regionX(), region.regionZ()));
+        if (state != null && state.pendingChunks > 0) {
+            for (int dx = 0; dx < chunkSpan; dx++) {
+                for (int dz = 0; dz < chunkSpan; dz++) {
+                    materializeChunk(world, state, PositionKey.packColumn(baseX + dx, baseZ + dz));
+                }
+            }
+        }
+
+        List<BarrelData> result = new ArrayList<>();
+        long stamp = world.lock.readLock();
+        try {
+            for (int dx = 0; dx < chunkSpan; dx++) {
+                for (int dz = 0; dz < chunkSpan; dz++) {
+                    BarrelChunk chunk = world.chunks.get(PositionKey.packColumn(baseX + dx, baseZ + dz));
+                    if (chunk != null) {
+                        result.addAll(Arrays.asList(chunk.barrels));
+                    }
+                }
+            }
+        } finally {
+            world.lock.unlockRead(stamp);
+        }
+        return result;
+    }
+
+    /**
+     * リージョンをメモリから解放する
+     *
+     * 呼び出し側はリージョンを事前に保存しておくこと
+     * 指定時刻以降にアクセスされた場合や、未保存の変更がある場合は解放しない
+     * 解放時点でバレルを含むチャンクを記録し、解放後の{@link #mightContain}の判定に使用する
+     *
+     * @param region リージョン位置
+     * @param notTouchedSince {@link System#nanoTime()}基準の時刻
+     * @return 解放した場合true
+     */
+    public boolean releaseRegion(RegionPos region, long notTouchedSince) {
+        WorldIndex world = worldOf(worldIds.intern(region.worldId()));
+        long regionKey = PositionKey.packColumn(region.regionX(), region.regionZ());
+        List<BarrelData> released = new ArrayList<>();
+        RegionContents contents;
+        synchronized (world.loadMonitor) {
+            long stamp = world.lock.writeLock();
+            try {
+                RegionState state = world.regions.get(regionKey);
+                if (state == null || state.dirty || !state.isIdleSince(notTouchedSince)) {
+                    return false;
+                }
+                world.regions.remove(regionKey);
+                contents = state.contents;
+                state.contents = null;
+                state.pendingChunks = 0;
+                int chunkSpan = 1 << PositionKey.REGION_SHIFT;
+                int baseX = region.regionX() << PositionKey.REGION_SHIFT;
+                int baseZ = region.regionZ() << PositionKey.REGION_SHIFT;
+                long[] stored = chunkBitmap(new long[0]);
+                boolean anyStored = false;
+                for (int dx = 0; dx < chunkSpan; dx++) {
+                    for (int dz = 0; dz < chunkSpan; dz++) {
+                        long chunkKey = PositionKey.packColumn(baseX + dx, baseZ + dz);
+                        BarrelChunk chunk = world.chunks.remove(chunkKey);
+                        if (chunk != null && (chunk.pending || chunk.barrels.length > 0)) {
+                            int bit = chunkBit(chunkKey);
+                            stored[bit >>> 6] |= 1L << bit;
+                            anyStored = true;
+                        }
+                        if (chunk != null) {
+                            for (BarrelData barrel : chunk.barrels) {
+                                world.barrels.remove(PositionKey.pack(barrel.getPosX(), barrel.getPosY(), barrel.getPosZ()));
+                                barrel.setChangeListener(null);
+                                barrel.detachIndex();
+                                released.add(barrel);
+                            }
+                        }
+                    }
+                }
+                if (anyStored) {
+                    world.storedChunks.put(regionKey, stored);
+                } else {
+                    world.storedChunks.remove(regionKey);
+                }
+            } finally {
+                world.lock.unlockWrite(stamp);
+            }
+        }
+        if (contents != null) {
+            contents.close();
+        }
+        for (BarrelData barrel : released) {
+            barrelsById.remove(barrel.getId(), barrel);
+        }
+        return true;
+    }
+
+    /**
+     * 並列に読み込んだリージョンの内容をまとめて登録する
+     *
+     * ワールドごとに書き込みロックを1回だけ取得して登録するため、リージョン単位の登録と比べて競合が少ない
+     * 既に読み込まれているリージョンの内容は使用せずに閉じる
+     *
+     * @param loaded リージョンごとの内容
+     * @return 登録したリージョン数
+     */
+    public int preloadRegions(Map<RegionPos, RegionContents> loaded) {
+        Map<String, List<Map.Entry<RegionPos, RegionContents>>> byWorld = new HashMap<>();
+        for (Map.Entry<RegionPos, RegionContents> entry : loaded.entrySet()) {
+            byWorld.computeIfAbsent(entry.getKey().worldId(), key -> new ArrayList<>()).add(entry);
+        }
+
+        int installed = 0;
+        List<RegionContents> unused = new ArrayList<>();
+        for (Map.Entry<String, List<Map.Entry<RegionPos, RegionContents>>> worldEntry : byWorld.entrySet()) {
+            WorldIndex world = worldOf(worldIds.intern(worldEntry.getKey()));
+            synchronized (world.loadMonitor) {
+                long stamp = world.lock.writeLock();
+                try {
+                    for (Map.Entry<RegionPos, RegionContents> entry : worldEntry.getValue()) {
+                        RegionPos pos = entry.getKey();
+                        long regionKey = PositionKey.packColumn(pos.regionX(), pos.regionZ());
+                        RegionContents contents = entry.getValue();
+                        if (world.regions.containsKey(regionKey)) {
+                            unused.add(contents);
+                            continue;
+                        }
+                        RegionState region = new RegionState(false);
+                        installRegion(world, regionKey, region, contents);
+                        if (region.contents == null) {
+                            unused.add(contents);
+                        }
+                        installed++;
+                    }
+                } finally {
+                    world.lock.unlockWrite(stamp);
+                }
+            }
+        }
+        unused.forEach(RegionContents::close);
+        return installed;
+    }
+
     /**
      * 全てのバレルをクリアする
      */
     public void clear() {
+        storedChunksKnown = false;
+        List<RegionContents> pending = new ArrayList<>();
+        for (WorldIndex world : worlds) {
+            if (world == null) {
+                continue;
+            }
+            long stamp = world.lock.writeLock();
+            try {
+                world.regions.forEachValue(region -> {
+                    if (region.contents != null) {
+                        pending.add(region.contents);
+                        region.contents = null;
+                        region.pendingChunks = 0;
+                    }
+                });
+                world.barrels.forEachValue(BarrelData::detachIndex);
+                world.barrels.clear();
+                world.chunks.clear();
+                world.regions.clear();
+                world.storedChunks.clear();
+            } finally {
+                world.lock.unlockWrite(stamp);
+            }
+        }
+        pending.forEach(RegionContents::close);
         barrelsById.clear();
-        barrelsByLocation.clear();
     }
 
-    private String getLocationKey(int x, int y, int z, String worldId) {
-        return worldId + ":" + x + "," + y + "," + z;
+    private void onBarrelChanged(BarrelData barrel, boolean firstChange) {
+        if (firstChange) {
+            RegionState region = readRegion(worldOf(worldIds.intern(barrel.getWorldId())), regionKeyOf(barrel));
+            if (region != null) {
+                region.dirty = true;
+            }
+        }
+        BarrelJournal current = journal;
+        if (current != null) {
+            current.recordPut(barrel);
+        }
+    }
+
+    private static long regionKeyOf(BarrelData barrel) {
+        return PositionKey.packColumn(PositionKey.toRegion(barrel.getPosX()), PositionKey.toRegion(barrel.getPosZ()));
+    }
+
+    private static long chunkKeyOf(int x, int z) {
+        return PositionKey.packColumn(PositionKey.toChunk(x), PositionKey.toChunk(z));
+    }
+
+    private BarrelData lookup(int x, int y, int z, int worldHandle) {
+        if (!PositionKey.isPackable(x, y, z)) {
+            return null;
+        }
+        boolean timed = ThreadLocalRandom.current().nextInt(LOOKUP_SAMPLE_RATE) == 0;
+        long start = timed ? System.nanoTime() : 0;
+        long key = PositionKey.pack(x, y, z);
+        long regionKey = PositionKey.packColumn(PositionKey.toRegion(x), PositionKey.toRegion(z));
+        WorldIndex world = worldOf(worldHandle);
+
+        long stamp = world.lock.tryOptimisticRead();
+        RegionState region = world.regions.get(regionKey);
+        BarrelData barrel = world.barrels.get(key);
+        if (!world.lock.validate(stamp)) {
+            stamp = world.lock.readLock();
+            try {
+                region = world.regions.get(regionKey);
+                barrel = world.barrels.get(key);
+            } finally {
+                world.lock.unlockRead(stamp);
+            }
+        }
+
+        if (region == null || (barrel == null && region.pendingChunks > 0)) {
+            if (region == null) {
+                region = ensureRegion(world, PositionKey.toRegion(x), PositionKey.toRegion(z));
+            }
+            materializeChunk(world, region, chunkKeyOf(x, z));
+            stamp = world.lock.readLock();
+            try {
+                barrel = world.barrels.get(key);
+            } finally {
+                world.lock.unlockRead(stamp);
+            }
+        }
+        region.touch();
+        (barrel != null ? lookupHits : lookupMisses).increment();
+        if (timed) {
+            lookupNanos.record(System.nanoTime() - start);
+        }
+        return barrel;
+    }
+
+    /**
+     * リージョンが読み込まれていることを保証する
+     *
+     * 未読み込みの場合は呼び出し元のスレッドで読み込む
+     * 同じリージョンの読み込みが進行中の場合は、重複して読み込まずにその完了を待つ
+     * I/O中はワールドのロックもモニターも保持しないため、他リージョンの検索・チャンク生成・解放はブロックされない
+     */
+    private RegionState ensureRegion(WorldIndex world, int regionX, int regionZ) {
+        long regionKey = PositionKey.packColumn(regionX, regionZ);
+        RegionState region = readRegion(world, regionKey);
+        if (region != null) {
+            return region;
+        }
+
+        CompletableFuture<RegionState> loading = new CompletableFuture<>();
+        CompletableFuture<RegionState> inFlight = world.loading.putIfAbsent(regionKey, loading);
+        if (inFlight != null) {
+            return inFlight.join();
+        }
+        try {
+            region = loadRegion(world, regionX, regionZ, regionKey);
+            loading.complete(region);
+            return region;
+        } catch (RuntimeException | Error e) {
+            loading.completeExceptionally(e);
+            throw e;
+        } finally {
+            world.loading.remove(regionKey, loading);
+        }
+    }
+
+    /**
+     * リージョンをストレージから読み込んで登録する
+     *
+     * ストレージにバレルがないことが分かっている場合は読み込まずに空のリージョンを登録する
+     */
+    private RegionState loadRegion(WorldIndex world, int regionX, int regionZ, long regionKey) {
+        // 読み込みを引き受けるまでの間に、他のスレッドが読み込みを完了している場合がある
+        RegionState region = readRegion(world, regionKey);
+        if (region != null) {
+            return region;
+        }
+
+        RegionLoader loader = regionLoader;
+        boolean load = needsLoad(world, regionKey);
+        RegionContents contents = load ? loader.loadRegion(new RegionPos(world.worldId, regionX, regionZ)) : null;
+
+        RegionState created = new RegionState(load && contents == null);
+        synchronized (world.loadMonitor) {
+            long stamp = world.lock.writeLock();
+            try {
+                region = world.regions.get(regionKey);
+                if (region == null) {
+                    region = created;
+                    installRegion(world, regionKey, region, contents);
+                }
+            } finally {
+                world.lock.unlockWrite(stamp);
+            }
+        }
+        if (contents != null && region.contents != contents) {
+            contents.close();
+        }
+        return region;
+    }
+
+    /**
+     * 読み込んだリージョンを登録し、内容に含まれるチャンクを未生成として登録する
+     * 書き込みロック保持中に呼び出すこと
+     * 生成待ちのチャンクがない場合、内容はリージョンに保持されないため呼び出し側で閉じること
+     */
+    private void installRegion(WorldIndex world, long regionKey, RegionState region, RegionContents contents) {
+        world.regions.put(regionKey, region);
+        world.storedChunks.remove(regionKey);
+        if (contents == null) {
+            return;
+        }
+        int regionX = PositionKey.columnX(regionKey);
+        int regionZ = PositionKey.columnZ(regionKey);
+        for (long chunkKey : contents.chunkKeys()) {
+            if (PositionKey.chunkToRegion(PositionKey.columnX(chunkKey)) != regionX
+                    || PositionKey.chunkToRegion(PositionKey.columnZ(chunkKey)) != regionZ) {
+                continue;
+            }
+            BarrelChunk chunk = world.chunks.get(chunkKey);
+            if (chunk == null) {
+                chunk = new BarrelChunk();
+                world.chunks.put(chunkKey, chunk);
+            }
+            chunk.pending = true;
+            region.pendingChunks++;
+        }
+        if (region.pendingChunks > 0) {
+            region.contents = contents;
+        }
+    }
+
+    /**
+     * 未生成のチャンクのバレルをストレージの内容から生成する
+     */
+    private void materializeChunk(WorldIndex world, RegionState region, long chunkKey) {
+        if (region.pendingChunks == 0) {
+            return;
+        }
+
+        synchronized (world.loadMonitor) {
+            RegionContents contents = region.contents;
+            if (contents == null) {
+                return;
+            }
+            long stamp = world.lock.readLock();
+            BarrelChunk chunk;
+            try {
+                chunk = world.chunks.get(chunkKey);
+            } finally {
+                world.lock.unlockRead(stamp);
+            }
+            if (chunk == null || !chunk.pending) {
+                return;
+            }
+
+            List<BarrelData> loaded = contents.loadChunk(chunkKey);
+            int skipped = 0;
+            boolean exhausted;
+            stamp = world.lock.writeLock();
+            try {
+                chunk.pending = false;
+                for (BarrelData barrel : loaded) {
+                    // 範囲外の座標は別のバレルのキーと衝突するため、破損したレコードとして読み飛ばす
+                    if (PositionKey.isPackable(barrel.getPosX(), barrel.getPosY(), barrel.getPosZ())) {
+                        insert(world, barrel);
+                    } else {
+                        skipped++;
+                    }
+                }
+                exhausted = --region.pendingChunks == 0;
+                if (exhausted) {
+                    region.contents = null;
+                }
+            } finally {
+                world.lock.unlockWrite(stamp);
+            }
+            if (exhausted) {
+                contents.close();
+            }
+            if (skipped > 0) {
+                LOGGER.warning("Skipped " + skipped + " barrels with out-of-range positions in chunk ("
+                        + PositionKey.columnX(chunkKey) + ", " + PositionKey.columnZ(chunkKey) + ") of "
+                        + world.worldId);
+            }
+        }
+    }
+
+    private RegionState readRegion(WorldIndex world, long regionKey) {
+        long stamp = world.lock.tryOptimisticRead();
+        RegionState region = world.regions.get(regionKey);
+        if (!world.lock.validate(stamp)) {
+            stamp = world.lock.readLock();
+            try {
+                region = world.regions.get(regionKey);
+            } finally {
+                world.lock.unlockRead(stamp);
+            }
+        }
+        return region;
+    }
+
+    private List<RegionPos> collectRegions(boolean idleOnly, long notTouchedSince) {
+        List<RegionPos> result = new ArrayList<>();
+        for (WorldIndex world : worlds) {
+            if (world != null) {
+                collectRegions(world, idleOnly, notTouchedSince, result);
+            }
+        }
+        return result;
+    }
+
+    private static void collectRegions(WorldIndex world, boolean idleOnly, long notTouchedSince,
+                                       List<RegionPos> result) {
+        long stamp = world.lock.readLock();
+        try {
+            world.regions.forEach((regionKey, region) -> {
+                if (!region.loadFailed && (!idleOnly || region.isIdleSince(notTouchedSince))) {
+                    result.add(new RegionPos(world.worldId,
+                            PositionKey.columnX(regionKey), PositionKey.columnZ(regionKey)));
+                }
+            });
+        } finally {
+            world.lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * 書き込みロック保持中に呼び出すこと
+     *
+     * @return 同じ座標に登録されていたバレル、存在しない場合はnull
+     */
+    private BarrelData insert(WorldIndex world, BarrelData barrel) {
+        long key = PositionKey.pack(barrel.getPosX(), barrel.getPosY(), barrel.getPosZ());
+        BarrelData previous = world.barrels.put(key, barrel);
+        if (previous == barrel) {
+            return previous;
+        }
+        long chunkKey = PositionKey.packColumn(
+                PositionKey.toChunk(barrel.getPosX()), PositionKey.toChunk(barrel.getPosZ()));
+        BarrelChunk chunk = world.chunks.get(chunkKey);
+        if (chunk == null) {
+            chunk = new BarrelChunk();
+            world.chunks.put(chunkKey, chunk);
+        }
+        if (previous != null) {
+            chunk.remove(previous);
+            previous.setChangeListener(null);
+            previous.detachIndex();
+            barrelsById.remove(previous.getId(), previous);
+        }
+        chunk.add(barrel);
+        barrel.setChangeListener(dirtyListener);
+        barrel.attachIndex(itemIndex, ownerIndex);
+        barrelsById.put(barrel.getId(), barrel);
+        return previous;
+    }
+
+    /**
+     * 書き込みロック保持中に呼び出すこと
+     */
+    private boolean remove(WorldIndex world, BarrelData barrel) {
+        long key = PositionKey.pack(barrel.getPosX(), barrel.getPosY(), barrel.getPosZ());
+        if (world.barrels.get(key) != barrel) {
+            return false;
+        }
+        world.barrels.remove(key);
+        long chunkKey = PositionKey.packColumn(
+                PositionKey.toChunk(barrel.getPosX()), PositionKey.toChunk(barrel.getPosZ()));
+        BarrelChunk chunk = world.chunks.get(chunkKey);
+        if (chunk != null && chunk.remove(barrel) && chunk.barrels.length == 0 && !chunk.pending) {
+            world.chunks.remove(chunkKey);
+        }
+        barrel.setChangeListener(null);
+        barrel.detachIndex();
+        barrelsById.remove(barrel.getId(), barrel);
+        return true;
+    }
+
+    /**
+     * 範囲と重なるチャンクのキーを列挙する
+     *
+     * 範囲内のチャンク数が読み込み済みのチャンク数以下であれば範囲を順に列挙し、
+     * そうでなければ読み込み済みのチャンクから範囲内のものを選ぶため、広い範囲でも走査量はチャンク数で抑えられる
+     */
+    private static LongStream chunkKeysIn(WorldIndex world, int minX, int minZ, int maxX, int maxZ) {
+        int minChunkX = PositionKey.toChunk(minX);
+        int minChunkZ = PositionKey.toChunk(minZ);
+        int maxChunkX = PositionKey.toChunk(maxX);
+        int maxChunkZ = PositionKey.toChunk(maxZ);
+        long width = (long) maxChunkZ - minChunkZ + 1;
+        long cells = ((long) maxChunkX - minChunkX + 1) * width;
+
+        long stamp = world.lock.readLock();
+        try {
+            if (cells <= world.chunks.size()) {
+                return LongStream.range(0, cells)
+                        .map(i -> PositionKey.packColumn((int) (minChunkX + i / width), (int) (minChunkZ + i % width)));
+            }
+            LongStream.Builder keys = LongStream.builder();
+            world.chunks.forEach((chunkKey, chunk) -> {
+                int chunkX = PositionKey.columnX(chunkKey);
+                int chunkZ = PositionKey.columnZ(chunkKey);
+                if (chunkX >= minChunkX && chunkX <= maxChunkX && chunkZ >= minChunkZ && chunkZ <= maxChunkZ) {
+                    keys.add(chunkKey);
+                }
+            });
+            return keys.build();
+        } finally {
+            world.lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * チャンクを含むリージョンが読み込み済みで、チャンクが未生成の場合は生成する
+     */
+    private void materializePending(WorldIndex world, long chunkKey) {
+        long regionKey = PositionKey.packColumn(PositionKey.chunkToRegion(PositionKey.columnX(chunkKey)),
+                PositionKey.chunkToRegion(PositionKey.columnZ(chunkKey)));
+        RegionState region = readRegion(world, regionKey);
+        if (region != null && region.pendingChunks > 0) {
+            materializeChunk(world, region, chunkKey);
+        }
+    }
+
+    /**
+     * チャンクのバレル配列を取得する
+     *
+     * 未生成のチャンクは生成せず、生成済みのバレルのみを返す
+     * 配列はコピーオンライトで更新されるため、返した配列は変更されない
+     */
+    private BarrelData[] chunkBarrels(WorldIndex world, long chunkKey) {
+        long stamp = world.lock.tryOptimisticRead();
+        BarrelChunk chunk = world.chunks.get(chunkKey);
+        BarrelData[] barrels = chunk != null ? chunk.barrels : BarrelChunk.EMPTY;
+        if (!world.lock.validate(stamp)) {
+            stamp = world.lock.readLock();
+            try {
+                chunk = world.chunks.get(chunkKey);
+                barrels = chunk != null ? chunk.barrels : BarrelChunk.EMPTY;
+            } finally {
+                world.lock.unlockRead(stamp);
+            }
+        }
+        return barrels;
+    }
+
+    /**
+     * ワールドIDに対応するインデックスを検索する、ワールドが未作成の場合は作成しない
+     */
+    private WorldIndex findWorld(String worldId) {
+        int worldHandle = worldIds.find(worldId);
+        WorldIndex[] current = worlds;
+        return worldHandle >= 0 && worldHandle < current.length ? current[worldHandle] : null;
+    }
+
+    private WorldIndex worldOf(int worldHandle) {
+        WorldIndex[] current = worlds;
+        WorldIndex world = worldHandle < current.length ? current[worldHandle] : null;
+        return world != null ? world : createWorld(worldHandle);
+    }
+
+    /**
+     * ワールドのインデックスを作成する
+     *
+     * ワールド配列はコピーオンライトで置き換えるため、読み取り側はロックなしで参照できる
+     */
+    private synchronized WorldIndex createWorld(int worldHandle) {
+        WorldIndex[] current = worlds;
+        if (worldHandle < current.length && current[worldHandle] != null) {
+            return current[worldHandle];
+        }
+        WorldIndex[] grown = Arrays.copyOf(current, Math.max(current.length, worldHandle + 1));
+        WorldIndex world = new WorldIndex(worldIds.nameOf(worldHandle));
+        grown[worldHandle] = world;
+        worlds = grown;
+        return world;
+    }
+
+    /**
+     * リージョン単位でバレルをストレージから読み込むローダー
+     */
+    @FunctionalInterface
+    public interface RegionLoader {
+        /**
+         * リージョンの内容を読み込む
+         *
+         * @param region リージョン位置
+         * @return リージョンの内容、読み込みに失敗した場合はnull
+         */
+        RegionContents loadRegion(RegionPos region);
+    }
+
+    /**
+     * アイテムによるバレル検索の結果
+     *
+     * @param itemId アイテムID
+     * @param total 検索対象のバレルに格納されている合計数量
+     * @param barrelCount アイテムを格納しているバレル数
+     * @param barrels 見つかったバレル (最大で指定した件数)
+     */
+    public record ItemSearchResult(String itemId, long total, int barrelCount, List<BarrelData> barrels) {
+    }
+
+    /**
+     * ワールドごとのインデックス
+     *
+     * マップはそのワールドのロックで保護され、他のワールドのロックとは独立している
+     */
+    private static final class WorldIndex {
+        final String worldId;
+        final StampedLock lock = new StampedLock();
+        final Object loadMonitor = new Object();
+        // 読み込み中のリージョン、同じリージョンを複数のスレッドが同時に読み込まないようにする
+        final Map<Long, CompletableFuture<RegionState>> loading = new ConcurrentHashMap<>();
+        final LongHashMap<BarrelData> barrels = new LongHashMap<>();
+        final LongHashMap<BarrelChunk> chunks = new LongHashMap<>();
+        final LongHashMap<RegionState> regions = new LongHashMap<>();
+        // 未読み込みのリージョンごとの、ストレージ上でバレルを含むチャンクのビットマップ
+        final LongHashMap<long[]> storedChunks = new LongHashMap<>();
+
+        WorldIndex(String worldId) {
+            this.worldId = worldId;
+        }
+    }
+
+    /**
+     * チャンク内のバレル一覧
+     *
+     * 配列はコピーオンライトで更新されるため、取得した配列は変更されない
+     * pendingの間はストレージ上のバレルがまだ生成されていない
+     * columnsはチャンク内の各列 (32x32) にバレルが存在するかを示すビットセット
+     */
+    private static final class BarrelChunk {
+        private static final BarrelData[] EMPTY = new BarrelData[0];
+        private static final int CHUNK_MASK = (1 << PositionKey.CHUNK_SHIFT) - 1;
+
+        final long[] columns = new long[(1 << (PositionKey.CHUNK_SHIFT * 2)) / Long.SIZE];
+        BarrelData[] barrels = EMPTY;
+        boolean pending;
+
+        void add(BarrelData barrel) {
+            BarrelData[] grown = Arrays.copyOf(barrels, barrels.length + 1);
+            grown[barrels.length] = barrel;
+            barrels = grown;
+            int column = columnIndex(barrel.getPosX(), barrel.getPosZ());
+            columns[column >>> 6] |= 1L << column;
+        }
+
+        boolean remove(BarrelData barrel) {
+            for (int i = 0; i < barrels.length; i++) {
+                if (barrels[i] == barrel) {
+                    BarrelData[] shrunk = new BarrelData[barrels.length - 1];
+                    System.arraycopy(barrels, 0, shrunk, 0, i);
+                    System.arraycopy(barrels, i + 1, shrunk, i, barrels.length - i - 1);
+                    barrels = shrunk;
+                    clearColumnIfEmpty(barrel.getPosX(), barrel.getPosZ());
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        boolean hasColumn(int x, int z) {
+            int column = columnIndex(x, z);
+            return (columns[column >>> 6] & (1L << column)) != 0;
+        }
+
+        private void clearColumnIfEmpty(int x, int z) {
+            for (BarrelData other : barrels) {
+                if (other.getPosX() == x && other.getPosZ() == z) {
+                    return;
+                }
+            }
+            int column = columnIndex(x, z);
+            columns[column >>> 6] &= ~(1L << column);
+        }
+
+        private static int columnIndex(int x, int z) {
+            return ((x & CHUNK_MASK) << PositionKey.CHUNK_SHIFT) | (z & CHUNK_MASK);
+        }
+    }
+
+    /**
+     * リージョンの読み込み状態
+     */
+    private static final class RegionState {
+        final boolean loadFailed;
+        volatile boolean dirty;
+        volatile int pendingChunks;
+        RegionContents contents;
+        volatile long lastAccess = System.nanoTime();
+
+        RegionState(boolean loadFailed) {
+            this.loadFailed = loadFailed;
+        }
+
+        void touch() {
+            lastAccess = System.nanoTime();
+        }
+
+        boolean isIdleSince(long notTouchedSince) {
+            return !loadFailed && lastAccess - notTouchedSince <= 0;
+        }
     }
 }
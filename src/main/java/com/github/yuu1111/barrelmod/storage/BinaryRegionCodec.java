@@ -0,0 +1,295 @@
+package com.github.yuu1111.barrelmod.storage;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * バイナリ形式のリージョンコーデック
+ *
+ * ファイル構造 (ビッグエンディアン):
+ * <pre>
+ * int    magic ("BRLR")
+ * short  version
+ * short  reserved
+ * int    recordCount
+ * int    stringCount
+ * string[stringCount]  (unsigned short長 + UTF-8) 0番目はワールドID、以降はアイテムID
+ * int    chunkCount
+ * chunk[chunkCount]    (int chunkX, int chunkZ, int firstRecord, int recordCount)
+ * record[recordCount]  固定長57バイト、チャンク順に整列
+ * </pre>
+ * レコードはUUIDを2つのlong、アイテムIDを文字列テーブルのインデックスとして保持する
+ */
+final class BinaryRegionCodec implements RegionCodec {
+
+    static final String FORMAT_NAME = "binary";
+    static final int MAGIC = 0x42524C52;
+    static final short VERSION = 1;
+
+    /**
+     * レコード1件のバイト数
+     * id(16) + pos(12) + item(4) + amount(4) + capacity(4) + flags(1) + owner(16)
+     */
+    static final int RECORD_SIZE = 57;
+
+    private static final int CHUNK_ENTRY_SIZE = 16;
+    private static final int NO_ITEM = -1;
+    private static final byte FLAG_LOCKED = 1;
+    private static final byte FLAG_HAS_OWNER = 1 << 1;
+
+    @Override
+    public String formatName() {
+        return FORMAT_NAME;
+    }
+
+    @Override
+    public String fileExtension() {
+        return ".bin";
+    }
+
+    @Override
+    public List<BarrelRecord> read(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Barrel region file too large: " + file);
+            }
+            ByteBuffer buffer = ByteBuffer.allocateDirect((int) size);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    throw new EOFException("Unexpected end of barrel region file: " + file);
+                }
+            }
+            buffer.flip();
+
+            try {
+                Header header = readHeader(buffer);
+                List<BarrelRecord> records = new ArrayList<>(header.recordCount());
+                for (int i = 0; i < header.recordCount(); i++) {
+                    records.add(readRecord(buffer, header.recordOffset(i), header.strings()));
+                }
+                return records;
+            } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+                throw new IOException("Truncated barrel region file: " + file, e);
+            }
+        }
+    }
+
+    /**
+     * ヘッダーのチャンクディレクトリのみを読み込む
+     *
+     * ファイルをメモリマップするため、レコード部分のページは読み込まれない
+     */
+    @Override
+    public long[] readChunkKeys(Path file) throws IOException {
+        try (Arena arena = Arena.ofConfined();
+             FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size(), arena).asByteBuffer();
+            return readHeader(buffer).chunkKeys();
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new IOException("Truncated barrel region file: " + file, e);
+        }
+    }
+
+    @Override
+    public void write(Path file, List<BarrelRecord> records) throws IOException {
+        List<BarrelRecord> sorted = new ArrayList<>(records);
+        sorted.sort(Comparator.comparingLong(BinaryRegionCodec::chunkKeyOf));
+
+        Map<String, Integer> strings = new LinkedHashMap<>();
+        strings.put(sorted.get(0).worldId(), 0);
+        List<long[]> chunks = new ArrayList<>();
+        long currentChunk = 0;
+        for (int i = 0; i < sorted.size(); i++) {
+            BarrelRecord record = sorted.get(i);
+            if (record.storedItemId() != null) {
+                strings.putIfAbsent(record.storedItemId(), strings.size());
+            }
+            long chunkKey = chunkKeyOf(record);
+            if (chunks.isEmpty() || chunkKey != currentChunk) {
+                chunks.add(new long[]{chunkKey, i, 0});
+                currentChunk = chunkKey;
+            }
+            chunks.get(chunks.size() - 1)[2]++;
+        }
+
+        List<byte[]> encodedStrings = new ArrayList<>(strings.size());
+        int size = 4 + 2 + 2 + 4 + 4 + 4 + chunks.size() * CHUNK_ENTRY_SIZE + sorted.size() * RECORD_SIZE;
+        for (String value : strings.keySet()) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            if (bytes.length > 0xFFFF) {
+                throw new IOException("String too long for barrel region file: " + value);
+            }
+            encodedStrings.add(bytes);
+            size += 2 + bytes.length;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(size);
+        buffer.putInt(MAGIC);
+        buffer.putShort(VERSION);
+        buffer.putShort((short) 0);
+        buffer.putInt(sorted.size());
+        buffer.putInt(encodedStrings.size());
+        for (byte[] bytes : encodedStrings) {
+            buffer.putShort((short) bytes.length);
+            buffer.put(bytes);
+        }
+        buffer.putInt(chunks.size());
+        for (long[] chunk : chunks) {
+            buffer.putInt(PositionKey.columnX(chunk[0]));
+            buffer.putInt(PositionKey.columnZ(chunk[0]));
+            buffer.putInt((int) chunk[1]);
+            buffer.putInt((int) chunk[2]);
+        }
+        for (BarrelRecord record : sorted) {
+            writeRecord(buffer, record, record.storedItemId() != null ? strings.get(record.storedItemId()) : NO_ITEM);
+        }
+        buffer.flip();
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+    }
+
+    /**
+     * ファイル先頭のヘッダーを読み込む
+     *
+     * @param buffer ファイル全体を保持するバッファ
+     * @return ヘッダー
+     * @throws IOException マジックナンバーまたはバージョンが不正な場合
+     */
+    static Header readHeader(ByteBuffer buffer) throws IOException {
+        buffer.position(0);
+        if (buffer.getInt() != MAGIC) {
+            throw new IOException("Not a barrel region file");
+        }
+        short version = buffer.getShort();
+        if (version < 1 || version > VERSION) {
+            throw new IOException("Unsupported barrel region version: " + version);
+        }
+        buffer.getShort();
+
+        int recordCount = buffer.getInt();
+        String[] strings = new String[buffer.getInt()];
+        for (int i = 0; i < strings.length; i++) {
+            byte[] bytes = new byte[Short.toUnsignedInt(buffer.getShort())];
+            buffer.get(bytes);
+            strings[i] = new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        int chunkCount = buffer.getInt();
+        long[] chunkKeys = new long[chunkCount];
+        int[] chunkFirst = new int[chunkCount];
+        int[] chunkSize = new int[chunkCount];
+        for (int i = 0; i < chunkCount; i++) {
+            chunkKeys[i] = PositionKey.packColumn(buffer.getInt(), buffer.getInt());
+            chunkFirst[i] = buffer.getInt();
+            chunkSize[i] = buffer.getInt();
+        }
+
+        int recordsOffset = buffer.position();
+        if ((long) recordsOffset + (long) recordCount * RECORD_SIZE > buffer.limit()) {
+            throw new IOException("Truncated barrel region file");
+        }
+        return new Header(version, strings, chunkKeys, chunkFirst, chunkSize, recordCount, recordsOffset);
+    }
+
+    /**
+     * 指定位置のレコードを読み込む
+     *
+     * バッファの位置は変更しない
+     *
+     * @param buffer ファイル全体を保持するバッファ
+     * @param offset レコードの先頭位置
+     * @param strings ヘッダーの文字列テーブル
+     * @return バレル状態
+     */
+    static BarrelRecord readRecord(ByteBuffer buffer, int offset, String[] strings) {
+        UUID id = new UUID(buffer.getLong(offset), buffer.getLong(offset + 8));
+        int posX = buffer.getInt(offset + 16);
+        int posY = buffer.getInt(offset + 20);
+        int posZ = buffer.getInt(offset + 24);
+        int itemIndex = buffer.getInt(offset + 28);
+        int storedAmount = buffer.getInt(offset + 32);
+        int maxCapacity = buffer.getInt(offset + 36);
+        byte flags = buffer.get(offset + 40);
+        UUID owner = (flags & FLAG_HAS_OWNER) != 0
+                ? new UUID(buffer.getLong(offset + 41), buffer.getLong(offset + 49))
+                : null;
+        String storedItemId = itemIndex != NO_ITEM ? strings[itemIndex] : null;
+        return new BarrelRecord(id, posX, posY, posZ, strings[0], storedItemId,
+                storedAmount, maxCapacity, (flags & FLAG_LOCKED) != 0, owner);
+    }
+
+    private static void writeRecord(ByteBuffer buffer, BarrelRecord record, int itemIndex) {
+        buffer.putLong(record.id().getMostSignificantBits());
+        buffer.putLong(record.id().getLeastSignificantBits());
+        buffer.putInt(record.posX());
+        buffer.putInt(record.posY());
+        buffer.putInt(record.posZ());
+        buffer.putInt(itemIndex);
+        buffer.putInt(record.storedAmount());
+        buffer.putInt(record.maxCapacity());
+        byte flags = 0;
+        if (record.locked()) {
+            flags |= FLAG_LOCKED;
+        }
+        if (record.ownerUuid() != null) {
+            flags |= FLAG_HAS_OWNER;
+        }
+        buffer.put(flags);
+        buffer.putLong(record.ownerUuid() != null ? record.ownerUuid().getMostSignificantBits() : 0L);
+        buffer.putLong(record.ownerUuid() != null ? record.ownerUuid().getLeastSignificantBits() : 0L);
+    }
+
+    private static long chunkKeyOf(BarrelRecord record) {
+        return PositionKey.packColumn(PositionKey.toChunk(record.posX()), PositionKey.toChunk(record.posZ()));
+    }
+
+    /**
+     * リージョンファイルのヘッダー
+     *
+     * @param version スキーマバージョン
+     * @param strings 文字列テーブル (0番目はワールドID)
+     * @param chunkKeys チャンクディレクトリのチャンクキー
+     * @param chunkFirst チャンクごとの先頭レコード番号
+     * @param chunkSize チャンクごとのレコード数
+     * @param recordCount レコード数
+     * @param recordsOffset 最初のレコードの位置
+     */
+    record Header(int version, String[] strings, long[] chunkKeys, int[] chunkFirst, int[] chunkSize,
+                  int recordCount, int recordsOffset) {
+
+        /**
+         * @param index レコード番号
+         * @return レコードの先頭位置
+         */
+        int recordOffset(int index) {
+            return recordsOffset + index * RECORD_SIZE;
+        }
+
+        @Override
+        public String toString() {
+            return "Header{version=" + version + ", strings=" + Arrays.toString(strings)
+                    + ", chunks=" + chunkKeys.length + ", records=" + recordCount + '}';
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.github.yuu1111.barrelmod.storage;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 文字列IDを小さな整数ハンドルに割り当てるインターンテーブル
+ *
+ * 一度割り当てたハンドルは変更・解放されない
+ * 検索はロックなしで行われ、新規割り当てのみ同期される
+ */
+public final class IdTable {
+
+    /**
+     * 未登録のIDを表すハンドル
+     */
+    public static final int NONE = -1;
+
+    private final Map<String, Integer> handles = new ConcurrentHashMap<>();
+    private volatile String[] names = new String[0];
+
+    /**
+     * IDに対応するハンドルを検索する
+     *
+     * @param id 文字列ID
+     * @return ハンドル、未登録の場合は{@link #NONE}
+     */
+    public int find(String id) {
+        if (id == null) {
+            return NONE;
+        }
+        Integer handle = handles.get(id);
+        return handle != null ? handle : NONE;
+    }
+
+    /**
+     * IDに対応するハンドルを取得する、未登録の場合は新規に割り当てる
+     *
+     * @param id 文字列ID
+     * @return ハンドル
+     */
+    public int intern(String id) {
+        Integer handle = handles.get(id);
+        if (handle != null) {
+            return handle;
+        }
+        synchronized (this) {
+            handle = handles.get(id);
+            if (handle != null) {
+                return handle;
+            }
+            String[] current = names;
+            String[] grown = Arrays.copyOf(current, current.length + 1);
+            grown[current.length] = id;
+            names = grown;
+            handles.put(id, current.length);
+            return current.length;
+        }
+    }
+
+    /**
+     * ハンドルに対応するIDを取得する
+     *
+     * @param handle ハンドル
+     * @return 文字列ID、範囲外の場合はnull
+     */
+    public String nameOf(int handle) {
+        String[] current = names;
+        return handle >= 0 && handle < current.length ? current[handle] : null;
+    }
+
+    /**
+     * @return 割り当て済みのハンドル数
+     */
+    public int size() {
+        return names.length;
+    }
+}
@@ -0,0 +1,51 @@
+package com.github.yuu1111.barrelmod.storage;
+
+/**
+ * アイテムIDのグローバルなインターンテーブル
+ *
+ * バレルは格納アイテムをこのテーブルのハンドルとして保持するため、
+ * 同じアイテムIDの文字列はバレルの数によらず1つだけ保持され、アイテムの比較は整数の比較になる
+ * ハンドルはプロセス内でのみ有効で、永続化データには文字列として書き込む
+ */
+public final class ItemIds {
+
+    private static final IdTable TABLE = new IdTable();
+
+    private ItemIds() {
+    }
+
+    /**
+     * アイテムIDに対応するハンドルを取得する、未登録の場合は新規に割り当てる
+     *
+     * @param itemId アイテムID
+     * @return ハンドル、itemIdがnullの場合は{@link IdTable#NONE}
+     */
+    public static int intern(String itemId) {
+        return itemId != null ? TABLE.intern(itemId) : IdTable.NONE;
+    }
+
+    /**
+     * アイテムIDに対応するハンドルを検索する
+     *
+     * @param itemId アイテムID
+     * @return ハンドル、未登録またはnullの場合は{@link IdTable#NONE}
+     */
+    public static int find(String itemId) {
+        return TABLE.find(itemId);
+    }
+
+    /**
+     * @param handle ハンドル
+     * @return アイテムID、{@link IdTable#NONE}または範囲外の場合はnull
+     */
+    public static String nameOf(int handle) {
+        return TABLE.nameOf(handle);
+    }
+
+    /**
+     * @return 登録済みのアイテムID数
+     */
+    public static int size() {
+        return TABLE.size();
+    }
+}
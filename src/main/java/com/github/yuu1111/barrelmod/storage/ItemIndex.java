@@ -0,0 +1,98 @@
+package com.github.yuu1111.barrelmod.storage;
+
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 格納アイテムからバレルを引く二次インデックス
+ *
+ * アイテムの{@link ItemIds}ハンドルごとに、そのアイテムを格納しているバレルの集合と格納数量の合計を保持する
+ * 各バレルは自身の中身が変化するたびに、前回反映した中身との差分を{@link #move}で通知する
+ * 差分の通知はバレルごとに直列化されるため、集合と合計はバレルの中身と常に一致する
+ * 空のバレルはどのアイテムの集合にも含まれない
+ */
+final class ItemIndex {
+
+    private volatile ItemEntry[] entries = new ItemEntry[0];
+
+    /**
+     * バレルの中身の変化を反映する
+     *
+     * @param barrel 対象のバレル
+     * @param oldItem 変化前のアイテムハンドル、空の場合は{@link IdTable#NONE}
+     * @param oldAmount 変化前の格納数量
+     * @param newItem 変化後のアイテムハンドル、空の場合は{@link IdTable#NONE}
+     * @param newAmount 変化後の格納数量
+     */
+    void move(BarrelData barrel, int oldItem, int oldAmount, int newItem, int newAmount) {
+        if (oldItem == newItem) {
+            if (oldItem != IdTable.NONE && oldAmount != newAmount) {
+                entryOf(oldItem).total.add((long) newAmount - oldAmount);
+            }
+            return;
+        }
+        if (oldItem != IdTable.NONE) {
+            ItemEntry entry = entryOf(oldItem);
+            entry.barrels.remove(barrel);
+            entry.total.add(-oldAmount);
+        }
+        if (newItem != IdTable.NONE) {
+            ItemEntry entry = entryOf(newItem);
+            entry.barrels.add(barrel);
+            entry.total.add(newAmount);
+        }
+    }
+
+    /**
+     * @param item アイテムハンドル
+     * @return アイテムを格納しているバレルの集合 (読み取り専用として扱うこと)、該当がない場合は空の集合
+     */
+    Set<BarrelData> barrelsOf(int item) {
+        ItemEntry entry = find(item);
+        return entry != null ? entry.barrels : Set.of();
+    }
+
+    /**
+     * @param item アイテムハンドル
+     * @return 読み込み済みのバレルに格納されているアイテムの合計数量
+     */
+    long totalOf(int item) {
+        ItemEntry entry = find(item);
+        return entry != null ? entry.total.sum() : 0;
+    }
+
+    private ItemEntry find(int item) {
+        ItemEntry[] current = entries;
+        return item >= 0 && item < current.length ? current[item] : null;
+    }
+
+    private ItemEntry entryOf(int item) {
+        ItemEntry entry = find(item);
+        return entry != null ? entry : createEntry(item);
+    }
+
+    /**
+     * エントリ配列はコピーオンライトで置き換えるため、読み取り側はロックなしで参照できる
+     */
+    private synchronized ItemEntry createEntry(int item) {
+        ItemEntry[] current = entries;
+        if (item < current.length && current[item] != null) {
+            return current[item];
+        }
+        ItemEntry[] grown = Arrays.copyOf(current, Math.max(current.length, item + 1));
+        ItemEntry entry = new ItemEntry();
+        grown[item] = entry;
+        entries = grown;
+        return entry;
+    }
+
+    /**
+     * アイテムごとのバレル集合と合計数量
+     */
+    private static final class ItemEntry {
+        final Set<BarrelData> barrels = ConcurrentHashMap.newKeySet();
+        final LongAdder total = new LongAdder();
+    }
+}
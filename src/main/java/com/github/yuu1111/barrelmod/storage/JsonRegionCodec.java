@@ -0,0 +1,220 @@
+package com.github.yuu1111.barrelmod.storage;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+/**
+ * JSON形式のリージョンコーデック
+ *
+ * 旧形式の単一ファイル (barrels.json) と同じバレル配列形式で読み書きする
+ * Gsonのストリーミング API を使用し、ファイル全体をメモリ上のリストに展開せずに1件ずつ処理する
+ * 内容が不正なレコードは読み飛ばして報告し、残りのレコードの読み込みを継続する
+ */
+final class JsonRegionCodec implements RegionCodec {
+
+    static final String FORMAT_NAME = "json";
+
+    private static final Logger LOGGER = Logger.getLogger("BarrelMod");
+    private static final String INDENT = "  ";
+
+    @Override
+    public String formatName() {
+        return FORMAT_NAME;
+    }
+
+    @Override
+    public String fileExtension() {
+        return ".json";
+    }
+
+    @Override
+    public List<BarrelRecord> read(Path file) throws IOException {
+        List<BarrelRecord> records = new ArrayList<>();
+        forEach(file, records::add);
+        return records;
+    }
+
+    /**
+     * ファイル内のバレルを1件ずつ読み込んで処理する
+     *
+     * 内容が不正なレコードは警告を出力して読み飛ばす
+     * JSONの構文自体が壊れている場合は以降のレコードを特定できないため例外とする
+     *
+     * @param file JSONファイル
+     * @param consumer 読み込んだレコードを受け取る処理
+     * @return 読み飛ばしたレコード数
+     * @throws IOException 読み込みに失敗した場合、またはJSONの構文が不正な場合
+     */
+    int forEach(Path file, Consumer<BarrelRecord> consumer) throws IOException {
+        int skipped = 0;
+        try (Reader reader = Files.newBufferedReader(file);
+             JsonReader json = new JsonReader(reader)) {
+            if (json.peek() == JsonToken.NULL) {
+                return 0;
+            }
+
+            json.beginArray();
+            int index = 0;
+            while (json.hasNext()) {
+                JsonElement element = JsonParser.parseReader(json);
+                BarrelRecord record = toRecord(element);
+                if (record != null) {
+                    consumer.accept(record);
+                } else {
+                    skipped++;
+                    LOGGER.warning("Skipped invalid barrel record #" + index + " in " + file + ": " + element);
+                }
+                index++;
+            }
+            json.endArray();
+        } catch (JsonParseException | IllegalStateException e) {
+            throw new IOException("Malformed barrel JSON file: " + file, e);
+        }
+
+        if (skipped > 0) {
+            LOGGER.warning("Skipped " + skipped + " invalid barrel records in " + file);
+        }
+        return skipped;
+    }
+
+    /**
+     * 各レコードの座標のみを読み取り、他の項目は解析せずに読み飛ばす
+     *
+     * 座標が欠落したレコードは読み飛ばす
+     */
+    @Override
+    public long[] readChunkKeys(Path file) throws IOException {
+        LongHashMap<Boolean> chunks = new LongHashMap<>();
+        try (Reader reader = Files.newBufferedReader(file);
+             JsonReader json = new JsonReader(reader)) {
+            if (json.peek() == JsonToken.NULL) {
+                return new long[0];
+            }
+
+            json.beginArray();
+            while (json.hasNext()) {
+                if (json.peek() != JsonToken.BEGIN_OBJECT) {
+                    json.skipValue();
+                    continue;
+                }
+                Integer posX = null;
+                Integer posZ = null;
+                json.beginObject();
+                while (json.hasNext()) {
+                    String name = json.nextName();
+                    if (json.peek() == JsonToken.NUMBER && name.equals("posX")) {
+                        posX = json.nextInt();
+                    } else if (json.peek() == JsonToken.NUMBER && name.equals("posZ")) {
+                        posZ = json.nextInt();
+                    } else {
+                        json.skipValue();
+                    }
+                }
+                json.endObject();
+                if (posX != null && posZ != null) {
+                    chunks.put(PositionKey.packColumn(PositionKey.toChunk(posX), PositionKey.toChunk(posZ)), Boolean.TRUE);
+                }
+            }
+            json.endArray();
+        } catch (NumberFormatException | IllegalStateException e) {
+            throw new IOException("Malformed barrel JSON file: " + file, e);
+        }
+
+        long[] keys = new long[chunks.size()];
+        int[] index = {0};
+        chunks.forEach((key, value) -> keys[index[0]++] = key);
+        Arrays.sort(keys);
+        return keys;
+    }
+
+    @Override
+    public void write(Path file, List<BarrelRecord> records) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            JsonWriter json = new JsonWriter(new BufferedWriter(Channels.newWriter(channel, StandardCharsets.UTF_8)));
+            json.setIndent(INDENT);
+            json.setSerializeNulls(false);
+            json.beginArray();
+            for (BarrelRecord record : records) {
+                writeRecord(json, record);
+            }
+            json.endArray();
+            json.flush();
+            channel.force(true);
+        }
+    }
+
+    private static void writeRecord(JsonWriter json, BarrelRecord record) throws IOException {
+        json.beginObject();
+        json.name("id").value(record.id().toString());
+        json.name("posX").value(record.posX());
+        json.name("posY").value(record.posY());
+        json.name("posZ").value(record.posZ());
+        json.name("worldId").value(record.worldId());
+        json.name("storedItemId").value(record.storedItemId());
+        json.name("storedAmount").value(record.storedAmount());
+        json.name("maxCapacity").value(record.maxCapacity());
+        json.name("locked").value(record.locked());
+        json.name("ownerUuid").value(record.ownerUuid() != null ? record.ownerUuid().toString() : null);
+        json.endObject();
+    }
+
+    /**
+     * JSONオブジェクトをレコードに変換する
+     *
+     * @return レコード、必須項目の欠落や型の不一致がある場合はnull
+     */
+    private static BarrelRecord toRecord(JsonElement element) {
+        if (!element.isJsonObject()) {
+            return null;
+        }
+        JsonObject object = element.getAsJsonObject();
+        try {
+            String worldId = getString(object, "worldId");
+            String id = getString(object, "id");
+            if (worldId == null || id == null) {
+                return null;
+            }
+            String owner = getString(object, "ownerUuid");
+            return new BarrelRecord(
+                    UUID.fromString(id),
+                    object.get("posX").getAsInt(),
+                    object.get("posY").getAsInt(),
+                    object.get("posZ").getAsInt(),
+                    worldId,
+                    getString(object, "storedItemId"),
+                    object.get("storedAmount").getAsInt(),
+                    object.get("maxCapacity").getAsInt(),
+                    object.has("locked") && object.get("locked").getAsBoolean(),
+                    owner != null ? UUID.fromString(owner) : null);
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static String getString(JsonObject object, String name) {
+        JsonElement value = object.get(name);
+        return value != null && !value.isJsonNull() ? value.getAsString() : null;
+    }
+}
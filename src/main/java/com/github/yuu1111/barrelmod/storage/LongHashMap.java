@@ -0,0 +1,250 @@
+package com.github.yuu1111.barrelmod.storage;
+
+import java.util.function.Consumer;
+
+/**
+ * プリミティブlongキーのオープンアドレス法ハッシュマップ
+ *
+ * 線形探索とバックワードシフト削除を用いるためトゥームストーンを持たない
+ * 値がnullのスロットを空きとして扱うため、null値は格納できない
+ * スレッドセーフではないため、呼び出し側で排他制御を行う必要がある
+ * ただし{@link #get(long)}はリサイズ中に呼ばれても例外を投げないため、楽観的読み取りと組み合わせて使用できる
+ *
+ * @param <V> 値の型
+ */
+public final class LongHashMap<V> {
+
+    private static final int DEFAULT_CAPACITY = 16;
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private long[] keys;
+    private Object[] values;
+    private int size;
+    private int resizeThreshold;
+
+    /**
+     * 空のマップを作成する
+     */
+    public LongHashMap() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * 指定した初期容量でマップを作成する
+     *
+     * @param expectedSize 想定要素数
+     */
+    public LongHashMap(int expectedSize) {
+        int capacity = tableSizeFor(Math.max(DEFAULT_CAPACITY, (int) (expectedSize / LOAD_FACTOR)));
+        this.keys = new long[capacity];
+        this.values = new Object[capacity];
+        this.resizeThreshold = (int) (capacity * LOAD_FACTOR);
+    }
+
+    /**
+     * キーに対応する値を取得する
+     *
+     * @param key キー
+     * @return 値、存在しない場合はnull
+     */
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        long[] k = keys;
+        Object[] v = values;
+        if (k.length != v.length) {
+            return null;
+        }
+        int mask = k.length - 1;
+        int index = mix(key) & mask;
+        for (int probes = 0; probes < k.length; probes++) {
+            Object value = v[index];
+            if (value == null) {
+                return null;
+            }
+            if (k[index] == key) {
+                return (V) value;
+            }
+            index = (index + 1) & mask;
+        }
+        return null;
+    }
+
+    /**
+     * キーが存在するか確認する
+     *
+     * @param key キー
+     * @return 存在する場合true
+     */
+    public boolean containsKey(long key) {
+        return get(key) != null;
+    }
+
+    /**
+     * 値を格納する
+     *
+     * @param key キー
+     * @param value 値 (nullは不可)
+     * @return 以前の値、存在しなかった場合はnull
+     */
+    @SuppressWarnings("unchecked")
+    public V put(long key, V value) {
+        if (value == null) {
+            throw new IllegalArgumentException("null values are not supported");
+        }
+        int mask = keys.length - 1;
+        int index = mix(key) & mask;
+        while (values[index] != null) {
+            if (keys[index] == key) {
+                V previous = (V) values[index];
+                values[index] = value;
+                return previous;
+            }
+            index = (index + 1) & mask;
+        }
+        keys[index] = key;
+        values[index] = value;
+        if (++size > resizeThreshold) {
+            resize(keys.length << 1);
+        }
+        return null;
+    }
+
+    /**
+     * キーに対応する値を削除する
+     *
+     * @param key キー
+     * @return 削除された値、存在しなかった場合はnull
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(long key) {
+        int mask = keys.length - 1;
+        int index = mix(key) & mask;
+        while (values[index] != null) {
+            if (keys[index] == key) {
+                V previous = (V) values[index];
+                shiftBack(index);
+                size--;
+                return previous;
+            }
+            index = (index + 1) & mask;
+        }
+        return null;
+    }
+
+    /**
+     * @return 要素数
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return 空の場合true
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * 全ての要素を削除する
+     */
+    public void clear() {
+        keys = new long[DEFAULT_CAPACITY];
+        values = new Object[DEFAULT_CAPACITY];
+        resizeThreshold = (int) (DEFAULT_CAPACITY * LOAD_FACTOR);
+        size = 0;
+    }
+
+    /**
+     * 全ての値に対して処理を実行する
+     *
+     * @param action 実行する処理
+     */
+    @SuppressWarnings("unchecked")
+    public void forEachValue(Consumer<? super V> action) {
+        Object[] v = values;
+        for (Object value : v) {
+            if (value != null) {
+                action.accept((V) value);
+            }
+        }
+    }
+
+    /**
+     * 全てのエントリに対して処理を実行する
+     *
+     * @param action キーと値を受け取る処理
+     */
+    @SuppressWarnings("unchecked")
+    public void forEach(EntryConsumer<? super V> action) {
+        long[] k = keys;
+        Object[] v = values;
+        for (int i = 0; i < v.length; i++) {
+            if (v[i] != null) {
+                action.accept(k[i], (V) v[i]);
+            }
+        }
+    }
+
+    /**
+     * キーをボックス化せずにエントリを受け取る処理
+     *
+     * @param <V> 値の型
+     */
+    @FunctionalInterface
+    public interface EntryConsumer<V> {
+        /**
+         * @param key キー
+         * @param value 値
+         */
+        void accept(long key, V value);
+    }
+
+    private void shiftBack(int index) {
+        int mask = keys.length - 1;
+        int hole = index;
+        int next = (hole + 1) & mask;
+        while (values[next] != null) {
+            int ideal = mix(keys[next]) & mask;
+            // holeが (ideal, next] の範囲外にある場合のみ要素を詰められる
+            if (((next - ideal) & mask) >= ((next - hole) & mask)) {
+                keys[hole] = keys[next];
+                values[hole] = values[next];
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+        values[hole] = null;
+    }
+
+    private void resize(int newCapacity) {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        long[] newKeys = new long[newCapacity];
+        Object[] newValues = new Object[newCapacity];
+        int mask = newCapacity - 1;
+        for (int i = 0; i < oldValues.length; i++) {
+            if (oldValues[i] != null) {
+                int index = mix(oldKeys[i]) & mask;
+                while (newValues[index] != null) {
+                    index = (index + 1) & mask;
+                }
+                newKeys[index] = oldKeys[i];
+                newValues[index] = oldValues[i];
+            }
+        }
+        this.keys = newKeys;
+        this.values = newValues;
+        this.resizeThreshold = (int) (newCapacity * LOAD_FACTOR);
+    }
+
+    private static int mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private static int tableSizeFor(int capacity) {
+        int n = Integer.highestOneBit(capacity - 1) << 1;
+        return Math.max(n, DEFAULT_CAPACITY);
+    }
+}
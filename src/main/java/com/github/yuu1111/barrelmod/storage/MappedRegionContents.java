@@ -0,0 +1,77 @@
+package com.github.yuu1111.barrelmod.storage;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * メモリマップしたバイナリ形式リージョンファイルの内容
+ *
+ * 読み込み時はヘッダーとチャンクディレクトリのみを解析し、
+ * バレルはチャンクへの初回アクセス時にマップされたレコードから生成する
+ * マッピングは{@link #close()}で即座に解除されるため、同じファイルへの書き込みと競合しない
+ */
+final class MappedRegionContents implements RegionContents {
+
+    private final Arena arena;
+    private final ByteBuffer buffer;
+    private final BinaryRegionCodec.Header header;
+
+    private MappedRegionContents(Arena arena, ByteBuffer buffer, BinaryRegionCodec.Header header) {
+        this.arena = arena;
+        this.buffer = buffer;
+        this.header = header;
+    }
+
+    /**
+     * リージョンファイルをメモリマップで開く
+     *
+     * @param file バイナリ形式のリージョンファイル
+     * @return リージョンの内容
+     * @throws IOException ファイルを開けない場合、またはファイル形式が不正な場合
+     */
+    static MappedRegionContents open(Path file) throws IOException {
+        Arena arena = Arena.ofShared();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MemorySegment segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size(), arena);
+            ByteBuffer buffer = segment.asByteBuffer();
+            return new MappedRegionContents(arena, buffer, BinaryRegionCodec.readHeader(buffer));
+        } catch (IOException | RuntimeException e) {
+            arena.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public long[] chunkKeys() {
+        return header.chunkKeys();
+    }
+
+    @Override
+    public List<BarrelData> loadChunk(long chunkKey) {
+        int index = Arrays.binarySearch(header.chunkKeys(), chunkKey);
+        if (index < 0) {
+            return List.of();
+        }
+
+        int first = header.chunkFirst()[index];
+        int count = header.chunkSize()[index];
+        List<BarrelData> barrels = new ArrayList<>(count);
+        for (int i = first; i < first + count; i++) {
+            barrels.add(BinaryRegionCodec.readRecord(buffer, header.recordOffset(i), header.strings()).toBarrelData());
+        }
+        return barrels;
+    }
+
+    @Override
+    public void close() {
+        arena.close();
+    }
+}
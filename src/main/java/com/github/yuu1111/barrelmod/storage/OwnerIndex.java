@@ -0,0 +1,141 @@
+package com.github.yuu1111.barrelmod.storage;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * オーナーからバレルを引く二次インデックス
+ *
+ * オーナーごとに、所有するバレルの総数と読み込み済みのバレルの集合を保持する
+ * 総数は未読み込みのリージョンにあるバレルも含み、バレルの作成・削除・オーナー変更でのみ増減する
+ * 読み込み済みの集合はリージョンの読み込み・解放に合わせてバレル自身が登録・解除する
+ * 上限付きの追加はCASで行うため、同じオーナーの設置が同時に行われても上限を超えない
+ */
+final class OwnerIndex {
+
+    private final Map<UUID, OwnerEntry> owners = new ConcurrentHashMap<>();
+
+    /**
+     * 上限に達していなければ所有数を1増やす
+     *
+     * @param owner オーナーUUID
+     * @param quota 所有数の上限、0以下の場合は無制限
+     * @return 増やした場合true
+     */
+    boolean tryAdd(UUID owner, int quota) {
+        AtomicInteger count = entryOf(owner).count;
+        while (true) {
+            int current = count.get();
+            if (quota > 0 && current >= quota) {
+                return false;
+            }
+            if (count.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @param owner オーナーUUID、nullの場合は何もしない
+     */
+    void add(UUID owner) {
+        if (owner != null) {
+            entryOf(owner).count.incrementAndGet();
+        }
+    }
+
+    /**
+     * @param owner オーナーUUID、nullの場合は何もしない
+     */
+    void remove(UUID owner) {
+        if (owner != null) {
+            entryOf(owner).count.updateAndGet(count -> Math.max(0, count - 1));
+        }
+    }
+
+    /**
+     * 読み込み済みのバレルを登録する
+     *
+     * @param owner オーナーUUID、nullの場合は何もしない
+     * @param barrel 対象のバレル
+     */
+    void attach(UUID owner, BarrelData barrel) {
+        if (owner != null) {
+            entryOf(owner).loaded.add(barrel);
+        }
+    }
+
+    /**
+     * 読み込み済みのバレルの登録を解除する
+     *
+     * @param owner オーナーUUID、nullの場合は何もしない
+     * @param barrel 対象のバレル
+     */
+    void detach(UUID owner, BarrelData barrel) {
+        OwnerEntry entry = owner != null ? owners.get(owner) : null;
+        if (entry != null) {
+            entry.loaded.remove(barrel);
+        }
+    }
+
+    /**
+     * @param owner オーナーUUID
+     * @return 所有するバレルの総数 (未読み込みのリージョンを含む)
+     */
+    int countOf(UUID owner) {
+        OwnerEntry entry = owners.get(owner);
+        return entry != null ? entry.count.get() : 0;
+    }
+
+    /**
+     * @param owner オーナーUUID
+     * @return 読み込み済みのバレルの集合の読み取り専用ビュー
+     */
+    Set<BarrelData> loadedOf(UUID owner) {
+        OwnerEntry entry = owners.get(owner);
+        return entry != null ? Collections.unmodifiableSet(entry.loaded) : Set.of();
+    }
+
+    /**
+     * @return オーナーごとの所有数、所有数が0のオーナーは含まない
+     */
+    Map<UUID, Integer> counts() {
+        Map<UUID, Integer> counts = new HashMap<>();
+        owners.forEach((owner, entry) -> {
+            int count = entry.count.get();
+            if (count > 0) {
+                counts.put(owner, count);
+            }
+        });
+        return counts;
+    }
+
+    /**
+     * 所有数を置き換える
+     *
+     * 読み込み済みのバレルの集合はそのまま保持する
+     *
+     * @param counts オーナーごとの所有数
+     */
+    void setCounts(Map<UUID, Integer> counts) {
+        owners.forEach((owner, entry) -> entry.count.set(0));
+        counts.forEach((owner, count) -> entryOf(owner).count.set(Math.max(0, count)));
+    }
+
+    private OwnerEntry entryOf(UUID owner) {
+        return owners.computeIfAbsent(owner, key -> new OwnerEntry());
+    }
+
+    /**
+     * オーナーごとの所有数と読み込み済みのバレル
+     */
+    private static final class OwnerEntry {
+        final AtomicInteger count = new AtomicInteger();
+        final Set<BarrelData> loaded = ConcurrentHashMap.newKeySet();
+    }
+}
@@ -0,0 +1,157 @@
+package com.github.yuu1111.barrelmod.storage;
+
+/**
+ * ブロック座標を1つのlong値にパックするユーティリティ
+ *
+ * X/Zは26ビット、Yは12ビットの符号付き整数として格納する
+ * 文字列キーを生成せずに座標をハッシュマップのキーとして扱うために使用する
+ * チャンク・リージョン単位の2次元キーも同様にlong値で表現する
+ */
+public final class PositionKey {
+
+    /**
+     * チャンク1辺のブロック数のシフト量 (32ブロック)
+     */
+    public static final int CHUNK_SHIFT = 5;
+
+    /**
+     * リージョン1辺のチャンク数のシフト量 (16チャンク)
+     */
+    public static final int REGION_SHIFT = 4;
+
+    private static final int XZ_BITS = 26;
+    private static final int Y_BITS = 12;
+
+    /**
+     * パックできるX/Z座標の最小値
+     */
+    public static final int MIN_XZ = -(1 << (XZ_BITS - 1));
+
+    /**
+     * パックできるX/Z座標の最大値
+     */
+    public static final int MAX_XZ = (1 << (XZ_BITS - 1)) - 1;
+
+    /**
+     * パックできるY座標の最小値
+     */
+    public static final int MIN_Y = -(1 << (Y_BITS - 1));
+
+    /**
+     * パックできるY座標の最大値
+     */
+    public static final int MAX_Y = (1 << (Y_BITS - 1)) - 1;
+
+    private static final long XZ_MASK = (1L << XZ_BITS) - 1;
+    private static final long Y_MASK = (1L << Y_BITS) - 1;
+    private static final int X_SHIFT = XZ_BITS + Y_BITS;
+    private static final int Z_SHIFT = Y_BITS;
+
+    private PositionKey() {
+    }
+
+    /**
+     * 座標がパックできる範囲内か判定する
+     *
+     * @param x X座標
+     * @param y Y座標
+     * @param z Z座標
+     * @return X/Zが{@link #MIN_XZ}から{@link #MAX_XZ}、Yが{@link #MIN_Y}から{@link #MAX_Y}の範囲内の場合true
+     */
+    public static boolean isPackable(int x, int y, int z) {
+        return x >= MIN_XZ && x <= MAX_XZ && z >= MIN_XZ && z <= MAX_XZ && y >= MIN_Y && y <= MAX_Y;
+    }
+
+    /**
+     * 座標をパックする
+     *
+     * 範囲外の座標は切り詰めると別の座標のキーと衝突するため、パックせずに例外を投げる
+     *
+     * @param x X座標
+     * @param y Y座標
+     * @param z Z座標
+     * @return パックされた座標キー
+     * @throws IllegalArgumentException 座標が{@link #isPackable}の範囲外の場合
+     */
+    public static long pack(int x, int y, int z) {
+        if (!isPackable(x, y, z)) {
+            throw new IllegalArgumentException("Position out of range: " + x + ", " + y + ", " + z);
+        }
+        return ((x & XZ_MASK) << X_SHIFT) | ((z & XZ_MASK) << Z_SHIFT) | (y & Y_MASK);
+    }
+
+    /**
+     * @param key パックされた座標キー
+     * @return X座標
+     */
+    public static int unpackX(long key) {
+        return (int) (key >> X_SHIFT);
+    }
+
+    /**
+     * @param key パックされた座標キー
+     * @return Y座標
+     */
+    public static int unpackY(long key) {
+        return (int) (key << (64 - Y_BITS) >> (64 - Y_BITS));
+    }
+
+    /**
+     * @param key パックされた座標キー
+     * @return Z座標
+     */
+    public static int unpackZ(long key) {
+        return (int) (key << (64 - X_SHIFT) >> (64 - XZ_BITS));
+    }
+
+    /**
+     * 2次元の列座標 (チャンク座標、リージョン座標など) をパックする
+     *
+     * @param x X方向の座標
+     * @param z Z方向の座標
+     * @return パックされた列キー
+     */
+    public static long packColumn(int x, int z) {
+        return ((long) x << 32) | (z & 0xFFFFFFFFL);
+    }
+
+    /**
+     * @param key パックされた列キー
+     * @return X方向の座標
+     */
+    public static int columnX(long key) {
+        return (int) (key >> 32);
+    }
+
+    /**
+     * @param key パックされた列キー
+     * @return Z方向の座標
+     */
+    public static int columnZ(long key) {
+        return (int) key;
+    }
+
+    /**
+     * @param block ブロック座標
+     * @return そのブロックを含むチャンク座標
+     */
+    public static int toChunk(int block) {
+        return block >> CHUNK_SHIFT;
+    }
+
+    /**
+     * @param chunk チャンク座標
+     * @return そのチャンクを含むリージョン座標
+     */
+    public static int chunkToRegion(int chunk) {
+        return chunk >> REGION_SHIFT;
+    }
+
+    /**
+     * @param block ブロック座標
+     * @return そのブロックを含むリージョン座標
+     */
+    public static int toRegion(int block) {
+        return block >> (CHUNK_SHIFT + REGION_SHIFT);
+    }
+}
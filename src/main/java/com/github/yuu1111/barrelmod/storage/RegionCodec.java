@@ -0,0 +1,65 @@
+package com.github.yuu1111.barrelmod.storage;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * リージョンファイルの読み書きを行うコーデック
+ *
+ * 保存形式ごとに実装を持ち、{@link BarrelDataManager}から使用される
+ */
+interface RegionCodec {
+
+    /**
+     * @return 設定ファイルで指定する形式名
+     */
+    String formatName();
+
+    /**
+     * @return リージョンファイルの拡張子 (ドットを含む)
+     */
+    String fileExtension();
+
+    /**
+     * リージョンファイルを読み込む
+     *
+     * @param file リージョンファイル
+     * @return バレル状態のリスト
+     * @throws IOException 読み込みに失敗した場合、またはファイル形式が不正な場合
+     */
+    List<BarrelRecord> read(Path file) throws IOException;
+
+    /**
+     * リージョンファイルを書き込み、ディスクへの反映 (fsync) まで行う
+     *
+     * @param file リージョンファイル
+     * @param records バレル状態のリスト (空でないこと)
+     * @throws IOException 書き込みに失敗した場合
+     */
+    void write(Path file, List<BarrelRecord> records) throws IOException;
+
+    /**
+     * リージョンファイルに含まれるバレルのチャンクを読み込む
+     *
+     * バレル自体は復元しないため、全件の読み込みより軽量に行える
+     *
+     * @param file リージョンファイル
+     * @return チャンクキーの昇順の配列 (重複なし)
+     * @throws IOException 読み込みに失敗した場合、またはファイル形式が不正な場合
+     */
+    long[] readChunkKeys(Path file) throws IOException;
+
+    /**
+     * 形式名に対応するコーデックを取得する
+     *
+     * @param formatName 形式名 (binary または json)
+     * @return コーデック、不明な形式の場合はバイナリ形式
+     */
+    static RegionCodec forFormat(String formatName) {
+        if (JsonRegionCodec.FORMAT_NAME.equalsIgnoreCase(formatName)) {
+            return new JsonRegionCodec();
+        }
+        return new BinaryRegionCodec();
+    }
+}
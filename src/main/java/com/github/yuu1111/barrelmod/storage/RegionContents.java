@@ -0,0 +1,70 @@
+package com.github.yuu1111.barrelmod.storage;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * ストレージから読み込んだリージョンの内容
+ *
+ * レジストリはチャンクに初めてアクセスした時点で{@link #loadChunk(long)}を呼び出し、
+ * そのチャンクのバレルのみを生成する
+ * 全てのチャンクを生成し終えるか、リージョンが解放された時点で{@link #close()}が呼ばれる
+ */
+public interface RegionContents {
+
+    /**
+     * @return バレルを含むチャンクのキー ({@link PositionKey#packColumn(int, int)})
+     */
+    long[] chunkKeys();
+
+    /**
+     * チャンクに含まれるバレルを生成する
+     *
+     * 各チャンクにつき1回だけ呼び出される
+     *
+     * @param chunkKey チャンクキー
+     * @return バレルのリスト
+     */
+    List<BarrelData> loadChunk(long chunkKey);
+
+    /**
+     * 保持しているリソースを解放する
+     */
+    void close();
+
+    /**
+     * 生成済みのバレルからリージョンの内容を作成する
+     *
+     * @param barrels リージョンに含まれるバレル
+     * @return リージョンの内容
+     */
+    static RegionContents of(List<BarrelData> barrels) {
+        Map<Long, List<BarrelData>> byChunk = new HashMap<>();
+        for (BarrelData barrel : barrels) {
+            long chunkKey = PositionKey.packColumn(
+                    PositionKey.toChunk(barrel.getPosX()), PositionKey.toChunk(barrel.getPosZ()));
+            byChunk.computeIfAbsent(chunkKey, key -> new ArrayList<>()).add(barrel);
+        }
+
+        long[] chunkKeys = byChunk.keySet().stream().mapToLong(Long::longValue).toArray();
+        return new RegionContents() {
+            @Override
+            public long[] chunkKeys() {
+                return chunkKeys;
+            }
+
+            @Override
+            public List<BarrelData> loadChunk(long chunkKey) {
+                List<BarrelData> chunk = byChunk.remove(chunkKey);
+                return chunk != null ? chunk : List.of();
+            }
+
+            @Override
+            public void close() {
+                byChunk.clear();
+            }
+        };
+    }
+}
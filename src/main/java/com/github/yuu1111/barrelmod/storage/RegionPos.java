@@ -0,0 +1,26 @@
+package com.github.yuu1111.barrelmod.storage;
+
+/**
+ * ワールド内のリージョン位置
+ *
+ * リージョンはバレルデータを読み込み・解放・保存する単位で、
+ * 1辺{@code 1 << PositionKey.REGION_SHIFT}チャンクの正方形領域を表す
+ *
+ * @param worldId ワールドID
+ * @param regionX リージョンX座標
+ * @param regionZ リージョンZ座標
+ */
+public record RegionPos(String worldId, int regionX, int regionZ) {
+
+    /**
+     * ブロック座標を含むリージョンを取得する
+     *
+     * @param worldId ワールドID
+     * @param x ブロックX座標
+     * @param z ブロックZ座標
+     * @return リージョン位置
+     */
+    public static RegionPos ofBlock(String worldId, int x, int z) {
+        return new RegionPos(worldId, PositionKey.toRegion(x), PositionKey.toRegion(z));
+    }
+}
@@ -0,0 +1,207 @@
+package com.github.yuu1111.barrelmod.trace;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * バレル操作のイベントトレース
+ *
+ * イベントはログに出力せず、固定長のリングバッファに記録して必要な時にまとめて出力する
+ * 呼び出し側は{@link #shouldRecord(Level)}で判定してから記録することで、
+ * 無効時は引数の生成や文字列の整形を一切行わない
+ * 記録はロックを使用せず、バッファが一杯になると古いイベントから上書きされる
+ *
+ * 使用例:
+ * <pre>
+ * if (trace.shouldRecord(BarrelTrace.Level.DEBUG)) {
+ *     trace.record(BarrelTrace.Level.DEBUG, BarrelTrace.Event.MISS, x, y, z, playerName);
+ * }
+ * </pre>
+ */
+public class BarrelTrace {
+
+    private final Level level;
+    private final int sampleRate;
+    private final int mask;
+    private final AtomicLong sequence = new AtomicLong();
+    private final AtomicReferenceArray<Entry> buffer;
+
+    /**
+     * トレースを作成する
+     *
+     * @param level 記録するイベントの最低レベル
+     * @param sampleRate N件に1件を記録する (1以下の場合は全件)
+     * @param bufferSize バッファに保持するイベント数 (2の累乗に切り上げる)
+     */
+    public BarrelTrace(Level level, int sampleRate, int bufferSize) {
+        this.level = level;
+        this.sampleRate = Math.max(1, sampleRate);
+        int capacity = Integer.highestOneBit(Math.max(1, bufferSize - 1)) << 1;
+        this.mask = capacity - 1;
+        this.buffer = new AtomicReferenceArray<>(capacity);
+    }
+
+    /**
+     * 設定値からトレースを作成する
+     *
+     * @param levelName レベル名 (OFF、INFO または DEBUG)、不明な値の場合はOFF
+     * @param sampleRate N件に1件を記録する
+     * @param bufferSize バッファに保持するイベント数
+     * @return トレース
+     */
+    public static BarrelTrace fromConfig(String levelName, int sampleRate, int bufferSize) {
+        Level parsed;
+        try {
+            parsed = Level.valueOf(levelName.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException | NullPointerException e) {
+            parsed = Level.OFF;
+        }
+        return new BarrelTrace(parsed, sampleRate, bufferSize);
+    }
+
+    /**
+     * イベントを記録するか判定する
+     *
+     * レベルの判定後、サンプリングが有効な場合はN件に1件のみtrueを返す
+     *
+     * @param eventLevel イベントのレベル
+     * @return 記録する場合true
+     */
+    public boolean shouldRecord(Level eventLevel) {
+        if (eventLevel.ordinal() > level.ordinal() || level == Level.OFF) {
+            return false;
+        }
+        return sampleRate == 1 || ThreadLocalRandom.current().nextInt(sampleRate) == 0;
+    }
+
+    /**
+     * イベントをバッファに記録する
+     *
+     * {@link #shouldRecord(Level)}がtrueを返した場合のみ呼び出すこと
+     *
+     * @param eventLevel イベントのレベル
+     * @param event イベントの種類
+     * @param x X座標
+     * @param y Y座標
+     * @param z Z座標
+     * @param detail 補足情報、不要な場合はnull
+     */
+    public void record(Level eventLevel, Event event, int x, int y, int z, String detail) {
+        long seq = sequence.getAndIncrement();
+        buffer.set((int) (seq & mask), new Entry(seq, System.currentTimeMillis(), eventLevel, event,
+                x, y, z, Thread.currentThread().getName(), detail));
+    }
+
+    /**
+     * バッファ内のイベントを古い順に取得する
+     *
+     * @return イベントのリスト
+     */
+    public List<Entry> snapshot() {
+        long end = sequence.get();
+        long start = Math.max(0, end - buffer.length());
+        List<Entry> entries = new ArrayList<>(buffer.length());
+        for (int i = 0; i < buffer.length(); i++) {
+            Entry entry = buffer.get(i);
+            if (entry != null && entry.sequence() >= start) {
+                entries.add(entry);
+            }
+        }
+        entries.sort(Comparator.comparingLong(Entry::sequence));
+        return entries;
+    }
+
+    /**
+     * バッファ内のイベントをファイルに出力する
+     *
+     * @param file 出力先
+     * @return 出力したイベント数
+     * @throws IOException 書き込みに失敗した場合
+     */
+    public int dump(Path file) throws IOException {
+        List<Entry> entries = snapshot();
+        Files.createDirectories(file.getParent());
+        try (Writer writer = Files.newBufferedWriter(file)) {
+            for (Entry entry : entries) {
+                writer.write(entry.format());
+                writer.write(System.lineSeparator());
+            }
+        }
+        return entries.size();
+    }
+
+    /**
+     * @return 記録するイベントの最低レベル
+     */
+    public Level getLevel() {
+        return level;
+    }
+
+    /**
+     * @return これまでに記録したイベントの総数
+     */
+    public long getRecordedCount() {
+        return sequence.get();
+    }
+
+    /**
+     * トレースレベル
+     */
+    public enum Level {
+        /** 記録しない */
+        OFF,
+        /** バレルに対する操作のみ */
+        INFO,
+        /** バレル以外のブロックに対する操作を含む全てのイベント */
+        DEBUG
+    }
+
+    /**
+     * イベントの種類
+     */
+    public enum Event {
+        USE,
+        MISS,
+        DEPOSIT,
+        WITHDRAW,
+        PENDING_PLACEMENT,
+        PLACE,
+        BREAK
+    }
+
+    /**
+     * 記録されたイベント
+     *
+     * @param sequence 記録順の通し番号
+     * @param timeMillis 記録時刻 (エポックミリ秒)
+     * @param level レベル
+     * @param event 種類
+     * @param x X座標
+     * @param y Y座標
+     * @param z Z座標
+     * @param thread 記録したスレッド名
+     * @param detail 補足情報
+     */
+    public record Entry(long sequence, long timeMillis, Level level, Event event,
+                        int x, int y, int z, String thread, String detail) {
+
+        /**
+         * @return 1行のテキスト表現
+         */
+        public String format() {
+            return Instant.ofEpochMilli(timeMillis) + " #" + sequence + " " + level + " " + event
+                    + " (" + x + "," + y + "," + z + ") [" + thread + "]"
+                    + (detail != null ? " " + detail : "");
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package com.github.yuu1111.barrelmod.interaction;
+
+import com.github.yuu1111.barrelmod.storage.BarrelData;
+import org.junit.jupiter.api.Test;
+
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * {@link BarrelInteractions}によるバレルとコンテナの間のアイテム移動のテスト
+ */
+class BarrelInteractionsTest {
+
+    private static final String IRON = "Test_Interactions_Iron";
+    private static final String GOLD = "Test_Interactions_Gold";
+
+    private final BarrelInteractions interactions = new BarrelInteractions(64);
+
+    @Test
+    void depositMovesHeldItems() {
+        BarrelData barrel = barrel(null, 0, 100);
+        FakeSlots hand = new FakeSlots(1, 64).put(0, IRON, 20);
+
+        InteractionResult result = interactions.deposit(barrel, hand, IRON, 20);
+
+        assertEquals(InteractionResult.Status.DEPOSITED, result.status());
+        assertEquals(20, result.amount());
+        assertEquals(20, barrel.getStoredAmount());
+        assertEquals(0, hand.count(IRON));
+    }
+
+    @Test
+    void depositRejectsOtherItem() {
+        BarrelData barrel = barrel(GOLD, 5, 100);
+        FakeSlots hand = new FakeSlots(1, 64).put(0, IRON, 20);
+
+        InteractionResult result = interactions.deposit(barrel, hand, IRON, 20);
+
+        assertEquals(InteractionResult.Status.REJECTED, result.status());
+        assertEquals(5, barrel.getStoredAmount());
+        assertEquals(20, hand.count(IRON));
+    }
+
+    @Test
+    void depositAllTakesMatchingStacksUpToSpace() {
+        BarrelData barrel = barrel(IRON, 10, 100);
+        FakeSlots hotbar = new FakeSlots(3, 64).put(0, IRON, 30).put(1, GOLD, 64).put(2, IRON, 20);
+        FakeSlots storage = new FakeSlots(2, 64).put(0, IRON, 64).put(1, IRON, 64);
+
+        InteractionResult result = interactions.depositAll(barrel, IRON, hotbar, storage);
+
+        assertEquals(InteractionResult.Status.DEPOSITED, result.status());
+        assertEquals(90, result.amount());
+        assertEquals(100, barrel.getStoredAmount());
+        assertEquals(0, hotbar.count(IRON));
+        assertEquals(64, hotbar.count(GOLD));
+        assertEquals(128 - 40, storage.count(IRON));
+    }
+
+    @Test
+    void depositAllCommitsOnlyRemovedItemsWhenContainerFails() {
+        BarrelData barrel = barrel(null, 0, 1000);
+        FakeSlots hotbar = new FakeSlots(1, 64).put(0, IRON, 30);
+        FakeSlots storage = new FakeSlots(1, 64).put(0, IRON, 40);
+        storage.beforeRemove = () -> {
+            throw new IllegalStateException("container closed");
+        };
+
+        InteractionResult result = interactions.depositAll(barrel, IRON, hotbar, storage);
+
+        assertEquals(InteractionResult.Status.DEPOSITED, result.status());
+        assertEquals(30, barrel.getStoredAmount());
+        assertEquals(40, storage.count(IRON));
+        // 残りの予約は解除され、空き容量に戻る
+        assertEquals(970, barrel.getAvailableSpace());
+    }
+
+    @Test
+    void depositAllReleasesReservationWhenRemoveThrowsError() {
+        BarrelData barrel = barrel(null, 0, 1000);
+        FakeSlots hotbar = new FakeSlots(1, 64).put(0, IRON, 30);
+        FakeSlots storage = new FakeSlots(1, 64).put(0, IRON, 40);
+        storage.beforeRemove = () -> {
+            throw new AssertionError("unexpected");
+        };
+
+        assertThrows(AssertionError.class, () -> interactions.depositAll(barrel, IRON, hotbar, storage));
+
+        assertEquals(30, barrel.getStoredAmount());
+        assertEquals(970, barrel.getAvailableSpace());
+        assertEquals(0, hotbar.count(IRON));
+    }
+
+    @Test
+    void depositAllReturnsUnstoredItemsToTheirContainers() {
+        BarrelData barrel = barrel(null, 0, 1000);
+        FakeSlots hotbar = new FakeSlots(1, 64).put(0, IRON, 30);
+        FakeSlots storage = new FakeSlots(1, 64).put(0, IRON, 40);
+        // 予約後、確定前にバレルがクリアされると、取り除いた分は格納できない
+        storage.beforeRemove = barrel::clear;
+
+        InteractionResult result = interactions.depositAll(barrel, IRON, hotbar, storage);
+
+        assertEquals(InteractionResult.Status.NOTHING, result.status());
+        assertEquals(0, barrel.getStoredAmount());
+        assertEquals(30, hotbar.count(IRON));
+        assertEquals(40, storage.count(IRON));
+    }
+
+    @Test
+    void depositAllOnFullBarrelReportsFull() {
+        BarrelData barrel = barrel(IRON, 100, 100);
+        FakeSlots hotbar = new FakeSlots(1, 64).put(0, IRON, 30);
+
+        InteractionResult result = interactions.depositAll(barrel, IRON, hotbar);
+
+        assertEquals(InteractionResult.Status.BARREL_FULL, result.status());
+        assertEquals(30, hotbar.count(IRON));
+    }
+
+    @Test
+    void withdrawMovesOnlyWhatFitsInOneInsert() {
+        BarrelData barrel = barrel(IRON, 500, 1000);
+        FakeSlots storage = new FakeSlots(3, 64).put(0, IRON, 60).put(1, GOLD, 1);
+
+        InteractionResult result = interactions.withdraw(barrel, storage, 500);
+
+        assertEquals(InteractionResult.Status.WITHDRAWN, result.status());
+        assertEquals(68, result.amount());
+        assertEquals(432, barrel.getStoredAmount());
+        assertEquals(128, storage.count(IRON));
+    }
+
+    @Test
+    void withdrawIntoFullInventoryLeavesBarrelUntouched() {
+        BarrelData barrel = barrel(IRON, 500, 1000);
+        FakeSlots storage = new FakeSlots(1, 64).put(0, GOLD, 64);
+
+        InteractionResult result = interactions.withdraw(barrel, storage, 64);
+
+        assertEquals(InteractionResult.Status.INVENTORY_FULL, result.status());
+        assertEquals(500, barrel.getStoredAmount());
+    }
+
+    @Test
+    void withdrawCancelsReservationWhenInsertFails() {
+        BarrelData barrel = barrel(IRON, 500, 1000);
+        FakeSlots storage = new FakeSlots(1, 64);
+        storage.beforeAdd = () -> {
+            throw new IllegalStateException("container closed");
+        };
+
+        InteractionResult result = interactions.withdraw(barrel, storage, 64);
+
+        assertEquals(InteractionResult.Status.FAILED, result.status());
+        assertEquals(500, barrel.getStoredAmount());
+        // 予約が残っていれば全量は引き出せない
+        assertEquals(500, barrel.withdraw(1000));
+    }
+
+    @Test
+    void withdrawTakesBackItemsTheBarrelLostAfterReserve() {
+        BarrelData barrel = barrel(IRON, 500, 1000);
+        FakeSlots storage = new FakeSlots(1, 64);
+        storage.beforeAdd = barrel::clear;
+
+        InteractionResult result = interactions.withdraw(barrel, storage, 64);
+
+        assertEquals(0, result.amount());
+        assertEquals(0, storage.count(IRON));
+        assertEquals(0, barrel.getStoredAmount());
+    }
+
+    @Test
+    void stackLimitCapsItemMaxStack() {
+        assertEquals(64, interactions.stackLimit(100));
+        assertEquals(16, interactions.stackLimit(16));
+        assertEquals(64, interactions.stackLimit(0));
+    }
+
+    static BarrelData barrel(String itemId, int amount, int capacity) {
+        return new BarrelData(UUID.randomUUID(), 0, 64, 0, "default", itemId, amount, capacity, false, null);
+    }
+}
@@ -0,0 +1,98 @@
+package com.github.yuu1111.barrelmod.interaction;
+
+/**
+ * テスト用のメモリ上のコンテナ
+ *
+ * 取り除き・追加の前に任意の処理を差し込み、例外による失敗を再現できる
+ */
+final class FakeSlots implements ItemSlots {
+
+    private final String[] itemIds;
+    private final int[] quantities;
+    private final int maxStack;
+    Runnable beforeRemove = () -> {
+    };
+    Runnable beforeAdd = () -> {
+    };
+
+    FakeSlots(int slotCount, int maxStack) {
+        this.itemIds = new String[slotCount];
+        this.quantities = new int[slotCount];
+        this.maxStack = maxStack;
+    }
+
+    FakeSlots put(int slot, String itemId, int quantity) {
+        itemIds[slot] = itemId;
+        quantities[slot] = quantity;
+        return this;
+    }
+
+    int count(String itemId) {
+        int total = 0;
+        for (int slot = 0; slot < itemIds.length; slot++) {
+            if (itemId.equals(itemIds[slot])) {
+                total += quantities[slot];
+            }
+        }
+        return total;
+    }
+
+    @Override
+    public int slotCount() {
+        return itemIds.length;
+    }
+
+    @Override
+    public String itemIdAt(int slot) {
+        return itemIds[slot];
+    }
+
+    @Override
+    public int quantityAt(int slot) {
+        return quantities[slot];
+    }
+
+    @Override
+    public int maxStackSize(String itemId) {
+        return maxStack;
+    }
+
+    @Override
+    public int add(String itemId, int amount) {
+        beforeAdd.run();
+        int added = 0;
+        for (int slot = 0; slot < itemIds.length && added < amount; slot++) {
+            if (itemId.equals(itemIds[slot])) {
+                int moved = Math.min(amount - added, maxStack - quantities[slot]);
+                quantities[slot] += moved;
+                added += moved;
+            }
+        }
+        for (int slot = 0; slot < itemIds.length && added < amount; slot++) {
+            if (itemIds[slot] == null) {
+                int moved = Math.min(amount - added, maxStack);
+                itemIds[slot] = itemId;
+                quantities[slot] = moved;
+                added += moved;
+            }
+        }
+        return added;
+    }
+
+    @Override
+    public int remove(String itemId, int amount) {
+        beforeRemove.run();
+        int removed = 0;
+        for (int slot = 0; slot < itemIds.length && removed < amount; slot++) {
+            if (itemId.equals(itemIds[slot])) {
+                int moved = Math.min(amount - removed, quantities[slot]);
+                quantities[slot] -= moved;
+                removed += moved;
+                if (quantities[slot] == 0) {
+                    itemIds[slot] = null;
+                }
+            }
+        }
+        return removed;
+    }
+}
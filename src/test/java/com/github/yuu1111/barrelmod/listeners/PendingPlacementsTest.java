@@ -0,0 +1,128 @@
+package com.github.yuu1111.barrelmod.listeners;
+
+import com.github.yuu1111.barrelmod.storage.PositionKey;
+import org.junit.jupiter.api.Test;
+
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * {@link PendingPlacements}のテスト
+ */
+class PendingPlacementsTest {
+
+    private static final UUID ALICE = new UUID(0, 1);
+    private static final UUID BOB = new UUID(0, 2);
+
+    private final PendingPlacements placements = new PendingPlacements();
+
+    @Test
+    void claimsClickedBlockAndNeighbours() {
+        int[][] positions = {
+                {10, 64, -10}, {11, 64, -10}, {9, 64, -10}, {10, 65, -10}, {10, 63, -10}, {10, 64, -9}, {10, 64, -11}
+        };
+        for (int[] position : positions) {
+            placements.record(ALICE, 10, 64, -10, 0);
+            assertEquals(ALICE, placements.claim(position[0], position[1], position[2], 100));
+        }
+    }
+
+    @Test
+    void ignoresOtherPositions() {
+        placements.record(ALICE, 10, 64, -10, 0);
+
+        assertNull(placements.claim(11, 65, -10, 100));
+        assertNull(placements.claim(12, 64, -10, 100));
+        assertEquals(ALICE, placements.claim(10, 64, -10, 100));
+    }
+
+    @Test
+    void claimRemovesAllPositionsOfEntry() {
+        placements.record(ALICE, 10, 64, -10, 0);
+
+        assertEquals(ALICE, placements.claim(11, 64, -10, 100));
+        assertNull(placements.claim(11, 64, -10, 100));
+        assertNull(placements.claim(10, 64, -10, 100));
+    }
+
+    @Test
+    void recordReplacesPreviousPositionOfSamePlayer() {
+        placements.record(ALICE, 10, 64, -10, 0);
+        placements.record(ALICE, 100, 64, 100, 100);
+
+        assertNull(placements.claim(10, 64, -10, 200));
+        assertEquals(ALICE, placements.claim(100, 64, 100, 200));
+    }
+
+    @Test
+    void keepsEntryUntilTtl() {
+        placements.record(ALICE, 10, 64, -10, 999);
+
+        // 期限のスロットより前のスロットが全て経過しても残っている
+        for (long now = 1000; now <= 5999; now += 500) {
+            placements.claim(0, 0, 0, now);
+        }
+        assertEquals(ALICE, placements.claim(10, 64, -10, 5999));
+    }
+
+    @Test
+    void expiresEntryAfterTtl() {
+        placements.record(ALICE, 10, 64, -10, 0);
+
+        assertNull(placements.claim(10, 64, -10, 5001));
+    }
+
+    @Test
+    void expiresEntriesWhenWheelAdvancesSlotBySlot() {
+        placements.record(ALICE, 10, 64, -10, 0);
+        for (long now = 1000; now <= 7000; now += 1000) {
+            placements.claim(0, 0, 0, now);
+        }
+
+        assertNull(placements.claim(10, 64, -10, 7000));
+    }
+
+    @Test
+    void expiresEntriesWhenTimeJumpsPastWheel() {
+        placements.record(ALICE, 10, 64, -10, 0);
+        placements.record(BOB, 20, 64, -20, 500);
+
+        assertNull(placements.claim(10, 64, -10, 60_000));
+        assertNull(placements.claim(20, 64, -20, 60_000));
+    }
+
+    @Test
+    void expiringReplacedEntryKeepsNewerOwner() {
+        placements.record(ALICE, 10, 64, -10, 0);
+        placements.record(BOB, 10, 64, -10, 4000);
+
+        // ALICEの期限切れで、同じ位置を上書きしたBOBのエントリを消さない
+        for (long now = 1000; now <= 6500; now += 500) {
+            placements.claim(0, 0, 0, now);
+        }
+        assertEquals(BOB, placements.claim(11, 64, -10, 6500));
+    }
+
+    @Test
+    void reusesWheelSlotsAcrossRotations() {
+        for (long now = 0; now < 40_000; now += 700) {
+            placements.record(ALICE, 10, 64, -10, now);
+            assertEquals(ALICE, placements.claim(10, 64, -10, now + 4900));
+        }
+        placements.record(BOB, 30, 64, 30, 40_000);
+
+        assertNull(placements.claim(10, 64, -10, 40_000));
+        assertEquals(BOB, placements.claim(30, 64, 30, 44_999));
+    }
+
+    @Test
+    void recordsOnlyPackableNeighboursAtWorldEdge() {
+        placements.record(ALICE, PositionKey.MAX_XZ, PositionKey.MAX_Y, 0, 0);
+
+        assertNull(placements.claim(PositionKey.MAX_XZ + 1, PositionKey.MAX_Y, 0, 0));
+        assertNull(placements.claim(PositionKey.MAX_XZ, PositionKey.MAX_Y + 1, 0, 0));
+        assertEquals(ALICE, placements.claim(PositionKey.MAX_XZ - 1, PositionKey.MAX_Y, 0, 0));
+    }
+}
@@ -0,0 +1,75 @@
+package com.github.yuu1111.barrelmod.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * {@link BarrelDataManager}の保存済みリージョンを対象とする処理のテスト
+ */
+class BarrelDataManagerTest {
+
+    private static final String WORLD_ID = "default";
+    private static final String ITEM_ID = "Test_DataManager_Iron";
+
+    @TempDir
+    Path dataFolder;
+
+    @Test
+    void findByItemIncludesUnloadedRegions() throws Exception {
+        BarrelDataManager manager = new BarrelDataManager(dataFolder, BinaryRegionCodec.FORMAT_NAME);
+        BarrelRegistry registry = new BarrelRegistry();
+        manager.open(registry);
+        registry.register(barrel(100_000, ITEM_ID, 30));
+        registry.register(barrel(100_001, "Test_DataManager_Gold", 5));
+        registry.register(barrel(-100_000, ITEM_ID, 12));
+        manager.releaseIdleRegions(registry, 0);
+        assertTrue(registry.getLoadedRegions().isEmpty());
+
+        registry.register(barrel(0, ITEM_ID, 7));
+        AtomicInteger progress = new AtomicInteger();
+        BarrelRegistry.ItemSearchResult result =
+                manager.findByItem(registry, ITEM_ID, 10, (done, total) -> progress.set(done));
+
+        assertEquals(49, result.total());
+        assertEquals(3, result.barrelCount());
+        Set<Integer> xs = new HashSet<>();
+        result.barrels().forEach(barrel -> xs.add(barrel.getPosX()));
+        assertEquals(Set.of(100_000, -100_000, 0), xs);
+        assertEquals(2, progress.get());
+        // 検索のためにリージョンを常駐させない
+        assertEquals(1, registry.getLoadedRegions().size());
+        manager.close();
+    }
+
+    @Test
+    void findByItemHonoursLimitButCountsAllBarrels() throws Exception {
+        BarrelDataManager manager = new BarrelDataManager(dataFolder, BinaryRegionCodec.FORMAT_NAME);
+        BarrelRegistry registry = new BarrelRegistry();
+        manager.open(registry);
+        for (int i = 0; i < 5; i++) {
+            registry.register(barrel(i * 10_000, ITEM_ID, 2));
+        }
+        manager.releaseIdleRegions(registry, 0);
+
+        BarrelRegistry.ItemSearchResult result = manager.findByItem(registry, ITEM_ID, 2, (done, total) -> {
+        });
+
+        assertEquals(10, result.total());
+        assertEquals(5, result.barrelCount());
+        assertEquals(2, result.barrels().size());
+        manager.close();
+    }
+
+    private static BarrelData barrel(int x, String itemId, int amount) {
+        return new BarrelData(UUID.randomUUID(), x, 64, 0, WORLD_ID, itemId, amount, 4096, false, null);
+    }
+}
@@ -0,0 +1,277 @@
+package com.github.yuu1111.barrelmod.storage;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * {@link BarrelData}の中身のCAS更新のテスト
+ */
+class BarrelDataTest {
+
+    private static final String IRON = "Test_BarrelData_Iron";
+    private static final String GOLD = "Test_BarrelData_Gold";
+    private static final int THREADS = 8;
+
+    @Test
+    void depositAndWithdrawRespectCapacityAndItem() {
+        BarrelData barrel = barrel(null, 0, 100);
+
+        assertEquals(60, barrel.deposit(IRON, 60));
+        assertEquals(0, barrel.deposit(GOLD, 10));
+        assertEquals(40, barrel.deposit(IRON, 60));
+        assertTrue(barrel.isFull());
+        assertEquals(30, barrel.withdraw(30));
+        assertEquals(70, barrel.withdraw(500));
+        assertTrue(barrel.isEmpty());
+        assertNull(barrel.getStoredItemId());
+        assertEquals(10, barrel.deposit(GOLD, 10));
+    }
+
+    @Test
+    void concurrentDepositsNeverExceedCapacity() throws Exception {
+        BarrelData barrel = barrel(null, 0, 10_000);
+
+        long[] deposited = runConcurrently(thread -> {
+            long total = 0;
+            for (int i = 0; i < 5_000; i++) {
+                total += barrel.deposit(IRON, 1);
+            }
+            return total;
+        });
+
+        assertEquals(10_000, sum(deposited));
+        assertEquals(10_000, barrel.getStoredAmount());
+    }
+
+    @Test
+    void concurrentDepositsAndWithdrawalsConserveItems() throws Exception {
+        BarrelData barrel = barrel(IRON, 500, 1_000);
+
+        long[] net = runConcurrently(thread -> {
+            long total = 0;
+            for (int i = 0; i < 20_000; i++) {
+                total += (i + thread) % 2 == 0 ? barrel.deposit(IRON, 3) : -barrel.withdraw(3);
+            }
+            return total;
+        });
+
+        assertEquals(500 + sum(net), barrel.getStoredAmount());
+    }
+
+    @Test
+    void snapshotsAreNeverTorn() throws Exception {
+        BarrelData barrel = barrel(null, 0, 64);
+        AtomicBoolean done = new AtomicBoolean();
+        List<String> torn = new ArrayList<>();
+
+        try (ExecutorService executor = Executors.newFixedThreadPool(2)) {
+            Future<?> writer = executor.submit(() -> {
+                for (int i = 0; i < 200_000; i++) {
+                    barrel.deposit(i % 2 == 0 ? IRON : GOLD, 64);
+                    barrel.withdraw(64);
+                }
+                done.set(true);
+            });
+            while (!done.get()) {
+                BarrelRecord record = barrel.snapshot();
+                boolean empty = record.storedItemId() == null;
+                if (empty != (record.storedAmount() == 0)) {
+                    torn.add(record.toString());
+                }
+            }
+            writer.get(30, TimeUnit.SECONDS);
+        }
+        assertEquals(List.of(), torn);
+    }
+
+    @Test
+    void reservedItemsAreExcludedUntilCommitted() {
+        BarrelData barrel = barrel(IRON, 50, 100);
+
+        BarrelData.Reservation reservation = barrel.reserve(30);
+
+        assertEquals(30, reservation.amount());
+        assertEquals(50, barrel.getStoredAmount());
+        assertEquals(50, barrel.snapshot().storedAmount());
+        assertEquals(20, barrel.withdraw(100));
+        assertNull(barrel.reserve(1));
+        assertEquals(30, barrel.commit(reservation));
+        assertTrue(barrel.isEmpty());
+    }
+
+    @Test
+    void partialCommitReturnsRestAndCancelRestoresAll() {
+        BarrelData barrel = barrel(IRON, 50, 100);
+
+        BarrelData.Reservation partial = barrel.reserve(40);
+        assertEquals(25, barrel.commit(partial, 25));
+        assertEquals(25, barrel.getStoredAmount());
+        // 確定しなかった予約分も解除され、再び予約できる
+        BarrelData.Reservation cancelled = barrel.reserve(100);
+        assertEquals(25, cancelled.amount());
+
+        barrel.cancel(cancelled);
+        assertEquals(25, barrel.getStoredAmount());
+        assertEquals(25, barrel.withdraw(100));
+    }
+
+    @Test
+    void commitAfterClearRemovesNothing() {
+        BarrelData barrel = barrel(IRON, 50, 100);
+        BarrelData.Reservation reservation = barrel.reserve(50);
+
+        barrel.clear();
+        barrel.deposit(GOLD, 10);
+
+        assertEquals(0, barrel.commit(reservation));
+        assertEquals(GOLD, barrel.getStoredItemId());
+        assertEquals(10, barrel.getStoredAmount());
+        assertEquals(10, barrel.withdraw(100));
+    }
+
+    @Test
+    void concurrentReservationsNeverOverdraw() throws Exception {
+        BarrelData barrel = barrel(IRON, 10_000, 10_000);
+
+        long[] taken = runConcurrently(thread -> {
+            long total = 0;
+            for (int i = 0; i < 5_000; i++) {
+                BarrelData.Reservation reservation = barrel.reserve(3);
+                if (reservation == null) {
+                    continue;
+                }
+                // 半数は一部のみ確定し、残りは取り消す
+                if (i % 4 == 0) {
+                    barrel.cancel(reservation);
+                } else {
+                    total += barrel.commit(reservation, i % 2 == 0 ? reservation.amount() : 1);
+                }
+            }
+            return total;
+        });
+
+        assertEquals(10_000 - sum(taken), barrel.getStoredAmount());
+        assertEquals(barrel.getStoredAmount(), barrel.withdraw(Integer.MAX_VALUE));
+    }
+
+    @Test
+    void reservedSpaceIsHeldUntilDepositIsCommitted() {
+        BarrelData barrel = barrel(null, 0, 100);
+
+        BarrelData.Reservation reservation = barrel.reserveSpace(ItemIds.intern(IRON), 80);
+
+        assertEquals(80, reservation.amount());
+        // 予約分は確定するまで格納数量にも保存内容にも含まれない
+        assertEquals(0, barrel.getStoredAmount());
+        assertEquals(0, barrel.snapshot().storedAmount());
+        assertEquals(0, barrel.deposit(GOLD, 10));
+        assertEquals(20, barrel.deposit(IRON, 50));
+        assertEquals(60, barrel.commitDeposit(reservation, 60));
+        assertEquals(80, barrel.getStoredAmount());
+        assertEquals(20, barrel.getAvailableSpace());
+    }
+
+    @Test
+    void cancelledDepositFreesSpace() {
+        BarrelData barrel = barrel(IRON, 10, 100);
+
+        BarrelData.Reservation reservation = barrel.reserveSpace(ItemIds.intern(IRON), 500);
+        assertEquals(90, reservation.amount());
+        assertNull(barrel.reserveSpace(ItemIds.intern(IRON), 1));
+
+        barrel.cancelDeposit(reservation);
+        assertEquals(10, barrel.getStoredAmount());
+        assertEquals(90, barrel.getAvailableSpace());
+    }
+
+    @Test
+    void commitDepositAfterClearStoresNothing() {
+        BarrelData barrel = barrel(null, 0, 100);
+        BarrelData.Reservation reservation = barrel.reserveSpace(ItemIds.intern(IRON), 40);
+
+        barrel.clear();
+        barrel.deposit(GOLD, 5);
+
+        assertEquals(0, barrel.commitDeposit(reservation, 40));
+        assertEquals(5, barrel.getStoredAmount());
+        assertEquals(95, barrel.getAvailableSpace());
+    }
+
+    @Test
+    void concurrentSpaceReservationsNeverOverfill() throws Exception {
+        BarrelData barrel = barrel(null, 0, 10_000);
+        int iron = ItemIds.intern(IRON);
+
+        long[] stored = runConcurrently(thread -> {
+            long total = 0;
+            for (int i = 0; i < 5_000; i++) {
+                BarrelData.Reservation reservation = barrel.reserveSpace(iron, 4);
+                if (reservation == null) {
+                    continue;
+                }
+                if (i % 4 == 0) {
+                    barrel.cancelDeposit(reservation);
+                } else {
+                    total += barrel.commitDeposit(reservation, i % 2 == 0 ? reservation.amount() : 1);
+                }
+            }
+            return total;
+        });
+
+        assertEquals(sum(stored), barrel.getStoredAmount());
+        assertEquals(10_000 - barrel.getStoredAmount(), barrel.getAvailableSpace());
+    }
+
+    /**
+     * 全スレッドを同時に開始し、スレッドごとの結果を返す
+     */
+    static long[] runConcurrently(ThreadTask task) throws Exception {
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Long>> results = new ArrayList<>();
+        try (ExecutorService executor = Executors.newFixedThreadPool(THREADS)) {
+            for (int t = 0; t < THREADS; t++) {
+                int thread = t;
+                results.add(executor.submit(() -> {
+                    start.await();
+                    return task.run(thread);
+                }));
+            }
+            start.countDown();
+            long[] values = new long[THREADS];
+            for (int t = 0; t < THREADS; t++) {
+                values[t] = results.get(t).get(30, TimeUnit.SECONDS);
+            }
+            return values;
+        }
+    }
+
+    static long sum(long[] values) {
+        long total = 0;
+        for (long value : values) {
+            total += value;
+        }
+        return total;
+    }
+
+    static BarrelData barrel(String itemId, int amount, int capacity) {
+        return new BarrelData(UUID.randomUUID(), 0, 64, 0, "default", itemId, amount, capacity, false, null);
+    }
+
+    @FunctionalInterface
+    interface ThreadTask {
+        long run(int thread) throws Exception;
+    }
+}
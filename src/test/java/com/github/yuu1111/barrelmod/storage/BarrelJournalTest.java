@@ -0,0 +1,221 @@
+package com.github.yuu1111.barrelmod.storage;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * {@link BarrelJournal}のテスト
+ *
+ * 定期的な書き込みが割り込まないよう、書き込み間隔を長くして明示的にflushする
+ */
+class BarrelJournalTest {
+
+    private static final long FLUSH_MILLIS = 60_000;
+
+    @TempDir
+    Path folder;
+
+    private BarrelJournal journal;
+
+    @AfterEach
+    void closeJournal() {
+        if (journal != null) {
+            journal.close();
+        }
+    }
+
+    @Test
+    void replaysPutsAndRemovesInOrder() throws IOException {
+        openJournal();
+        BarrelData first = barrel(1, "Ingredient_Stick", 10);
+        BarrelData second = barrel(2, null, 0);
+
+        journal.recordPut(first);
+        journal.recordPut(second);
+        journal.flush();
+        journal.recordRemove(second);
+        journal.flush();
+
+        assertEquals(List.of(
+                new BarrelJournal.Entry(false, first.snapshot()),
+                new BarrelJournal.Entry(false, second.snapshot()),
+                new BarrelJournal.Entry(true, second.snapshot())), BarrelJournal.readAll(folder));
+    }
+
+    @Test
+    void coalescesPutsOfSameBarrelUntilFlush() throws IOException {
+        openJournal();
+        BarrelData barrel = barrel(1, "Ingredient_Stick", 10);
+
+        journal.recordPut(barrel);
+        barrel.setLocked(true);
+        journal.recordPut(barrel);
+        journal.flush();
+
+        List<BarrelJournal.Entry> entries = BarrelJournal.readAll(folder);
+        assertEquals(1, entries.size());
+        assertTrue(entries.get(0).record().locked());
+    }
+
+    @Test
+    void stopsAtEntryWithBadChecksum() throws IOException {
+        writeEntries(3);
+        Path segment = onlySegment();
+        byte[] bytes = Files.readAllBytes(segment);
+        int secondEntry = entryLength(bytes, 0);
+        bytes[secondEntry + 8 + 20] ^= 1;
+        Files.write(segment, bytes);
+
+        List<BarrelJournal.Entry> entries = BarrelJournal.readAll(folder);
+
+        assertEquals(1, entries.size());
+        assertEquals(new UUID(0, 1), entries.get(0).record().id());
+    }
+
+    @Test
+    void keepsEntriesBeforeTornPayload() throws IOException {
+        writeEntries(3);
+        Path segment = onlySegment();
+        byte[] bytes = Files.readAllBytes(segment);
+        Files.write(segment, Arrays.copyOf(bytes, bytes.length - 5));
+
+        assertEquals(2, BarrelJournal.readAll(folder).size());
+    }
+
+    @Test
+    void keepsEntriesBeforeTornHeader() throws IOException {
+        writeEntries(3);
+        Path segment = onlySegment();
+        byte[] bytes = Files.readAllBytes(segment);
+        int thirdEntry = entryLength(bytes, 0) + entryLength(bytes, entryLength(bytes, 0));
+        Files.write(segment, Arrays.copyOf(bytes, thirdEntry + 6));
+
+        assertEquals(2, BarrelJournal.readAll(folder).size());
+    }
+
+    @Test
+    void tornTailDoesNotHideLaterSegments() throws IOException {
+        openJournal();
+        journal.recordPut(barrel(1, "Ingredient_Stick", 1));
+        journal.recordPut(barrel(2, "Ingredient_Stick", 2));
+        long sealed = journal.rotate();
+        journal.recordPut(barrel(3, "Ingredient_Stick", 3));
+        journal.flush();
+
+        Path first = folder.resolve("journal." + sealed + ".log");
+        byte[] bytes = Files.readAllBytes(first);
+        Files.write(first, Arrays.copyOf(bytes, bytes.length - 1));
+
+        List<BarrelJournal.Entry> entries = BarrelJournal.readAll(folder);
+        assertEquals(List.of(new UUID(0, 1), new UUID(0, 3)),
+                entries.stream().map(entry -> entry.record().id()).toList());
+    }
+
+    @Test
+    void rotateSealsSegmentAndDeleteSealedRemovesIt() throws IOException {
+        openJournal();
+        journal.recordPut(barrel(1, "Ingredient_Stick", 1));
+
+        long sealed = journal.rotate();
+        journal.recordPut(barrel(2, "Ingredient_Stick", 2));
+        journal.flush();
+
+        assertTrue(Files.exists(folder.resolve("journal." + sealed + ".log")));
+        assertEquals(2, BarrelJournal.readAll(folder).size());
+
+        journal.deleteSealed(sealed);
+
+        assertFalse(Files.exists(folder.resolve("journal." + sealed + ".log")));
+        List<BarrelJournal.Entry> entries = BarrelJournal.readAll(folder);
+        assertEquals(1, entries.size());
+        assertEquals(new UUID(0, 2), entries.get(0).record().id());
+    }
+
+    @Test
+    void deleteSealedKeepsSegmentsOfEarlierRuns() throws IOException {
+        writeEntries(1);
+        Path previous = onlySegment();
+
+        openJournal();
+        long sealed = journal.rotate();
+        journal.deleteSealed(sealed);
+
+        assertTrue(Files.exists(previous));
+        assertEquals(1, BarrelJournal.readAll(folder).size());
+    }
+
+    @Test
+    void closeDeletesEmptySegment() throws IOException {
+        openJournal();
+        journal.close();
+        journal = null;
+
+        assertEquals(List.of(), segments());
+    }
+
+    @Test
+    void closeFlushesPendingChanges() throws IOException {
+        openJournal();
+        journal.recordPut(barrel(1, "Ingredient_Stick", 1));
+        journal.close();
+        journal = null;
+
+        assertEquals(1, segments().size());
+        assertEquals(1, BarrelJournal.readAll(folder).size());
+    }
+
+    private void openJournal() throws IOException {
+        journal = new BarrelJournal(folder, FLUSH_MILLIS);
+        journal.open();
+    }
+
+    /**
+     * 1つのセグメントにエントリを書き込んで閉じる
+     */
+    private void writeEntries(int count) throws IOException {
+        openJournal();
+        for (int i = 1; i <= count; i++) {
+            journal.recordPut(barrel(i, "Ingredient_Stick", i));
+            journal.flush();
+        }
+        journal.close();
+        journal = null;
+    }
+
+    private Path onlySegment() throws IOException {
+        List<Path> segments = segments();
+        assertEquals(1, segments.size());
+        return segments.get(0);
+    }
+
+    private List<Path> segments() throws IOException {
+        try (var files = Files.list(folder)) {
+            return files.filter(file -> file.getFileName().toString().endsWith(".log")).toList();
+        }
+    }
+
+    /**
+     * @return 指定位置から始まるエントリのヘッダーを含むバイト数
+     */
+    private static int entryLength(byte[] bytes, int offset) {
+        return 8 + ByteBuffer.wrap(bytes, offset, 4).getInt();
+    }
+
+    private static BarrelData barrel(long id, String itemId, int amount) {
+        return new BarrelData(new UUID(0, id), (int) id, 64, -(int) id, "default", itemId,
+                amount, 4096, false, null);
+    }
+}
@@ -0,0 +1,263 @@
+package com.github.yuu1111.barrelmod.storage;
+
+import com.hypixel.hytale.math.vector.Vector3i;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * {@link BarrelRegistry}のリージョンの読み込み・解放と登録のテスト
+ */
+class BarrelRegistryTest {
+
+    private static final String WORLD_ID = "default";
+
+    @Test
+    void prepareRegionLoadsStoredRegionOffCallerThread() throws Exception {
+        BarrelData stored = barrel(10, 64, 10);
+        CountDownLatch release = new CountDownLatch(1);
+        Map<String, Thread> loaderThreads = new ConcurrentHashMap<>();
+        BarrelRegistry registry = new BarrelRegistry();
+        registry.setRegionLoader(region -> {
+            loaderThreads.put(region.toString(), Thread.currentThread());
+            await(release);
+            return RegionContents.of(List.of(stored));
+        });
+        registry.setStoredChunks(Map.of(RegionPos.ofBlock(WORLD_ID, 10, 10), new long[]{chunkKeyOf(stored)}));
+        int world = registry.getWorldHandle(WORLD_ID);
+
+        CompletableFuture<Void> ready = registry.prepareRegion(10, 10, world);
+
+        assertFalse(ready.isDone());
+        release.countDown();
+        ready.get(5, TimeUnit.SECONDS);
+        assertEquals(1, loaderThreads.size());
+        assertNotEquals(Thread.currentThread(), loaderThreads.values().iterator().next());
+        assertSame(stored, registry.getByPosition(10, 64, 10, world).orElseThrow());
+    }
+
+    @Test
+    void prepareRegionCreatesRegionWithoutStoredBarrelsInPlace() {
+        AtomicInteger loads = new AtomicInteger();
+        BarrelRegistry registry = new BarrelRegistry();
+        registry.setRegionLoader(region -> {
+            loads.incrementAndGet();
+            return RegionContents.of(List.of());
+        });
+        registry.setStoredChunks(Map.of());
+        int world = registry.getWorldHandle(WORLD_ID);
+
+        assertTrue(registry.prepareRegion(5000, 5000, world).isDone());
+        assertTrue(registry.getByPosition(5000, 64, 5000, world).isEmpty());
+        assertEquals(0, loads.get());
+        assertEquals(1, registry.getLoadedRegions(WORLD_ID).size());
+    }
+
+    @Test
+    void concurrentAccessLoadsRegionOnce() throws Exception {
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        BarrelData stored = barrel(1, 64, 1);
+        BarrelRegistry registry = new BarrelRegistry();
+        registry.setRegionLoader(region -> {
+            loads.incrementAndGet();
+            await(release);
+            return RegionContents.of(List.of(stored));
+        });
+        int world = registry.getWorldHandle(WORLD_ID);
+
+        List<Future<BarrelData>> lookups = new ArrayList<>();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < 16; i++) {
+                lookups.add(executor.submit(() -> registry.getByPosition(1, 64, 1, world).orElse(null)));
+            }
+            lookups.add(executor.submit(() -> {
+                registry.prepareRegion(1, 1, world).get(5, TimeUnit.SECONDS);
+                return registry.getByPosition(1, 64, 1, world).orElse(null);
+            }));
+            Thread.sleep(50);
+            release.countDown();
+            for (Future<BarrelData> lookup : lookups) {
+                assertSame(stored, lookup.get(5, TimeUnit.SECONDS));
+            }
+        }
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    void createBarrelRegistersAfterRegionLoads() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        BarrelRegistry registry = new BarrelRegistry();
+        registry.setRegionLoader(region -> {
+            await(release);
+            return RegionContents.of(List.of());
+        });
+        int world = registry.getWorldHandle(WORLD_ID);
+        UUID owner = UUID.randomUUID();
+
+        BarrelData barrel = registry.createBarrel(new Vector3i(3, 64, 3), WORLD_ID, owner, 1).orElseThrow();
+
+        // 上限の判定は登録を待たずに行われる
+        assertEquals(1, registry.getOwnedBarrelCount(owner));
+        assertTrue(registry.createBarrel(new Vector3i(4, 64, 4), WORLD_ID, owner, 1).isEmpty());
+        release.countDown();
+        registry.prepareRegion(3, 3, world).get(5, TimeUnit.SECONDS);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (registry.getById(barrel.getId()).isEmpty() && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertSame(barrel, registry.getByPosition(3, 64, 3, world).orElseThrow());
+        assertEquals(1, registry.getOwnedBarrelCount(owner));
+    }
+
+    @Test
+    void registerIsNotLostToConcurrentRelease() throws Exception {
+        AtomicReference<List<BarrelData>> saved = new AtomicReference<>(List.of());
+        BarrelRegistry registry = new BarrelRegistry();
+        registry.setRegionLoader(region -> RegionContents.of(saved.get()));
+        int world = registry.getWorldHandle(WORLD_ID);
+        RegionPos region = RegionPos.ofBlock(WORLD_ID, 0, 0);
+        int count = 2000;
+
+        AtomicBoolean done = new AtomicBoolean();
+        try (ExecutorService executor = Executors.newFixedThreadPool(2)) {
+            Future<?> releaser = executor.submit(() -> {
+                while (!done.get()) {
+                    // 自動保存と同じ順序で、ダーティ解除・スナップショット保存の後に解放する
+                    if (registry.clearRegionDirty(region)) {
+                        saved.set(List.copyOf(registry.getRegionBarrels(region)));
+                    }
+                    registry.releaseRegion(region, System.nanoTime());
+                }
+            });
+            try {
+                for (int i = 0; i < count; i++) {
+                    BarrelData barrel = barrel(i % 256, 64 + i / 256, 7);
+                    registry.register(barrel);
+                    assertEquals(barrel.getId(), registry.getByPosition(barrel.getPosX(), barrel.getPosY(),
+                            barrel.getPosZ(), world).map(BarrelData::getId).orElse(null), "barrel " + i);
+                }
+            } finally {
+                done.set(true);
+            }
+            releaser.get(5, TimeUnit.SECONDS);
+        }
+        registry.prepareRegion(0, 0, world).get(5, TimeUnit.SECONDS);
+        assertEquals(count, registry.getRegionBarrels(region).size());
+    }
+
+    @Test
+    void unregisterRemovesOnlyThatBarrel() {
+        BarrelRegistry registry = new BarrelRegistry();
+        int world = registry.getWorldHandle(WORLD_ID);
+        BarrelData first = barrel(1, 64, 1);
+        BarrelData second = barrel(1, 65, 1);
+        registry.register(first);
+        registry.register(second);
+
+        registry.unregister(first);
+        registry.unregister(first);
+
+        assertTrue(registry.getByPosition(1, 64, 1, world).isEmpty());
+        assertSame(second, registry.getByPosition(1, 65, 1, world).orElseThrow());
+        assertTrue(registry.getById(first.getId()).isEmpty());
+        assertEquals(1, registry.getBarrelCount());
+    }
+
+    @Test
+    void worldsAreIndexedIndependently() {
+        BarrelRegistry registry = new BarrelRegistry();
+        BarrelData overworld = barrel(1, 64, 1);
+        BarrelData other = new BarrelData(UUID.randomUUID(), 1, 64, 1, "other", null, 0, 4096, false, null);
+        registry.register(overworld);
+        registry.register(other);
+
+        registry.unregister(overworld);
+
+        assertTrue(registry.getByPosition(1, 64, 1, registry.getWorldHandle(WORLD_ID)).isEmpty());
+        assertSame(other, registry.getByPosition(1, 64, 1, registry.getWorldHandle("other")).orElseThrow());
+    }
+
+    @Test
+    void lookupByUnknownWorldIdDoesNotRegisterWorld() {
+        BarrelRegistry registry = new BarrelRegistry();
+        int first = registry.getWorldHandle(WORLD_ID);
+        registry.register(barrel(1, 64, 1));
+
+        assertTrue(registry.getByPosition(new Vector3i(1, 64, 1), "unknown").isEmpty());
+        assertTrue(registry.getByPosition(1, 64, 1, "unknown").isEmpty());
+        assertFalse(registry.existsAt(new Vector3i(1, 64, 1), "unknown"));
+        assertTrue(registry.existsAt(new Vector3i(1, 64, 1), WORLD_ID));
+
+        // 未知のワールドIDにハンドルが割り当てられていれば、次のワールドのハンドルがずれる
+        assertEquals(first + 1, registry.getWorldHandle("next"));
+    }
+
+    @Test
+    void outOfRangePositionsAreNeitherFoundNorCreated() {
+        BarrelRegistry registry = new BarrelRegistry();
+        int world = registry.getWorldHandle(WORLD_ID);
+        registry.register(barrel(PositionKey.MIN_XZ, 0, 0));
+
+        assertTrue(registry.getByPosition(PositionKey.MAX_XZ + 1, 0, 0, world).isEmpty());
+        assertTrue(registry.createBarrel(new Vector3i(PositionKey.MAX_XZ + 1, 0, 0), WORLD_ID, null, 0).isEmpty());
+        assertThrows(IllegalArgumentException.class, () -> registry.register(barrel(0, PositionKey.MAX_Y + 1, 0)));
+        assertEquals(1, registry.getBarrelCount());
+    }
+
+    @Test
+    void releasedRegionIsReloadedWithItsBarrels() {
+        List<BarrelData> saved = new ArrayList<>();
+        BarrelRegistry registry = new BarrelRegistry();
+        registry.setRegionLoader(region -> RegionContents.of(List.copyOf(saved)));
+        int world = registry.getWorldHandle(WORLD_ID);
+        BarrelData barrel = barrel(2, 64, 2);
+        registry.register(barrel);
+        RegionPos region = RegionPos.ofBlock(WORLD_ID, 2, 2);
+
+        assertFalse(registry.releaseRegion(region, System.nanoTime()), "dirty region must not be released");
+        saved.add(barrel.snapshot().toBarrelData());
+        registry.clearRegionDirty(region);
+        assertTrue(registry.releaseRegion(region, System.nanoTime()));
+        assertTrue(registry.getById(barrel.getId()).isEmpty());
+        assertTrue(registry.mightContain(2, 64, 2, world));
+
+        assertEquals(barrel.getId(), registry.getByPosition(2, 64, 2, world).orElseThrow().getId());
+    }
+
+    private static BarrelData barrel(int x, int y, int z) {
+        return new BarrelData(UUID.randomUUID(), x, y, z, WORLD_ID, null, 0, 4096, false, null);
+    }
+
+    private static long chunkKeyOf(BarrelData barrel) {
+        return PositionKey.packColumn(PositionKey.toChunk(barrel.getPosX()), PositionKey.toChunk(barrel.getPosZ()));
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
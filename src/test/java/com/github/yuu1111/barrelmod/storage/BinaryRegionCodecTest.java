@@ -0,0 +1,138 @@
+package com.github.yuu1111.barrelmod.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * {@link BinaryRegionCodec}と{@link MappedRegionContents}のテスト
+ */
+class BinaryRegionCodecTest {
+
+    private final BinaryRegionCodec codec = new BinaryRegionCodec();
+
+    @TempDir
+    Path folder;
+
+    @Test
+    void roundTripsAllFields() throws IOException {
+        List<BarrelRecord> records = RegionRecords.sample();
+        Path file = folder.resolve("r.-1.-1" + codec.fileExtension());
+
+        codec.write(file, records);
+
+        assertEquals(Set.copyOf(records), Set.copyOf(codec.read(file)));
+    }
+
+    @Test
+    void writesFixedSizeRecordsWithSharedItemIds() throws IOException {
+        List<BarrelRecord> records = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            records.add(RegionRecords.record(-i, 64, -i, "Ingredient_Stick", i + 1));
+        }
+        Path file = folder.resolve("r.-1.-1" + codec.fileExtension());
+
+        codec.write(file, records);
+
+        List<BarrelRecord> read = codec.read(file);
+        assertEquals(Set.copyOf(records), Set.copyOf(read));
+        assertTrue(Files.size(file) < 100L * (BinaryRegionCodec.RECORD_SIZE + 16) + 256);
+    }
+
+    @Test
+    void mappedContentsLoadsEachChunk() throws IOException {
+        List<BarrelRecord> records = RegionRecords.sample();
+        Path file = folder.resolve("r.-1.-1" + codec.fileExtension());
+        codec.write(file, records);
+
+        Set<Long> expectedChunks = new HashSet<>();
+        for (BarrelRecord record : records) {
+            expectedChunks.add(chunkKeyOf(record));
+        }
+
+        MappedRegionContents contents = MappedRegionContents.open(file);
+        try {
+            long[] chunkKeys = contents.chunkKeys();
+            long[] sorted = chunkKeys.clone();
+            Arrays.sort(sorted);
+            assertArrayEquals(sorted, chunkKeys);
+            assertEquals(expectedChunks.size(), chunkKeys.length);
+
+            Set<BarrelRecord> loaded = new HashSet<>();
+            for (long chunkKey : chunkKeys) {
+                assertTrue(expectedChunks.contains(chunkKey));
+                for (BarrelData barrel : contents.loadChunk(chunkKey)) {
+                    assertEquals(chunkKey, chunkKeyOf(barrel.snapshot()));
+                    loaded.add(barrel.snapshot());
+                }
+            }
+            assertEquals(Set.copyOf(records), loaded);
+            assertEquals(List.of(), contents.loadChunk(PositionKey.packColumn(1000, 1000)));
+        } finally {
+            contents.close();
+        }
+    }
+
+    @Test
+    void readsChunkKeysFromHeader() throws IOException {
+        List<BarrelRecord> records = RegionRecords.sample();
+        Path file = folder.resolve("r.-1.-1" + codec.fileExtension());
+        codec.write(file, records);
+
+        assertArrayEquals(RegionRecords.chunkKeys(records), codec.readChunkKeys(file));
+    }
+
+    @Test
+    void rejectsBadMagic() throws IOException {
+        Path file = folder.resolve("r.0.0" + codec.fileExtension());
+        codec.write(file, RegionRecords.sample());
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[0] ^= 0x7F;
+        Files.write(file, bytes);
+
+        assertThrows(IOException.class, () -> codec.read(file));
+        assertThrows(IOException.class, () -> codec.readChunkKeys(file));
+        assertThrows(IOException.class, () -> MappedRegionContents.open(file).close());
+    }
+
+    @Test
+    void rejectsTruncatedFile() throws IOException {
+        Path file = folder.resolve("r.0.0" + codec.fileExtension());
+        codec.write(file, RegionRecords.sample());
+        byte[] bytes = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(bytes, bytes.length - BinaryRegionCodec.RECORD_SIZE / 2));
+
+        assertThrows(IOException.class, () -> codec.read(file));
+    }
+
+    @Test
+    void headerReportsVersionAndCounts() throws IOException {
+        List<BarrelRecord> records = RegionRecords.sample();
+        Path file = folder.resolve("r.0.0" + codec.fileExtension());
+        codec.write(file, records);
+
+        BinaryRegionCodec.Header header = BinaryRegionCodec.readHeader(ByteBuffer.wrap(Files.readAllBytes(file)));
+
+        assertEquals(BinaryRegionCodec.VERSION, header.version());
+        assertEquals(records.size(), header.recordCount());
+        assertEquals(RegionRecords.WORLD_ID, header.strings()[0]);
+    }
+
+    private static long chunkKeyOf(BarrelRecord record) {
+        return PositionKey.packColumn(PositionKey.toChunk(record.posX()), PositionKey.toChunk(record.posZ()));
+    }
+}
@@ -0,0 +1,126 @@
+package com.github.yuu1111.barrelmod.storage;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * {@link ItemIndex}のバレル集合と合計数量のテスト
+ */
+class ItemIndexTest {
+
+    private static final String WORLD_ID = "default";
+
+    @Test
+    void moveTracksBarrelsAndTotals() {
+        ItemIndex index = new ItemIndex();
+        int iron = ItemIds.intern("Test_ItemIndex_Iron");
+        int gold = ItemIds.intern("Test_ItemIndex_Gold");
+        BarrelData first = barrel(0, null, 0);
+        BarrelData second = barrel(1, null, 0);
+
+        index.move(first, IdTable.NONE, 0, iron, 10);
+        index.move(second, IdTable.NONE, 0, iron, 5);
+        index.move(first, iron, 10, iron, 7);
+        assertEquals(12, index.totalOf(iron));
+        assertEquals(Set.of(first, second), index.barrelsOf(iron));
+
+        index.move(second, iron, 5, gold, 3);
+        assertEquals(7, index.totalOf(iron));
+        assertEquals(Set.of(first), index.barrelsOf(iron));
+        assertEquals(3, index.totalOf(gold));
+
+        index.move(first, iron, 7, IdTable.NONE, 0);
+        assertEquals(0, index.totalOf(iron));
+        assertTrue(index.barrelsOf(iron).isEmpty());
+    }
+
+    @Test
+    void unknownItemHasNoBarrels() {
+        ItemIndex index = new ItemIndex();
+
+        assertEquals(0, index.totalOf(IdTable.NONE));
+        assertEquals(0, index.totalOf(Integer.MAX_VALUE));
+        assertTrue(index.barrelsOf(Integer.MAX_VALUE).isEmpty());
+    }
+
+    @Test
+    void registryTotalsFollowDepositsAndWithdrawals() {
+        String itemId = "Test_ItemIndex_Copper";
+        BarrelRegistry registry = new BarrelRegistry();
+        BarrelData full = barrel(0, itemId, 40);
+        BarrelData empty = barrel(1, null, 0);
+        registry.register(full);
+        registry.register(empty);
+
+        assertEquals(1, registry.findByItem(itemId, 10).barrelCount());
+        assertEquals(40, registry.findByItem(itemId, 10).total());
+
+        empty.deposit(itemId, 15);
+        full.withdraw(40);
+        BarrelRegistry.ItemSearchResult result = registry.findByItem(itemId, 10);
+        assertEquals(15, result.total());
+        assertEquals(List.of(empty), result.barrels());
+
+        registry.unregister(empty);
+        assertEquals(0, registry.findByItem(itemId, 10).total());
+        assertEquals(0, registry.findByItem(itemId, 10).barrelCount());
+    }
+
+    @Test
+    void concurrentChangesKeepTotalEqualToContents() throws Exception {
+        String itemId = "Test_ItemIndex_Tin";
+        BarrelRegistry registry = new BarrelRegistry();
+        List<BarrelData> barrels = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            BarrelData barrel = barrel(i, null, 0);
+            registry.register(barrel);
+            barrels.add(barrel);
+        }
+
+        List<Future<?>> workers = new ArrayList<>();
+        try (ExecutorService executor = Executors.newFixedThreadPool(8)) {
+            for (int t = 0; t < 8; t++) {
+                workers.add(executor.submit(() -> {
+                    for (int i = 0; i < 10_000; i++) {
+                        BarrelData barrel = barrels.get(i % barrels.size());
+                        if (i % 3 == 2) {
+                            barrel.withdraw(2);
+                        } else {
+                            barrel.deposit(itemId, 1);
+                        }
+                    }
+                }));
+            }
+            for (Future<?> worker : workers) {
+                worker.get(30, TimeUnit.SECONDS);
+            }
+        }
+
+        long expected = 0;
+        int holding = 0;
+        for (BarrelData barrel : barrels) {
+            expected += barrel.getStoredAmount();
+            if (!barrel.isEmpty()) {
+                holding++;
+            }
+        }
+        BarrelRegistry.ItemSearchResult result = registry.findByItem(itemId, barrels.size());
+        assertEquals(expected, result.total());
+        assertEquals(holding, result.barrelCount());
+    }
+
+    private static BarrelData barrel(int x, String itemId, int amount) {
+        return new BarrelData(UUID.randomUUID(), x, 64, 0, WORLD_ID, itemId, amount, 4096, false, null);
+    }
+}
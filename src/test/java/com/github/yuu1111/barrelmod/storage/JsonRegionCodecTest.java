@@ -0,0 +1,98 @@
+package com.github.yuu1111.barrelmod.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * {@link JsonRegionCodec}のテスト
+ */
+class JsonRegionCodecTest {
+
+    private final JsonRegionCodec codec = new JsonRegionCodec();
+
+    @TempDir
+    Path folder;
+
+    @Test
+    void roundTripsAllFields() throws IOException {
+        List<BarrelRecord> records = RegionRecords.sample();
+        Path file = folder.resolve("r.-1.-1" + codec.fileExtension());
+
+        codec.write(file, records);
+
+        assertEquals(records, codec.read(file));
+    }
+
+    @Test
+    void rewriteReplacesPreviousContents() throws IOException {
+        Path file = folder.resolve("r.0.0" + codec.fileExtension());
+        codec.write(file, RegionRecords.sample());
+        List<BarrelRecord> records = List.of(RegionRecords.record(1, 2, 3, null, 0));
+
+        codec.write(file, records);
+
+        assertEquals(records, codec.read(file));
+    }
+
+    @Test
+    void skipsInvalidRecords() throws IOException {
+        Path file = folder.resolve("r.0.0" + codec.fileExtension());
+        BarrelRecord valid = RegionRecords.record(1, 2, 3, "Ingredient_Stick", 5);
+        codec.write(file, List.of(valid));
+        String json = Files.readString(file, StandardCharsets.UTF_8);
+        Files.writeString(file, json.replaceFirst("\\[", "[{\"id\": \"not-a-uuid\"}, 42,"), StandardCharsets.UTF_8);
+
+        List<BarrelRecord> read = new ArrayList<>();
+        int skipped = codec.forEach(file, read::add);
+
+        assertEquals(2, skipped);
+        assertEquals(List.of(valid), read);
+    }
+
+    @Test
+    void readsChunkKeysWithoutDecodingRecords() throws IOException {
+        List<BarrelRecord> records = RegionRecords.sample();
+        Path file = folder.resolve("r.-1.-1" + codec.fileExtension());
+        codec.write(file, records);
+        String json = Files.readString(file, StandardCharsets.UTF_8);
+        Files.writeString(file, json.replaceFirst("\\[", "[{\"id\": \"not-a-uuid\"}, 42,"), StandardCharsets.UTF_8);
+
+        assertArrayEquals(RegionRecords.chunkKeys(records), codec.readChunkKeys(file));
+    }
+
+    @Test
+    void rejectsMalformedJson() throws IOException {
+        Path file = folder.resolve("r.0.0" + codec.fileExtension());
+        codec.write(file, RegionRecords.sample());
+        String json = Files.readString(file, StandardCharsets.UTF_8);
+        Files.writeString(file, json.substring(0, json.length() / 2), StandardCharsets.UTF_8);
+
+        assertThrows(IOException.class, () -> codec.read(file));
+        assertThrows(IOException.class, () -> codec.readChunkKeys(file));
+    }
+
+    @Test
+    void readsSameRecordsAsBinary() throws IOException {
+        List<BarrelRecord> records = RegionRecords.sample();
+        BinaryRegionCodec binary = new BinaryRegionCodec();
+        Path jsonFile = folder.resolve("r.0.0" + codec.fileExtension());
+        Path binaryFile = folder.resolve("r.0.0" + binary.fileExtension());
+
+        codec.write(jsonFile, records);
+        binary.write(binaryFile, records);
+
+        assertEquals(Set.copyOf(codec.read(jsonFile)), Set.copyOf(binary.read(binaryFile)));
+    }
+}
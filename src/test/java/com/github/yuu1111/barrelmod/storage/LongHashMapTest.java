@@ -0,0 +1,148 @@
+package com.github.yuu1111.barrelmod.storage;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * {@link LongHashMap}のテスト
+ */
+class LongHashMapTest {
+
+    /**
+     * 狭いキー範囲で追加・削除を繰り返し、衝突の連鎖をまたぐバックワードシフト削除を
+     * {@link HashMap}の結果と突き合わせる
+     */
+    @Test
+    void matchesHashMapUnderRandomPutAndRemove() {
+        Random random = new Random(42);
+        LongHashMap<Long> map = new LongHashMap<>();
+        Map<Long, Long> expected = new HashMap<>();
+
+        for (int i = 0; i < 200_000; i++) {
+            long key = random.nextInt(64) - 32;
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(key), map.remove(key));
+            } else {
+                long value = random.nextLong();
+                assertEquals(expected.put(key, value), map.put(key, value));
+            }
+            assertEquals(expected.size(), map.size());
+            if ((i & 1023) == 0) {
+                assertSameEntries(expected, map);
+            }
+        }
+        assertSameEntries(expected, map);
+    }
+
+    /**
+     * 削除したキーの後ろに連なっていたキーが、削除後も全て引けることを確認する
+     */
+    @Test
+    void removeKeepsFollowingKeysReachable() {
+        for (int removed = 0; removed < 7; removed++) {
+            LongHashMap<String> map = new LongHashMap<>();
+            for (long key = 0; key < 7; key++) {
+                map.put(key * 16, "v" + key);
+            }
+
+            assertEquals("v" + removed, map.remove(removed * 16L));
+            assertNull(map.get(removed * 16L));
+            for (long key = 0; key < 7; key++) {
+                if (key != removed) {
+                    assertEquals("v" + key, map.get(key * 16), "key " + key * 16 + " after removing " + removed * 16);
+                }
+            }
+            assertEquals(6, map.size());
+        }
+    }
+
+    @Test
+    void resizeKeepsAllEntries() {
+        LongHashMap<Integer> map = new LongHashMap<>();
+        int count = 100_000;
+        for (int i = 0; i < count; i++) {
+            map.put(keyOf(i), i);
+        }
+
+        assertEquals(count, map.size());
+        for (int i = 0; i < count; i++) {
+            assertEquals(i, map.get(keyOf(i)));
+        }
+        assertNull(map.get(keyOf(count)));
+
+        Set<Long> visited = new HashSet<>();
+        map.forEach((key, value) -> {
+            assertTrue(visited.add(key), "visited twice: " + key);
+            assertEquals(keyOf(value), key);
+        });
+        assertEquals(count, visited.size());
+    }
+
+    @Test
+    void handlesZeroAndExtremeKeys() {
+        LongHashMap<String> map = new LongHashMap<>();
+        long[] keys = {0, -1, Long.MIN_VALUE, Long.MAX_VALUE, PositionKey.pack(-30_000_000, -64, 30_000_000)};
+        for (long key : keys) {
+            assertNull(map.put(key, Long.toString(key)));
+        }
+        for (long key : keys) {
+            assertTrue(map.containsKey(key));
+            assertEquals(Long.toString(key), map.get(key));
+        }
+        assertFalse(map.containsKey(1));
+
+        assertEquals("0", map.remove(0));
+        assertFalse(map.containsKey(0));
+        assertEquals(keys.length - 1, map.size());
+    }
+
+    @Test
+    void rejectsNullValue() {
+        LongHashMap<String> map = new LongHashMap<>();
+        assertThrows(IllegalArgumentException.class, () -> map.put(1, null));
+        assertTrue(map.isEmpty());
+    }
+
+    @Test
+    void clearRemovesAllEntries() {
+        LongHashMap<Integer> map = new LongHashMap<>(1000);
+        for (int i = 0; i < 1000; i++) {
+            map.put(i, i);
+        }
+
+        map.clear();
+
+        assertTrue(map.isEmpty());
+        assertNull(map.get(10));
+        map.forEachValue(value -> {
+            throw new AssertionError("unexpected value " + value);
+        });
+        map.put(10, 10);
+        assertEquals(10, map.get(10));
+    }
+
+    private static long keyOf(int i) {
+        return (long) i * 0x10001L - 50_000;
+    }
+
+    private static void assertSameEntries(Map<Long, Long> expected, LongHashMap<Long> map) {
+        for (long key = -32; key < 32; key++) {
+            assertEquals(expected.get(key), map.get(key), "key " + key);
+            assertEquals(expected.containsKey(key), map.containsKey(key), "key " + key);
+        }
+        Map<Long, Long> actual = new HashMap<>();
+        map.forEach(actual::put);
+        assertEquals(expected, actual);
+    }
+}
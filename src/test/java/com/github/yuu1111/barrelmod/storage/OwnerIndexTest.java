@@ -0,0 +1,105 @@
+package com.github.yuu1111.barrelmod.storage;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * {@link OwnerIndex}の所有数と上限のテスト
+ */
+class OwnerIndexTest {
+
+    @Test
+    void tryAddStopsAtQuota() {
+        OwnerIndex index = new OwnerIndex();
+        UUID owner = UUID.randomUUID();
+
+        assertTrue(index.tryAdd(owner, 2));
+        assertTrue(index.tryAdd(owner, 2));
+        assertFalse(index.tryAdd(owner, 2));
+        assertEquals(2, index.countOf(owner));
+
+        index.remove(owner);
+        assertTrue(index.tryAdd(owner, 2));
+        assertEquals(2, index.countOf(owner));
+    }
+
+    @Test
+    void nonPositiveQuotaIsUnlimited() {
+        OwnerIndex index = new OwnerIndex();
+        UUID owner = UUID.randomUUID();
+
+        for (int i = 0; i < 100; i++) {
+            assertTrue(index.tryAdd(owner, 0));
+        }
+        assertEquals(100, index.countOf(owner));
+    }
+
+    @Test
+    void concurrentTryAddNeverExceedsQuota() throws Exception {
+        OwnerIndex index = new OwnerIndex();
+        UUID owner = UUID.randomUUID();
+        int quota = 50;
+        CountDownLatch start = new CountDownLatch(1);
+
+        List<Future<Boolean>> attempts = new ArrayList<>();
+        try (ExecutorService executor = Executors.newFixedThreadPool(8)) {
+            for (int i = 0; i < 1000; i++) {
+                attempts.add(executor.submit(() -> {
+                    start.await();
+                    return index.tryAdd(owner, quota);
+                }));
+            }
+            start.countDown();
+            int accepted = 0;
+            for (Future<Boolean> attempt : attempts) {
+                if (attempt.get(5, TimeUnit.SECONDS)) {
+                    accepted++;
+                }
+            }
+            assertEquals(quota, accepted);
+        }
+        assertEquals(quota, index.countOf(owner));
+    }
+
+    @Test
+    void removeDoesNotGoNegativeAndIgnoresNull() {
+        OwnerIndex index = new OwnerIndex();
+        UUID owner = UUID.randomUUID();
+
+        index.remove(owner);
+        index.add(null);
+        index.remove(null);
+
+        assertEquals(0, index.countOf(owner));
+        assertTrue(index.counts().isEmpty());
+    }
+
+    @Test
+    void setCountsReplacesPreviousCounts() {
+        OwnerIndex index = new OwnerIndex();
+        UUID kept = UUID.randomUUID();
+        UUID dropped = UUID.randomUUID();
+        index.add(kept);
+        index.add(dropped);
+
+        index.setCounts(Map.of(kept, 3));
+
+        assertEquals(3, index.countOf(kept));
+        assertEquals(0, index.countOf(dropped));
+        assertEquals(Map.of(kept, 3), index.counts());
+        assertFalse(index.tryAdd(kept, 3));
+    }
+}
@@ -0,0 +1,53 @@
+package com.github.yuu1111.barrelmod.storage;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * {@link PositionKey}の座標のパックと範囲のテスト
+ */
+class PositionKeyTest {
+
+    @Test
+    void packRoundTripsAtBounds() {
+        int[][] positions = {
+                {0, 0, 0}, {-1, -1, -1},
+                {PositionKey.MIN_XZ, PositionKey.MIN_Y, PositionKey.MIN_XZ},
+                {PositionKey.MAX_XZ, PositionKey.MAX_Y, PositionKey.MAX_XZ},
+                {PositionKey.MIN_XZ, PositionKey.MAX_Y, PositionKey.MAX_XZ}
+        };
+        for (int[] position : positions) {
+            long key = PositionKey.pack(position[0], position[1], position[2]);
+            assertEquals(position[0], PositionKey.unpackX(key));
+            assertEquals(position[1], PositionKey.unpackY(key));
+            assertEquals(position[2], PositionKey.unpackZ(key));
+        }
+    }
+
+    @Test
+    void packRejectsOutOfRangePositions() {
+        assertFalse(PositionKey.isPackable(PositionKey.MAX_XZ + 1, 0, 0));
+        assertFalse(PositionKey.isPackable(0, 0, PositionKey.MIN_XZ - 1));
+        assertFalse(PositionKey.isPackable(0, PositionKey.MAX_Y + 1, 0));
+        assertFalse(PositionKey.isPackable(0, PositionKey.MIN_Y - 1, 0));
+        assertTrue(PositionKey.isPackable(PositionKey.MAX_XZ, PositionKey.MAX_Y, PositionKey.MIN_XZ));
+
+        // 切り詰めると (MIN_XZ, 0, 0) と衝突する
+        assertThrows(IllegalArgumentException.class, () -> PositionKey.pack(PositionKey.MAX_XZ + 1, 0, 0));
+        assertThrows(IllegalArgumentException.class, () -> PositionKey.pack(0, PositionKey.MAX_Y + 1, 0));
+    }
+
+    @Test
+    void neighbouringPositionsHaveDistinctKeys() {
+        long key = PositionKey.pack(10, 64, -10);
+
+        assertNotEquals(key, PositionKey.pack(11, 64, -10));
+        assertNotEquals(key, PositionKey.pack(10, 65, -10));
+        assertNotEquals(key, PositionKey.pack(10, 64, -9));
+    }
+}
@@ -0,0 +1,47 @@
+package com.github.yuu1111.barrelmod.storage;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * コーデックのテストで使用するレコード
+ */
+final class RegionRecords {
+
+    static final String WORLD_ID = "default";
+
+    private RegionRecords() {
+    }
+
+    /**
+     * 空・ロック・オーナー未設定・負の座標・非ASCIIのアイテムIDなどを含むレコード
+     *
+     * @return 複数チャンクにまたがるレコードのリスト
+     */
+    static List<BarrelRecord> sample() {
+        UUID owner = UUID.fromString("3f2c9a1e-7b4d-4e8a-9c61-2d5f0b7a8e13");
+        return List.of(
+                record(-1, 64, -1, "Ingredient_Stick", 1),
+                record(-33, -2048, -200, null, 0),
+                new BarrelRecord(new UUID(1, 2), -500, 2047, -7, WORLD_ID, "Rock_Stone", 4096, 4096, true, owner),
+                new BarrelRecord(new UUID(-1, -1), -2, 0, -300, WORLD_ID, "鉱石_銅", 17, 8192, false, owner),
+                new BarrelRecord(new UUID(0, 0), -31, 10, -31, WORLD_ID, "Ingredient_Stick", 64, 4096, true, null));
+    }
+
+    /**
+     * @return レコードを含むチャンクのキーの昇順の配列
+     */
+    static long[] chunkKeys(List<BarrelRecord> records) {
+        return records.stream()
+                .mapToLong(record -> PositionKey.packColumn(
+                        PositionKey.toChunk(record.posX()), PositionKey.toChunk(record.posZ())))
+                .distinct()
+                .sorted()
+                .toArray();
+    }
+
+    static BarrelRecord record(int x, int y, int z, String itemId, int amount) {
+        return new BarrelRecord(UUID.nameUUIDFromBytes((x + "," + y + "," + z).getBytes()), x, y, z,
+                WORLD_ID, itemId, amount, 4096, false, null);
+    }
+}